@@ -0,0 +1,152 @@
+package tr.geonames;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * An editable view of the CSV code tables that {@link GeoNamesCodes} is loaded from, used to apply GeoNames updates.
+ * <p>
+ * The order of the codes as well as the byte order mark and line separator of each file are kept as they are.
+ * As the tables are cached by the checksum of the CSV files, the cache is rebuilt on the next load after {@link #write()}.
+ * </p>
+ */
+public class GeoNamesCodeTables {
+    private static final GeoNamesLevel[] TABLE_LEVELS = {
+            GeoNamesLevel.CONTINENT, GeoNamesLevel.COUNTRY, GeoNamesLevel.ADMIN1, GeoNamesLevel.ADMIN2
+    };
+    private static final String BOM = "\uFEFF";
+
+    private final Path[] csvFiles = new Path[TABLE_LEVELS.length];
+    private final Table[] tables = new Table[TABLE_LEVELS.length];
+
+    private GeoNamesCodeTables(String gazetteerDir) throws IOException {
+        for (int t = 0; t < TABLE_LEVELS.length; t++) {
+            csvFiles[t] = Paths.get(gazetteerDir, GeoNamesCodes.TABLE_FILES[t]);
+            tables[t] = Table.read(csvFiles[t]);
+        }
+    }
+
+    public static GeoNamesCodeTables read(String gazetteerDir) throws IOException {
+        return new GeoNamesCodeTables(gazetteerDir);
+    }
+
+    public Long find(GeoNamesLevel level, String code) {
+        return table(level).codeIds.get(code);
+    }
+
+    /**
+     * Maps the code to the given id, replacing any other code of the id in the same table
+     * @return whether the table has changed
+     */
+    public boolean assign(GeoNamesLevel level, String code, long geonameId) {
+        final Table table = table(level);
+        if (Objects.equals(table.codeIds.get(code), geonameId))
+            return false;
+
+        table.codeIds.values().removeIf(id -> id == geonameId);
+        table.codeIds.put(code, geonameId);
+        table.modified = true;
+        return true;
+    }
+
+    /**
+     * @return whether the table has changed
+     */
+    public boolean remove(GeoNamesLevel level, long geonameId) {
+        final Table table = table(level);
+        if (table.codeIds.values().removeIf(id -> id == geonameId)) {
+            table.modified = true;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Removes the id from all tables
+     * @return whether any table has changed
+     */
+    public boolean removeAll(long geonameId) {
+        boolean modified = false;
+        for (GeoNamesLevel level : TABLE_LEVELS) {
+            modified |= remove(level, geonameId);
+        }
+        return modified;
+    }
+
+    public boolean isModified() {
+        return Arrays.stream(tables).anyMatch(table -> table.modified);
+    }
+
+    /**
+     * Writes back the tables that have changed
+     */
+    public void write() throws IOException {
+        for (int t = 0; t < tables.length; t++) {
+            if (tables[t].modified) {
+                tables[t].write(csvFiles[t]);
+                tables[t].modified = false;
+            }
+        }
+    }
+
+    private Table table(GeoNamesLevel level) {
+        for (int t = 0; t < TABLE_LEVELS.length; t++) {
+            if (TABLE_LEVELS[t] == level)
+                return tables[t];
+        }
+
+        throw new IllegalArgumentException("no code table for level: " + level);
+    }
+
+    private static class Table {
+        private final Map<String, Long> codeIds = new LinkedHashMap<>();
+        private String prefix = "";
+        private String lineSeparator = System.lineSeparator();
+        private boolean trailingSeparator = false;
+        private boolean modified = false;
+
+        static Table read(Path csvFile) throws IOException {
+            final Table table = new Table();
+
+            String content = new String(Files.readAllBytes(csvFile), StandardCharsets.UTF_8);
+            if (content.startsWith(BOM)) {
+                table.prefix = BOM;
+                content = content.substring(BOM.length());
+            }
+
+            for (String separator : new String[] {"\r\n", "\r", "\n"}) {
+                if (content.contains(separator)) {
+                    table.lineSeparator = separator;
+                    table.trailingSeparator = content.endsWith(separator);
+                    break;
+                }
+            }
+
+            for (String line : content.split("\r\n|\r|\n")) {
+                if (line.isEmpty())
+                    continue;
+
+                final String[] tokens = line.split(",");
+                table.codeIds.put(tokens[0], Long.valueOf(tokens[1]));
+            }
+
+            return table;
+        }
+
+        void write(Path csvFile) throws IOException {
+            final StringJoiner content = new StringJoiner(lineSeparator, prefix, trailingSeparator ? lineSeparator : "");
+            content.setEmptyValue(prefix);
+            codeIds.forEach((code, geonameId) -> content.add(code + "," + geonameId));
+
+            final Path tempFile = Files.createTempFile(csvFile.toAbsolutePath().getParent(), csvFile.getFileName().toString(), ".tmp");
+            Files.write(tempFile, content.toString().getBytes(StandardCharsets.UTF_8));
+            Files.move(tempFile, csvFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package tr.geonames;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import tr.util.collect.LongByteHashMap;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * The code tables of continents, countries and administrative divisions.
+ * <p>
+ * Codes are mapped to geonameIds in plain hash maps, whereas the reverse direction, i.e.
+ * which tables a geonameId belongs to, is kept as one byte of flags per id in a primitive map,
+ * so that classifying an entry neither boxes its id nor probes four tables.
+ * </p>
+ * The parsed tables are cached in a binary file next to the CSV files, keyed by the checksum of the CSV files.
+ */
+final class GeoNamesCodes {
+    static final byte CONTINENT = 1;
+    static final byte COUNTRY = 1 << 1;
+    static final byte ADMIN1 = 1 << 2;
+    static final byte ADMIN2 = 1 << 3;
+
+    static final String[] TABLE_FILES = {"continents.csv", "country.csv", "admin1.csv", "admin2.csv"};
+    private static final byte[] TABLE_FLAGS = {CONTINENT, COUNTRY, ADMIN1, ADMIN2};
+
+    private static final String CACHE_FILE = "codes.cache";
+    private static final int CACHE_MAGIC = 0x474E4344;
+    private static final int CACHE_VERSION = 1;
+
+    private static final Logger logger = LogManager.getLogger(GeoNamesCodes.class);
+
+    private final Map<String, Long> continentIds = new HashMap<>();
+    private final Map<String, Long> countryIds = new HashMap<>();
+    private final Map<String, Long> admin1Ids = new HashMap<>();
+    private final Map<String, Long> admin2Ids = new HashMap<>();
+
+    @SuppressWarnings("unchecked")
+    private final Map<String, Long>[] tables = new Map[] {continentIds, countryIds, admin1Ids, admin2Ids};
+
+    private final LongByteHashMap levelFlags;
+
+    private GeoNamesCodes(int expectedSize) {
+        this.levelFlags = new LongByteHashMap(expectedSize);
+    }
+
+    /**
+     * Loads the tables from the binary cache in the given directory,
+     * unless the CSV files have changed since the cache was written, in which case the cache is rebuilt.
+     */
+    static GeoNamesCodes load(String gazetteerDir) throws IOException {
+        return load(gazetteerDir, Paths.get(gazetteerDir, CACHE_FILE));
+    }
+
+    /**
+     * Like {@link #load(String)}, but the cache is kept in the given file rather than in the directory of the tables
+     */
+    static GeoNamesCodes load(String gazetteerDir, Path cacheFile) throws IOException {
+        final Path[] csvFiles = new Path[TABLE_FILES.length];
+        for (int t = 0; t < TABLE_FILES.length; t++) {
+            csvFiles[t] = Paths.get(gazetteerDir, TABLE_FILES[t]);
+        }
+
+        final long checksum = checksum(csvFiles);
+
+        if (Files.exists(cacheFile)) {
+            try {
+                final Optional<GeoNamesCodes> codes = readCache(cacheFile, checksum);
+                if (codes.isPresent())
+                    return codes.get();
+            } catch (IOException e) {
+                logger.warn("unable to read code tables cache, rebuilding it: " + e.getMessage());
+            }
+        }
+
+        final GeoNamesCodes codes = readCsv(csvFiles);
+
+        try {
+            codes.writeCache(cacheFile, checksum);
+        } catch (IOException e) {
+            logger.warn("unable to write code tables cache: " + e.getMessage());
+        }
+
+        return codes;
+    }
+
+    private static GeoNamesCodes readCsv(Path[] csvFiles) throws IOException {
+        final List<List<String>> tables = new ArrayList<>();
+        int size = 0;
+        for (Path csvFile : csvFiles) {
+            final List<String> lines = Files.readAllLines(csvFile);
+            tables.add(lines);
+            size += lines.size();
+        }
+
+        final GeoNamesCodes codes = new GeoNamesCodes(size);
+        for (int t = 0; t < tables.size(); t++) {
+            for (String line : tables.get(t)) {
+                final String[] tokens = line.split(",");
+                codes.add(t, tokens[0], Long.valueOf(tokens[1]));
+            }
+        }
+
+        return codes;
+    }
+
+    private static long checksum(Path[] csvFiles) throws IOException {
+        final CRC32 crc = new CRC32();
+        for (Path csvFile : csvFiles) {
+            crc.update(Files.readAllBytes(csvFile));
+        }
+        return crc.getValue();
+    }
+
+    private static Optional<GeoNamesCodes> readCache(Path cacheFile, long checksum) throws IOException {
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(cacheFile), 1 << 16))) {
+            if (in.readInt() != CACHE_MAGIC || in.readInt() != CACHE_VERSION || in.readLong() != checksum)
+                return Optional.empty();
+
+            final GeoNamesCodes codes = new GeoNamesCodes(in.readInt());
+            for (int t = 0; t < TABLE_FILES.length; t++) {
+                final int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    final String code = in.readUTF();
+                    codes.add(t, code, in.readLong());
+                }
+            }
+
+            return Optional.of(codes);
+        }
+    }
+
+    private void writeCache(Path cacheFile, long checksum) throws IOException {
+        final Path tempFile = Files.createTempFile(cacheFile.toAbsolutePath().getParent(), CACHE_FILE, ".tmp");
+
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile), 1 << 16))) {
+            out.writeInt(CACHE_MAGIC);
+            out.writeInt(CACHE_VERSION);
+            out.writeLong(checksum);
+            out.writeInt(levelFlags.size());
+
+            for (Map<String, Long> codeIds : tables) {
+                out.writeInt(codeIds.size());
+                for (Map.Entry<String, Long> codeId : codeIds.entrySet()) {
+                    out.writeUTF(codeId.getKey());
+                    out.writeLong(codeId.getValue());
+                }
+            }
+        }
+
+        Files.move(tempFile, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void add(int table, String code, long geonameId) {
+        add(tables[table], code, geonameId, TABLE_FLAGS[table]);
+    }
+
+    private void add(Map<String, Long> codeIds, String code, long geonameId, byte flag) {
+        final Long previousId = codeIds.put(code, geonameId);
+        if (previousId != null && previousId != geonameId)
+            levelFlags.put(previousId, (byte) (levelFlags.get(previousId, (byte) 0) & ~flag));
+
+        levelFlags.put(geonameId, (byte) (levelFlags.get(geonameId, (byte) 0) | flag));
+    }
+
+    Long findContinentId(String code) {
+        return continentIds.get(code);
+    }
+
+    Long findCountryId(String code) {
+        return countryIds.get(code);
+    }
+
+    Long findAdmin1Id(String code) {
+        return admin1Ids.get(code);
+    }
+
+    Long findAdmin2Id(String code) {
+        return admin2Ids.get(code);
+    }
+
+    boolean is(long geonameId, byte flag) {
+        return (levelFlags.get(geonameId, (byte) 0) & flag) != 0;
+    }
+
+    /**
+     * @return the highest level among the tables that contain the given id, {@link GeoNamesLevel#LEAF} if none does
+     */
+    GeoNamesLevel findLevel(long geonameId) {
+        final byte flags = levelFlags.get(geonameId, (byte) 0);
+
+        if ((flags & CONTINENT) != 0)
+            return GeoNamesLevel.CONTINENT;
+        else if ((flags & COUNTRY) != 0)
+            return GeoNamesLevel.COUNTRY;
+        else if ((flags & ADMIN1) != 0)
+            return GeoNamesLevel.ADMIN1;
+        else if ((flags & ADMIN2) != 0)
+            return GeoNamesLevel.ADMIN2;
+        else
+            return GeoNamesLevel.LEAF;
+    }
+}
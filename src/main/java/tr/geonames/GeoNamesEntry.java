@@ -1,11 +1,19 @@
 package tr.geonames;
 
 import tr.util.geo.GeoCoordinate;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
+import java.util.Arrays;
 import java.util.Objects;
 
 public class GeoNamesEntry implements GeoNamable {
 
+	/**
+	 * Lower-cased names are shared by all entries, as many of them (e.g. city names in different countries) recur
+	 */
+	private static final Interner<String> namePool = Interners.newWeakInterner();
+
 	private Long geonameId;
 	private String name;
 	private String alternateNames;
@@ -18,6 +26,10 @@ public class GeoNamesEntry implements GeoNamable {
 
 	private GeoNamesLevel level;
 
+	private int alternateNameCount;
+	private volatile String lowerCaseName;
+	private volatile String[] lowerCaseAlternateNames;
+
 	@Override
 	public String toString() {
 		return String.format("%s (%d)", name, geonameId);
@@ -56,6 +68,17 @@ public class GeoNamesEntry implements GeoNamable {
 
 	public void setName(String name) {
 		this.name = name;
+		this.lowerCaseName = null;
+	}
+
+	/**
+	 * @return the lower-cased name, built on first access
+	 */
+	public String getLowerCaseName() {
+		String lowerCase = lowerCaseName;
+		if (lowerCase == null && name != null)
+			lowerCaseName = lowerCase = namePool.intern(name.toLowerCase());
+		return lowerCase;
 	}
 
 	public String getAlternateNames() {
@@ -64,6 +87,81 @@ public class GeoNamesEntry implements GeoNamable {
 
 	public void setAlternateNames(String alternateNames) {
 		this.alternateNames = alternateNames;
+		this.alternateNameCount = countAlternateNames(alternateNames);
+		this.lowerCaseAlternateNames = null;
+	}
+
+	/**
+	 * @return the number of alternate names as <code>alternateNames.split(",").length</code> counts them,
+	 * or 0 if the entry has no alternate names
+	 */
+	public int getAlternateNameCount() {
+		return alternateNameCount;
+	}
+
+	/**
+	 * The array is built on first access and shared; it must not be modified.
+	 * @return distinct non-empty alternate names in lower case, in the order they first appear
+	 */
+	public String[] getLowerCaseAlternateNames() {
+		String[] altNames = lowerCaseAlternateNames;
+		if (altNames == null)
+			lowerCaseAlternateNames = altNames = splitAlternateNames(alternateNames);
+		return altNames;
+	}
+
+	private static String[] splitAlternateNames(String alternateNames) {
+		if (alternateNames == null || alternateNames.isEmpty())
+			return new String[0];
+
+		final String[] altNames = new String[countCommas(alternateNames, alternateNames.length()) + 1];
+		int n = 0;
+		for (int from = 0; from <= alternateNames.length(); ) {
+			int to = alternateNames.indexOf(',', from);
+			if (to < 0)
+				to = alternateNames.length();
+
+			if (to > from) {
+				final String altName = namePool.intern(alternateNames.substring(from, to).toLowerCase());
+				boolean duplicate = false;
+				for (int i = 0; i < n && !duplicate; i++) {
+					duplicate = altNames[i] == altName;
+				}
+				if (!duplicate)
+					altNames[n++] = altName;
+			}
+
+			from = to + 1;
+		}
+
+		return n == altNames.length ? altNames : Arrays.copyOf(altNames, n);
+	}
+
+	private static int countCommas(String alternateNames, int end) {
+		int commas = 0;
+		for (int i = 0; i < end; i++) {
+			if (alternateNames.charAt(i) == ',')
+				commas++;
+		}
+		return commas;
+	}
+
+	/**
+	 * Same as <code>alternateNames.split(",").length</code> without splitting:
+	 * trailing empty names are not counted.
+	 */
+	private static int countAlternateNames(String alternateNames) {
+		if (alternateNames == null)
+			return 0;
+
+		int i = alternateNames.length() - 1;
+		while (i >= 0 && alternateNames.charAt(i) == ',')
+			i--;
+
+		if (i < 0)
+			return alternateNames.isEmpty() ? 1 : 0;
+
+		return countCommas(alternateNames, i + 1) + 1;
 	}
 
 	public Double getLatitude() {
@@ -0,0 +1,130 @@
+package tr.geonames;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A bounded, concurrent cache of gazetteer entries keyed by geonameId.
+ * <p>
+ * Entries at one of the pinned levels (e.g. countries and first-order divisions) are kept
+ * in a separate unbounded map and never evicted; their number is small and they are
+ * requested by almost every hierarchy lookup.
+ * All other entries are evicted in LRU order once the maximum size is reached.
+ * </p>
+ * Cached entries are shared, so they must not be modified after they are loaded.
+ */
+public class GeoNamesEntryCache {
+    private final Cache<Long, GeoNamesEntry> cache;
+    private final Map<Long, GeoNamesEntry> pinnedEntries = new ConcurrentHashMap<>();
+    private final Set<GeoNamesLevel> pinnedLevels;
+
+    private final LongAdder pinnedHits = new LongAdder();
+
+    GeoNamesEntryCache(long maxSize, Collection<GeoNamesLevel> pinnedLevels) {
+        this.cache = CacheBuilder.newBuilder()
+                .maximumSize(maxSize)
+                .recordStats()
+                .build();
+        this.pinnedLevels = pinnedLevels.isEmpty() ? EnumSet.noneOf(GeoNamesLevel.class) : EnumSet.copyOf(pinnedLevels);
+    }
+
+    /**
+     * @param loader loads the entry with its level set, in case the entry is not cached
+     * @throws tr.util.db.IdNotFoundException thrown by the loader
+     */
+    GeoNamesEntry get(Long geonameId, Function<Long, GeoNamesEntry> loader) {
+        final GeoNamesEntry pinnedEntry = pinnedEntries.get(geonameId);
+        if (pinnedEntry != null) {
+            pinnedHits.increment();
+            return pinnedEntry;
+        }
+
+        final GeoNamesEntry entry;
+        try {
+            entry = cache.get(geonameId, () -> loader.apply(geonameId));
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        } catch (ExecutionException e) {
+            throw new UncheckedExecutionException(e.getCause());
+        }
+
+        pin(entry);
+        return entry;
+    }
+
+    /**
+     * @return the cached entries of the given ids, keyed by geonameId
+     */
+    Map<Long, GeoNamesEntry> getAllPresent(Collection<Long> geonameIds) {
+        final Map<Long, GeoNamesEntry> entries = new HashMap<>();
+
+        final List<Long> unpinnedIds = new ArrayList<>();
+        for (Long geonameId : geonameIds) {
+            final GeoNamesEntry pinnedEntry = pinnedEntries.get(geonameId);
+            if (pinnedEntry != null) {
+                pinnedHits.increment();
+                entries.put(geonameId, pinnedEntry);
+            } else {
+                unpinnedIds.add(geonameId);
+            }
+        }
+
+        entries.putAll(cache.getAllPresent(unpinnedIds));
+        return entries;
+    }
+
+    void put(GeoNamesEntry entry) {
+        if (!pin(entry))
+            cache.put(entry.getGeonameId(), entry);
+    }
+
+    private boolean pin(GeoNamesEntry entry) {
+        if (!pinnedLevels.contains(entry.getLevel()))
+            return false;
+
+        if (pinnedEntries.putIfAbsent(entry.getGeonameId(), entry) == null)
+            cache.invalidate(entry.getGeonameId());
+
+        return true;
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long size() {
+        return cache.size();
+    }
+
+    public long pinnedSize() {
+        return pinnedEntries.size();
+    }
+
+    /**
+     * @return the fraction of requests served by either the pinned entries or the cache
+     */
+    public double hitRate() {
+        final CacheStats stats = cache.stats();
+        final long hits = stats.hitCount() + pinnedHits.sum();
+        final long requests = stats.requestCount() + pinnedHits.sum();
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    @Override
+    public String toString() {
+        final CacheStats stats = cache.stats();
+        return String.format("size: %d (+%d pinned) hitRate: %.3f evictions: %d loads: %d avgLoad: %.3f ms",
+                size(), pinnedSize(), hitRate(),
+                stats.evictionCount(), stats.loadCount(), stats.averageLoadPenalty() / 1e6);
+    }
+}
@@ -0,0 +1,160 @@
+package tr.geonames;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Maps every geonameId to the ids of its country, first-order and second-order administrative divisions.
+ * <p>
+ * The index is built at import time from the same code tables that {@link GeoNamesUtil#getGeoNamesHierarchy(GeoNamesEntry)}
+ * would otherwise look up per candidate, so resolving a hierarchy needs neither string building nor a database query.
+ * On disk (and memory-mapped at runtime) it consists of a header, the geonameIds in ascending order
+ * and three parent ids per geonameId. A missing parent, or a parent that is the entry itself, is stored as 0.
+ * </p>
+ */
+public class GeoNamesHierarchyIndex {
+    private static final int MAGIC = 0x474E4849;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+
+    private static final GeoNamesLevel[] PARENT_LEVELS = { GeoNamesLevel.COUNTRY, GeoNamesLevel.ADMIN1, GeoNamesLevel.ADMIN2 };
+
+    private final int count;
+    private final IntBuffer ids;
+    private final IntBuffer parents;
+
+    private GeoNamesHierarchyIndex(FileChannel channel) throws IOException {
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+        if (buffer.getInt(0) != MAGIC)
+            throw new IOException("not a hierarchy index");
+        if (buffer.getInt(4) != VERSION)
+            throw new IOException(String.format("hierarchy index version %d is not supported (expected %d), re-import GeoNames",
+                    buffer.getInt(4), VERSION));
+
+        this.count = buffer.getInt(8);
+
+        buffer.position(HEADER_SIZE);
+        this.ids = buffer.slice().asIntBuffer();
+        buffer.position(HEADER_SIZE + count * 4);
+        this.parents = buffer.slice().asIntBuffer();
+    }
+
+    public static GeoNamesHierarchyIndex open(String indexFile) throws IOException {
+        try (final FileChannel channel = FileChannel.open(Paths.get(indexFile), StandardOpenOption.READ)) {
+            return new GeoNamesHierarchyIndex(channel);
+        }
+    }
+
+    public int size() {
+        return count;
+    }
+
+    /**
+     * @return the position of the given geonameId in the index, or -1 if it is not indexed
+     */
+    public int indexOf(long geonameId) {
+        int lo = 0, hi = count - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final int midId = ids.get(mid);
+            if (midId < geonameId)
+                lo = mid + 1;
+            else if (midId > geonameId)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param index a position returned by {@link #indexOf(long)}
+     * @param level one of {@link GeoNamesLevel#COUNTRY}, {@link GeoNamesLevel#ADMIN1} or {@link GeoNamesLevel#ADMIN2}
+     * @return the geonameId of the parent at the given level, or 0 if there is none
+     */
+    public long parentAt(int index, GeoNamesLevel level) {
+        return parents.get(index * 3 + column(level));
+    }
+
+    private static int column(GeoNamesLevel level) {
+        switch (level) {
+            case COUNTRY:
+                return 0;
+            case ADMIN1:
+                return 1;
+            case ADMIN2:
+                return 2;
+            default:
+                throw new IllegalArgumentException("not a hierarchy level: " + level);
+        }
+    }
+
+    static GeoNamesLevel[] getParentLevels() {
+        return PARENT_LEVELS;
+    }
+
+    /**
+     * Collects the hierarchy of the entries while they are imported and writes the index at the end.
+     */
+    public static class Writer {
+        private int[] ids = new int[1 << 16];
+        private int[] parents = new int[3 << 16];
+        private int size = 0;
+
+        public void add(long geonameId, String countryCode, String admin1Code, String admin2Code) {
+            if (geonameId > Integer.MAX_VALUE)
+                throw new IllegalArgumentException("geonameId out of range: " + geonameId);
+
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                parents = Arrays.copyOf(parents, size * 6);
+            }
+
+            final String[] hierarchyCodes = GeoNamesRepository.getHierarchyCodes(countryCode, admin1Code, admin2Code);
+            final Long[] parentIds = {
+                    GeoNamesRepository.findCountryId(hierarchyCodes[0]),
+                    GeoNamesRepository.findAdmin1Id(hierarchyCodes[1]),
+                    GeoNamesRepository.findAdmin2Id(hierarchyCodes[2])
+            };
+
+            ids[size] = (int) geonameId;
+            for (int i = 0; i < 3; i++) {
+                parents[size * 3 + i] = parentIds[i] == null || parentIds[i] == geonameId ? 0 : parentIds[i].intValue();
+            }
+            size++;
+        }
+
+        public void write(String indexFile) throws IOException {
+            final long[] order = new long[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = ((long) ids[i] << 32) | i;
+            }
+            Arrays.sort(order);
+
+            final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + size * 16);
+            buffer.putInt(MAGIC).putInt(VERSION).putInt(size).putInt(0);
+            for (long packed : order) {
+                buffer.putInt((int) (packed >>> 32));
+            }
+            for (long packed : order) {
+                final int i = (int) packed;
+                buffer.putInt(parents[i * 3]).putInt(parents[i * 3 + 1]).putInt(parents[i * 3 + 2]);
+            }
+            buffer.flip();
+
+            try (final FileChannel channel = FileChannel.open(Paths.get(indexFile),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+            }
+        }
+    }
+}
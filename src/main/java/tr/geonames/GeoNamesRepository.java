@@ -2,14 +2,15 @@ package tr.geonames;
 
 import tr.BoundingBox;
 import tr.util.Config;
+import tr.util.StringUtil;
 import tr.util.db.BatchExecutor;
 import tr.util.db.IdNotFoundException;
 import tr.util.db.SQLiteConnector;
 import tr.util.redis.RedisHash;
 import tr.util.redis.RedisKey;
-import tr.util.redis.RedisSet;
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
+import com.google.common.base.Stopwatch;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ListMultimap;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -17,11 +18,10 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.Optional;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * Created with IntelliJ IDEA.
@@ -33,75 +33,202 @@ public class GeoNamesRepository {
 
     private final Logger logger = LogManager.getLogger(getClass());
 
-    private static final BiMap<String, Long> continentMap = HashBiMap.create();
-    private static final BiMap<String, Long> countryMap = HashBiMap.create();
-    private static final BiMap<String, Long> admin1Map = HashBiMap.create();
-    private static final BiMap<String, Long> admin2Map = HashBiMap.create();
+    static final long EARTH_ID = 6295630L;
 
     private final GeoNamesAPI geoNamesAPI = new GeoNamesAPI();
 
-    static {
-        try {
-            final List<String> countries = Files.readAllLines(Paths.get("data/gazetteer/country.csv"));
-            for (String country : countries) {
-                final String[] tokens = country.split(",");
-                countryMap.put(tokens[0], Long.valueOf(tokens[1]));
+    /**
+     * The code tables are loaded on first use rather than when the repository class is loaded.
+     */
+    private static class CodesHolder {
+        private static final GeoNamesCodes CODES;
+
+        static {
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            try {
+                CODES = GeoNamesCodes.load("data/gazetteer");
+            } catch (IOException e) {
+                throw new ExceptionInInitializerError(e);
             }
-        } catch (IOException e) {
-            throw new ExceptionInInitializerError(e);
+            LogManager.getLogger(GeoNamesRepository.class).debug("code tables loaded in {} ms", stopwatch.elapsed(TimeUnit.MILLISECONDS));
         }
+    }
 
-        try {
-            final List<String> admin1s = Files.readAllLines(Paths.get("data/gazetteer/admin1.csv"));
-            for (String admin1 : admin1s) {
-                final String[] tokens = admin1.split(",");
-                admin1Map.put(tokens[0], Long.valueOf(tokens[1]));
+    private static final GeoNamesEntryCache entryCache = new GeoNamesEntryCache(
+            Config.Gazetteer.GEONAMES_CACHE_MAX_SIZE,
+            Arrays.stream(Config.Gazetteer.GEONAMES_CACHE_PINNED_LEVELS)
+                    .map(String::trim)
+                    .filter(level -> !level.isEmpty())
+                    .map(GeoNamesLevel::valueOf)
+                    .collect(Collectors.toList()));
+
+    private static final ThreadLocal<LoadCounter> loadCounter = ThreadLocal.withInitial(LoadCounter::new);
+
+    private final SQLiteConnector connector = new SQLiteConnector(Config.Gazetteer.GEONAMES_SQLITE);
+    private final GeoNamesSource source;
+
+    public GeoNamesRepository() {
+        this(false);
+    }
+
+    public GeoNamesRepository(boolean isImport) {
+        this.source = isImport ? new SQLiteGeoNamesSource() : newSource();
+    }
+
+    private static GeoNamesSource newSource() {
+        if (Config.Gazetteer.GEONAMES_BACKEND.equalsIgnoreCase("snapshot"))
+            return new SnapshotGeoNamesSource(SnapshotHolder.SNAPSHOT);
+        else if (Config.Gazetteer.GEONAMES_BACKEND.equalsIgnoreCase("sqlite"))
+            return new SQLiteGeoNamesSource();
+
+        throw new IllegalArgumentException("Unknown gazetteer backend: " + Config.Gazetteer.GEONAMES_BACKEND);
+    }
+
+    /**
+     * The snapshot is mapped once and shared by all repositories.
+     */
+    private static class SnapshotHolder {
+        private static final GeoNamesSnapshot SNAPSHOT;
+
+        static {
+            try {
+                SNAPSHOT = GeoNamesSnapshot.open(Config.Gazetteer.GEONAMES_SNAPSHOT);
+            } catch (IOException e) {
+                throw new ExceptionInInitializerError("unable to open gazetteer snapshot: " + e.getMessage());
             }
-        } catch (IOException e) {
-            throw new ExceptionInInitializerError(e);
         }
+    }
 
-        try {
-            final List<String> admin2s = Files.readAllLines(Paths.get("data/gazetteer/admin2.csv"));
-            for (String admin2 : admin2s) {
-                final String[] tokens = admin2.split(",");
-                admin2Map.put(tokens[0], Long.valueOf(tokens[1]));
+    /**
+     * The hierarchy index is optional; it is opened once if it has been built at import time.
+     */
+    private static class HierarchyIndexHolder {
+        private static final Optional<GeoNamesHierarchyIndex> HIERARCHY_INDEX = openHierarchyIndex();
+
+        private static Optional<GeoNamesHierarchyIndex> openHierarchyIndex() {
+            if (Config.Gazetteer.GEONAMES_HIERARCHY == null || Files.notExists(Paths.get(Config.Gazetteer.GEONAMES_HIERARCHY)))
+                return Optional.empty();
+
+            try {
+                return Optional.of(GeoNamesHierarchyIndex.open(Config.Gazetteer.GEONAMES_HIERARCHY));
+            } catch (IOException e) {
+                LogManager.getLogger(GeoNamesRepository.class).warn("unable to open hierarchy index: " + e.getMessage());
+                return Optional.empty();
             }
-        } catch (IOException e) {
-            throw new ExceptionInInitializerError(e);
         }
+    }
 
-        try {
-            final List<String> continents = Files.readAllLines(Paths.get("data/gazetteer/continents.csv"));
-            for (String continent : continents) {
-                final String[] tokens = continent.split(",");
-                continentMap.put(tokens[0], Long.valueOf(tokens[1]));
-            }
-        } catch (IOException e) {
-            throw new ExceptionInInitializerError(e);
+    public static Optional<GeoNamesHierarchyIndex> getHierarchyIndex() {
+        return HierarchyIndexHolder.HIERARCHY_INDEX;
+    }
+
+    /**
+     * @return the keys of the country, admin1 and admin2 code tables for the given codes; empty if a code is missing
+     */
+    public static String[] getHierarchyCodes(String countryCode, String admin1Code, String admin2Code) {
+        String[] levels = new String[] {"", "", ""};
+
+        if (StringUtil.hasText(countryCode)) {
+            levels[0] = countryCode;
         }
+
+        if (StringUtil.hasText(admin1Code))
+            levels[1] = (StringUtil.hasText(countryCode) ? (countryCode + ".") : "") + admin1Code;
+
+        if (StringUtil.hasText(admin2Code)) {
+            levels[2] = (StringUtil.hasText(countryCode) ? (countryCode + ".") : "") +
+                    (StringUtil.hasText(admin1Code) ? (admin1Code + ".") : "") +
+                    admin2Code;
+        }
+
+        return levels;
     }
 
-    private final SQLiteConnector connector = new SQLiteConnector(Config.Gazetteer.GEONAMES_SQLITE);
-    private final ResultSetToEntryMapper resultSetToEntryMapper = new ResultSetToEntryMapper();
+    static Long findCountryId(String countryCode) {
+        return StringUtil.hasText(countryCode) ? CodesHolder.CODES.findCountryId(countryCode) : null;
+    }
 
-    final GeoNamesEntry earthEntry;
+    static Long findAdmin1Id(String adminCode1) {
+        return StringUtil.hasText(adminCode1) ? CodesHolder.CODES.findAdmin1Id(adminCode1) : null;
+    }
 
-    public GeoNamesRepository() {
-        this(false);
+    static Long findAdmin2Id(String adminCode2) {
+        return StringUtil.hasText(adminCode2) ? CodesHolder.CODES.findAdmin2Id(adminCode2) : null;
     }
 
-    public GeoNamesRepository(boolean isImport) {
-        if (!isImport) {
-            try {
-                earthEntry = load(6295630L, entry -> {});
-                earthEntry.setLevel(GeoNamesLevel.EARTH);
-            } catch (IdNotFoundException e) {
-                throw new ExceptionInInitializerError("earth entry not found in geonames: " + e.getMessage());
-            }
-        } else {
-            earthEntry = null;
+    /**
+     * @return the cache shared by all repositories, e.g. to report its statistics
+     */
+    public static GeoNamesEntryCache getEntryCache() {
+        return entryCache;
+    }
+
+    /**
+     * @return statistics of the names that are remembered to have no entries in Redis
+     */
+    public static CacheStats getUnknownNameStats() {
+        return SQLiteGeoNamesSource.getUnknownNameStats();
+    }
+
+    /**
+     * Forgets the names remembered to have no entries, e.g. once the gazetteer is updated with new names
+     */
+    public static void invalidateUnknownNames() {
+        SQLiteGeoNamesSource.invalidateUnknownNames();
+    }
+
+    /**
+     * Counts the requests that reach the gazetteer backend, i.e. are not served by the entry cache, and the entries they load.
+     * Each thread has its own counter, so that the loads of an article can be told apart from those of other articles.
+     */
+    public static final class LoadCounter {
+        private long requests = 0;
+        private long entries = 0;
+
+        private void count(int loadedEntries) {
+            requests++;
+            entries += loadedEntries;
         }
+
+        public long getRequests() {
+            return requests;
+        }
+
+        public long getEntries() {
+            return entries;
+        }
+
+        /**
+         * @return a counter of the loads of both counters, e.g. of the threads that resolved the same article
+         */
+        public LoadCounter plus(LoadCounter other) {
+            final LoadCounter sum = new LoadCounter();
+            sum.requests = requests + other.requests;
+            sum.entries = entries + other.entries;
+            return sum;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d requests, %d entries", requests, entries);
+        }
+    }
+
+    /**
+     * @return the counter of the current thread
+     */
+    public static LoadCounter getLoadCounter() {
+        return loadCounter.get();
+    }
+
+    /**
+     * Starts a new counter for the current thread, e.g. at the beginning of an article
+     * @return the counter that has been replaced
+     */
+    public static LoadCounter resetLoadCounter() {
+        final LoadCounter counter = loadCounter.get();
+        loadCounter.set(new LoadCounter());
+        return counter;
     }
 
     public void createSchema() {
@@ -114,7 +241,19 @@ public class GeoNamesRepository {
                     "featureCode VARCHAR, featureClass VARCHAR, countryCode VARCHAR," +
                     "admin1Code VARCHAR, admin2Code VARCHAR, admin3Code VARCHAR, admin4Code VARCHAR," +
                     "population BIGINT, modificationDate VARCHAR)");
+            conn.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
 
+    /**
+     * Secondary indexes are created once the table is filled, which is much faster than maintaining them on every insert.
+     */
+    public void createIndexes() {
+        try {
+            final Connection conn = connector.openWritableConnection();
+            final Statement statement = conn.createStatement();
             statement.executeUpdate("CREATE INDEX IF NOT EXISTS geonames_name_idx ON geonames(name COLLATE NOCASE)");
             conn.close();
         } catch (SQLException e) {
@@ -122,98 +261,117 @@ public class GeoNamesRepository {
         }
     }
 
+    /**
+     * All inserts of the batch run in a single transaction that is committed by {@link BatchExecutor#finalizeBatch()}.
+     */
     public BatchExecutor startBatch(int batchSize) {
         return new BatchExecutor(
                 connector::openParallelWritableConnection,
                 batchSize,
-                "INSERT INTO geonames VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+                "INSERT INTO geonames VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                true);
     }
 
-    public GeoNamesEntry load(final Long geonameId) throws IdNotFoundException {
-        return load(geonameId, entry -> entry.setLevel(findLevel(entry)));
+    /**
+     * Like {@link #startBatch(int)}, but entries already in the table are replaced
+     */
+    public BatchExecutor startUpsertBatch(int batchSize) {
+        return new BatchExecutor(
+                connector::openParallelWritableConnection,
+                batchSize,
+                "INSERT OR REPLACE INTO geonames VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)",
+                true);
     }
 
-    private GeoNamesEntry load(final Long geonameId, Consumer<GeoNamesEntry> postloadConsumer) throws IdNotFoundException {
-        try(final Connection connection = connector.openReadOnlyConnection()) {
-            final PreparedStatement pstmt = connection.prepareStatement("SELECT * FROM geonames WHERE geonameId = ?");
-            pstmt.setLong(1, geonameId);
-
-            final ResultSet rs = pstmt.executeQuery();
-
-            GeoNamesEntry entry = null;
-            if (rs.next())
-                entry = resultSetToEntryMapper.transform(rs);
-
-            pstmt.close();
+    public BatchExecutor startDeleteBatch(int batchSize) {
+        return new BatchExecutor(
+                connector::openParallelWritableConnection,
+                batchSize,
+                "DELETE FROM geonames WHERE geonameId = ?",
+                true);
+    }
 
-            if (entry != null) {
-                postloadConsumer.accept(entry);
-                return entry;
-            }
-        } catch (SQLException e) {
-            logger.error("unable to load", e);
-        }
+    public GeoNamesEntry load(final Long geonameId) throws IdNotFoundException {
+        return entryCache.get(geonameId, id -> load(id, entry -> entry.setLevel(findLevel(entry))));
+    }
 
-        throw new IdNotFoundException();
+    private GeoNamesEntry load(final Long geonameId, Consumer<GeoNamesEntry> postloadConsumer) throws IdNotFoundException {
+        final Optional<GeoNamesEntry> loaded = source.load(geonameId);
+        loadCounter.get().count(loaded.isPresent() ? 1 : 0);
+        final GeoNamesEntry entry = loaded.orElseThrow(IdNotFoundException::new);
+        postloadConsumer.accept(entry);
+        return entry;
     }
 
     public long count(final String toponymText) {
-        return newRedisSet(toponymText).size();
+        loadCounter.get().count(0);
+        return source.count(toponymText);
     }
 
     public List<GeoNamesEntry> load(final String toponymText) {
-        final List<GeoNamesEntry> entries = new ArrayList<>();
-
-        try(final Connection connection = connector.openReadOnlyConnection()) {
-            RedisSet<Long> geonamesRedis = newRedisSet(toponymText);
-
-            final PreparedStatement pstmt = connection.prepareStatement("SELECT * FROM geonames WHERE geonameId = ?");
-
-            for (Long geonameId : geonamesRedis) {
-                pstmt.setLong(1, geonameId);
-                final ResultSet rs = pstmt.executeQuery();
-                if (rs.next()) {
-                    final GeoNamesEntry entry = resultSetToEntryMapper.transform(rs);
-                    entry.setLevel(findLevel(entry));
-                    entries.add(entry);
-                }
-            }
-
-            pstmt.close();
-        } catch (SQLException e) {
-            logger.error("unable to load", e);
-        }
-
+        final List<GeoNamesEntry> entries = source.load(toponymText);
+        loadCounter.get().count(entries.size());
+        entries.forEach(entry -> entry.setLevel(findLevel(entry)));
         return entries;
     }
 
-    private RedisSet<Long> newRedisSet(String toponymText) {
-        RedisSet<Long> geonamesRedis = RedisSet.newLongSet(toponymText.toLowerCase());
-        if (geonamesRedis.isEmpty()) {
-            geonamesRedis = RedisSet.newLongSet(toponymText.toLowerCase().replaceAll("\\.", ""));
+    /**
+     * Loads the entries of several ids at once.
+     * @return the entries in the order of the given ids; duplicate and missing ids are skipped
+     */
+    public List<GeoNamesEntry> loadAll(final Collection<Long> geonameIds) {
+        final Set<Long> uniqueIds = new LinkedHashSet<>(geonameIds);
+        final Map<Long, GeoNamesEntry> entryMap = entryCache.getAllPresent(uniqueIds);
+
+        final List<Long> missingIds = uniqueIds.stream().filter(id -> !entryMap.containsKey(id)).collect(Collectors.toList());
+        final List<GeoNamesEntry> loadedEntries = missingIds.isEmpty() ? Collections.emptyList() : source.loadAll(missingIds);
+        if (!missingIds.isEmpty())
+            loadCounter.get().count(loadedEntries.size());
+
+        for (GeoNamesEntry entry : loadedEntries) {
+            entry.setLevel(findLevel(entry));
+            entryCache.put(entry);
+            entryMap.put(entry.getGeonameId(), entry);
         }
-        return geonamesRedis;
-    }
 
-    private boolean isContinent(Long geonameId) {
-        return continentMap.inverse().containsKey(geonameId);
+        final List<GeoNamesEntry> entries = new ArrayList<>(entryMap.size());
+        for (Long geonameId : uniqueIds) {
+            Optional.ofNullable(entryMap.get(geonameId)).ifPresent(entries::add);
+        }
+
+        return entries;
     }
 
-    public boolean isCountry(Long geonameId) {
-        return countryMap.inverse().containsKey(geonameId);
+    /**
+     * Loads the candidates of several toponyms at once, e.g. all toponyms of an article.
+     * @return the candidates of each toponym keyed by the toponym text as given,
+     * in the same order as {@link #load(String)} returns them
+     */
+    public ListMultimap<String, GeoNamesEntry> loadCandidates(final Collection<String> toponymTexts) {
+        final ListMultimap<String, GeoNamesEntry> candidates = source.loadCandidates(toponymTexts);
+        loadCounter.get().count(candidates.size());
+        candidates.values().forEach(entry -> entry.setLevel(findLevel(entry)));
+        return candidates;
     }
 
-    private boolean isAdmin1(Long geonameId) {
-        return admin1Map.inverse().containsKey(geonameId);
+    /**
+     * Like {@link #loadCandidates(Collection)}, but only the k most populated candidates of each toponym are loaded,
+     * in descending order of population. The snapshot backend ranks them before reading any entry.
+     */
+    public ListMultimap<String, GeoNamesEntry> loadCandidates(final Collection<String> toponymTexts, int k) {
+        final ListMultimap<String, GeoNamesEntry> candidates = source.loadCandidates(toponymTexts, k);
+        loadCounter.get().count(candidates.size());
+        candidates.values().forEach(entry -> entry.setLevel(findLevel(entry)));
+        return candidates;
     }
 
-    private boolean isAdmin2(Long geonameId) {
-        return admin2Map.inverse().containsKey(geonameId);
+    public boolean isCountry(long geonameId) {
+        return CodesHolder.CODES.is(geonameId, GeoNamesCodes.COUNTRY);
     }
 
     public Optional<GeoNamesEntry> loadCountryByCode(String countryCode) {
 //        final RedisHash<Long> countryHash = RedisHash.newLongSet(COUNTRY_HASH_KEY);
-        return Optional.ofNullable(countryMap.get(countryCode)).map(countryId -> {
+        return Optional.ofNullable(CodesHolder.CODES.findCountryId(countryCode)).map(countryId -> {
             try {
                 return load(countryId);
             } catch (IdNotFoundException e) {
@@ -224,7 +382,7 @@ public class GeoNamesRepository {
 
     public Optional<GeoNamesEntry> loadAdmin1ByCode(String adminCode1) {
 //        final RedisHash<Long> adminHash1 = RedisHash.newLongSet(ADMIN1_HASH_KEY);
-        return Optional.ofNullable(admin1Map.get(adminCode1)).map(adminId -> {
+        return Optional.ofNullable(CodesHolder.CODES.findAdmin1Id(adminCode1)).map(adminId -> {
             try {
                 return load(adminId);
             } catch (IdNotFoundException e) {
@@ -235,7 +393,7 @@ public class GeoNamesRepository {
 
     public Optional<GeoNamesEntry> loadAdmin2ByCode(String adminCode2) {
 //        final RedisHash<Long> adminHash2 = RedisHash.newLongSet(ADMIN2_HASH_KEY);
-        return Optional.ofNullable(admin2Map.get(adminCode2)).map(adminId -> {
+        return Optional.ofNullable(CodesHolder.CODES.findAdmin2Id(adminCode2)).map(adminId -> {
             try {
                 return load(adminId);
             } catch (IdNotFoundException e) {
@@ -245,18 +403,10 @@ public class GeoNamesRepository {
     }
 
     private GeoNamesLevel findLevel(GeoNamesEntry entry) {
-        if (earthEntry.equals(entry))
+        if (entry.getGeonameId() == EARTH_ID)
             return GeoNamesLevel.EARTH;
-        if (isContinent(entry.getGeonameId()))
-            return GeoNamesLevel.CONTINENT;
-        else if (isCountry(entry.getGeonameId()))
-            return GeoNamesLevel.COUNTRY;
-        else if (isAdmin1(entry.getGeonameId()))
-            return GeoNamesLevel.ADMIN1;
-        else if (isAdmin2(entry.getGeonameId()))
-            return GeoNamesLevel.ADMIN2;
-        else
-            return GeoNamesLevel.LEAF;
+
+        return CodesHolder.CODES.findLevel(entry.getGeonameId());
     }
 
     public Optional<BoundingBox> getBoundingBox(Long geonameId) {
@@ -308,25 +458,4 @@ public class GeoNamesRepository {
             return wikiUrl;
         }
     }
-
-    private class ResultSetToEntryMapper {
-        GeoNamesEntry transform(ResultSet rs) throws SQLException {
-            final GeoNamesEntry entry = new GeoNamesEntry();
-
-            entry.setGeonameId(rs.getLong("geonameId"));
-            entry.setName(rs.getString("name"));
-            entry.setAlternateNames(rs.getString("alternateNames"));
-            entry.setLatitude(rs.getDouble("latitude"));
-            entry.setLongitude(rs.getDouble("longitude"));
-            entry.setFeatureCode(rs.getString("featureCode"));
-            entry.setFeatureClass(rs.getString("featureClass"));
-            entry.setAdmin1code(rs.getString("admin1Code"));
-            entry.setAdmin2code(rs.getString("admin2Code"));
-            entry.setCountryCode(rs.getString("countryCode"));
-            entry.setPopulation(rs.getLong("population"));
-            entry.setModificationDate(rs.getString("modificationDate"));
-
-            return entry;
-        }
-    }
 }
@@ -0,0 +1,236 @@
+package tr.geonames;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A read-only, memory-mapped image of the GeoNames gazetteer.
+ * <p>
+ * A snapshot is built offline by {@link tr.geonames.factory.GeoNamesSnapshotBuilder}
+ * and consists of the following sections, each of which is mapped separately:
+ * </p>
+ * <ul>
+ *     <li><strong>records</strong>: fixed-width entry records ({@value #RECORD_SIZE} bytes each)
+ *     holding the numeric fields and references into the string pool</li>
+ *     <li><strong>ids</strong> and <strong>recnos</strong>: geonameIds in ascending order
+ *     along with their record numbers, used to find a record by binary search</li>
+ *     <li><strong>slots</strong>: an open-addressing hash table from lower-cased names
+ *     to ranges in the postings section</li>
+ *     <li><strong>postings</strong>: record numbers of each name, ordered by population (descending)</li>
+ *     <li><strong>pool</strong>: length-prefixed UTF-8 strings</li>
+ * </ul>
+ * The file is versioned; a snapshot with a different {@link #VERSION} must be rebuilt.
+ * Each section is mapped as a single buffer, so it is limited to 2 GB, and so are the <code>int</code> references
+ * into the pool; the builder refuses to write a larger section.
+ */
+public class GeoNamesSnapshot {
+    public static final int MAGIC = 0x474E5353;
+    public static final int VERSION = 1;
+
+    public static final int HEADER_SIZE = 80;
+    public static final int RECORD_SIZE = 72;
+    public static final int SLOT_SIZE = 16;
+
+    public static final int NULL_REF = -1;
+
+    private final int entryCount;
+    private final int slotCount;
+
+    private final MappedByteBuffer records;
+    private final MappedByteBuffer ids;
+    private final MappedByteBuffer recnos;
+    private final MappedByteBuffer slots;
+    private final MappedByteBuffer postings;
+    private final MappedByteBuffer pool;
+
+    private final ThreadLocal<PoolReader> poolReaders;
+
+    private GeoNamesSnapshot(FileChannel channel) throws IOException {
+        final MappedByteBuffer header = map(channel, 0, HEADER_SIZE);
+
+        if (header.getInt(0) != MAGIC)
+            throw new IOException("not a gazetteer snapshot");
+        if (header.getInt(4) != VERSION)
+            throw new IOException(String.format("snapshot version %d is not supported (expected %d), rebuild the snapshot",
+                    header.getInt(4), VERSION));
+
+        this.entryCount = header.getInt(8);
+        this.slotCount = header.getInt(16);
+
+        final long recordsOffset = header.getLong(24);
+        final long idsOffset = header.getLong(32);
+        final long recnosOffset = header.getLong(40);
+        final long slotsOffset = header.getLong(48);
+        final long postingsOffset = header.getLong(56);
+        final long poolOffset = header.getLong(64);
+        final long poolLength = header.getLong(72);
+
+        this.records = map(channel, recordsOffset, idsOffset - recordsOffset);
+        this.ids = map(channel, idsOffset, recnosOffset - idsOffset);
+        this.recnos = map(channel, recnosOffset, slotsOffset - recnosOffset);
+        this.slots = map(channel, slotsOffset, postingsOffset - slotsOffset);
+        this.postings = map(channel, postingsOffset, poolOffset - postingsOffset);
+        this.pool = map(channel, poolOffset, poolLength);
+        this.poolReaders = ThreadLocal.withInitial(() -> new PoolReader(pool));
+    }
+
+    public static GeoNamesSnapshot open(String snapshotFile) throws IOException {
+        try (final FileChannel channel = FileChannel.open(Paths.get(snapshotFile), StandardOpenOption.READ)) {
+            return new GeoNamesSnapshot(channel);
+        }
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset, long length) throws IOException {
+        if (length > Integer.MAX_VALUE)
+            throw new IOException("snapshot section is too large to be mapped: " + length);
+
+        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ByteOrder.BIG_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Spreads the hash of a name over the slots; shared with the builder.
+     */
+    public static int slotOf(int hash, int slotCount) {
+        final int h = hash ^ (hash >>> 16);
+        return (h * 0x9E3779B9) & (slotCount - 1);
+    }
+
+    public int size() {
+        return entryCount;
+    }
+
+    /**
+     * @return the record number of the given geonameId, or -1 if it does not exist
+     */
+    public int findRecord(long geonameId) {
+        int lo = 0, hi = entryCount - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final long midId = ids.getLong(mid << 3);
+            if (midId < geonameId)
+                lo = mid + 1;
+            else if (midId > geonameId)
+                hi = mid - 1;
+            else
+                return recnos.getInt(mid << 2);
+        }
+
+        return -1;
+    }
+
+    /**
+     * @param key a lower-cased name
+     * @return the slot of the name, or -1 if the name is not in the snapshot
+     */
+    public int findSlot(String key) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int hash = key.hashCode();
+
+        for (int slot = slotOf(hash, slotCount); ; slot = (slot + 1) & (slotCount - 1)) {
+            final int base = slot * SLOT_SIZE;
+            if (slots.getInt(base + 12) == 0)
+                return -1;
+
+            if (slots.getInt(base) == hash && poolEquals(slots.getInt(base + 4), keyBytes))
+                return slot;
+        }
+    }
+
+    public int postingCount(int slot) {
+        return slots.getInt(slot * SLOT_SIZE + 12);
+    }
+
+    /**
+     * @return the record number of the i-th entry carrying the name in the given slot
+     */
+    public int postingAt(int slot, int i) {
+        return postings.getInt((slots.getInt(slot * SLOT_SIZE + 8) + i) << 2);
+    }
+
+    public long geonameIdAt(int record) {
+        return records.getLong(record * RECORD_SIZE);
+    }
+
+    public long populationAt(int record) {
+        return records.getLong(record * RECORD_SIZE + 24);
+    }
+
+    public GeoNamesEntry read(int record) {
+        final int base = record * RECORD_SIZE;
+
+        final GeoNamesEntry entry = new GeoNamesEntry();
+        entry.setGeonameId(records.getLong(base));
+        entry.setLatitude(records.getDouble(base + 8));
+        entry.setLongitude(records.getDouble(base + 16));
+        entry.setPopulation(records.getLong(base + 24));
+        entry.setName(readString(records.getInt(base + 32)));
+        entry.setAlternateNames(readString(records.getInt(base + 36)));
+        entry.setFeatureCode(readString(records.getInt(base + 40)));
+        entry.setFeatureClass(readString(records.getInt(base + 44)));
+        entry.setCountryCode(readString(records.getInt(base + 48)));
+        entry.setAdmin1code(readString(records.getInt(base + 52)));
+        entry.setAdmin2code(readString(records.getInt(base + 56)));
+        entry.setAdmin3Code(readString(records.getInt(base + 60)));
+        entry.setAdmin4Code(readString(records.getInt(base + 64)));
+        entry.setModificationDate(readString(records.getInt(base + 68)));
+
+        return entry;
+    }
+
+    private String readString(int ref) {
+        if (ref == NULL_REF)
+            return null;
+
+        final PoolReader reader = poolReaders.get();
+        final int length = reader.copy(ref);
+        return new String(reader.bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private boolean poolEquals(int ref, byte[] bytes) {
+        if (pool.getInt(ref) != bytes.length)
+            return false;
+
+        final PoolReader reader = poolReaders.get();
+        reader.copy(ref);
+        for (int i = 0; i < bytes.length; i++) {
+            if (reader.bytes[i] != bytes[i])
+                return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * A view of the pool along with a buffer that grows to the longest string read, one per thread,
+     * so that a string is copied out of the mapped pool in bulk without allocating anything but the string itself
+     */
+    private static class PoolReader {
+        private final ByteBuffer view;
+        private byte[] bytes = new byte[256];
+
+        PoolReader(ByteBuffer pool) {
+            this.view = pool.duplicate();
+        }
+
+        /**
+         * @return the length of the string, whose bytes are copied to the start of {@link #bytes}
+         */
+        int copy(int ref) {
+            final int length = view.getInt(ref);
+            if (length > bytes.length)
+                bytes = new byte[Math.max(length, bytes.length * 2)];
+
+            view.position(ref + 4);
+            view.get(bytes, 0, length);
+            return length;
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package tr.geonames;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import java.util.*;
+
+/**
+ * The storage behind {@link GeoNamesRepository}: it maps names to GeoNames entries
+ * and loads entries by their ids.
+ * The entries returned by a source carry no {@link GeoNamesLevel}; the repository assigns it.
+ *
+ * @see SQLiteGeoNamesSource
+ * @see SnapshotGeoNamesSource
+ */
+interface GeoNamesSource {
+    Optional<GeoNamesEntry> load(long geonameId);
+
+    /**
+     * @return the entries carrying the name, in ascending order of geonameId, so that every source
+     * gives the same candidates in the same order, and ties of population are broken alike
+     */
+    List<GeoNamesEntry> load(String toponymText);
+
+    long count(String toponymText);
+
+    /**
+     * @return the entries of the given ids in the order of the ids; duplicate and missing ids are skipped
+     */
+    default List<GeoNamesEntry> loadAll(Collection<Long> geonameIds) {
+        final List<GeoNamesEntry> entries = new ArrayList<>();
+        for (Long geonameId : new LinkedHashSet<>(geonameIds)) {
+            load(geonameId).ifPresent(entries::add);
+        }
+        return entries;
+    }
+
+    /**
+     * @return the candidates of each of the given names, keyed by the name as given,
+     * in the same order as {@link #load(String)} returns them
+     */
+    default ListMultimap<String, GeoNamesEntry> loadCandidates(Collection<String> toponymTexts) {
+        final ListMultimap<String, GeoNamesEntry> candidates = ArrayListMultimap.create();
+        for (String toponymText : new LinkedHashSet<>(toponymTexts)) {
+            candidates.putAll(toponymText, load(toponymText));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return at most k most populated candidates of each of the given names, keyed by the name as given,
+     * in descending order of population; candidates of equal population keep the order of {@link #load(String)}
+     */
+    default ListMultimap<String, GeoNamesEntry> loadCandidates(Collection<String> toponymTexts, int k) {
+        final ListMultimap<String, GeoNamesEntry> candidates = ArrayListMultimap.create();
+        loadCandidates(toponymTexts).asMap().forEach((toponymText, entries) ->
+                entries.stream()
+                        .sorted(Comparator.comparing(GeoNamesEntry::getPopulation).reversed())
+                        .limit(k)
+                        .forEach(entry -> candidates.put(toponymText, entry)));
+        return candidates;
+    }
+}
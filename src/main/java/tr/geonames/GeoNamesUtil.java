@@ -1,12 +1,14 @@
 package tr.geonames;
 
 import tr.util.StringUtil;
+import tr.util.db.IdNotFoundException;
 import com.google.common.base.Splitter;
 import com.google.common.base.Strings;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 
 /**
  * Created with IntelliJ IDEA.
@@ -20,7 +22,24 @@ public class GeoNamesUtil {
 
     private static final GeoNamesRepository geoNamesRepository = new GeoNamesRepository();
 
-    public static final GeoNamesEntry EARTH = geoNamesRepository.earthEntry;
+    /**
+     * The Earth entry is loaded on first use, so that loading this class does not touch the database.
+     */
+    private static class EarthHolder {
+        private static final GeoNamesEntry EARTH;
+
+        static {
+            try {
+                EARTH = geoNamesRepository.load(GeoNamesRepository.EARTH_ID);
+            } catch (IdNotFoundException e) {
+                throw new ExceptionInInitializerError("earth entry not found in geonames: " + e.getMessage());
+            }
+        }
+    }
+
+    public static GeoNamesEntry getEarth() {
+        return EarthHolder.EARTH;
+    }
 
     public static List<String> getAlternateNames(GeoNamesEntry geoNamesEntry) {
         return Splitter.on(',').omitEmptyStrings()
@@ -32,25 +51,42 @@ public class GeoNamesUtil {
     }
 
     private static String[] getHierarchyCodes(GeoNamesEntry entry) {
-        String[] levels = new String[] {"", "", ""};
+        return GeoNamesRepository.getHierarchyCodes(entry.getCountryCode(), entry.getAdmin1code(), entry.getAdmin2code());
+    }
 
-        if (StringUtil.hasText(entry.getCountryCode())) {
-            levels[0] = entry.getCountryCode();
+    /**
+     * Parents are looked up in the hierarchy index if one has been built at import time,
+     * otherwise they are found by their codes.
+     */
+    public static Map<GeoNamesLevel, GeoNamesEntry> getGeoNamesHierarchy(GeoNamesEntry entry) {
+        final Optional<GeoNamesHierarchyIndex> hierarchyIndex = GeoNamesRepository.getHierarchyIndex();
+        if (hierarchyIndex.isPresent()) {
+            final int index = hierarchyIndex.get().indexOf(entry.getGeonameId());
+            if (index >= 0)
+                return getGeoNamesHierarchy(hierarchyIndex.get(), index);
         }
 
-        if (StringUtil.hasText(entry.getAdmin1code()))
-            levels[1] = (StringUtil.hasText(entry.getCountryCode()) ? (entry.getCountryCode() + ".") : "") + entry.getAdmin1code();
+        return getGeoNamesHierarchyByCodes(entry);
+    }
+
+    private static Map<GeoNamesLevel, GeoNamesEntry> getGeoNamesHierarchy(GeoNamesHierarchyIndex hierarchyIndex, int index) {
+        final Map<GeoNamesLevel, GeoNamesEntry> hierarchyGeoNames = new HashMap<>();
 
-        if (StringUtil.hasText(entry.getAdmin2code())) {
-            levels[2] = (StringUtil.hasText(entry.getCountryCode()) ? (entry.getCountryCode() + ".") : "") +
-                    (StringUtil.hasText(entry.getAdmin1code()) ? (entry.getAdmin1code() + ".") : "") +
-                    entry.getAdmin2code();
+        for (GeoNamesLevel level : GeoNamesHierarchyIndex.getParentLevels()) {
+            final long parentId = hierarchyIndex.parentAt(index, level);
+            if (parentId == 0)
+                continue;
+
+            try {
+                hierarchyGeoNames.put(level, geoNamesRepository.load(parentId));
+            } catch (IdNotFoundException ignored) {
+            }
         }
 
-        return levels;
+        return hierarchyGeoNames;
     }
 
-    public static Map<GeoNamesLevel, GeoNamesEntry> getGeoNamesHierarchy(GeoNamesEntry entry) {
+    private static Map<GeoNamesLevel, GeoNamesEntry> getGeoNamesHierarchyByCodes(GeoNamesEntry entry) {
         final Map<GeoNamesLevel, GeoNamesEntry> hierarchyGeoNames = new HashMap<>();
 
         final String[] hierarchyCodes = getHierarchyCodes(entry);
@@ -0,0 +1,307 @@
+package tr.geonames;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import tr.util.Config;
+import tr.util.db.SQLiteConnector;
+import tr.util.redis.RedisDAO;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import redis.clients.jedis.Response;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The default {@link GeoNamesSource}: names are kept as Redis sets of geonameIds
+ * and entries are stored in a SQLite table.
+ */
+class SQLiteGeoNamesSource implements GeoNamesSource {
+    /**
+     * Stays below the default limit of SQLite on the number of host parameters (999)
+     */
+    private static final int MAX_CHUNK_SIZE = 500;
+
+    /**
+     * Lower-cased names for which neither key variant has any ids, e.g. person names that the recognizer mistook for locations.
+     * Shared by all sources, as a name is typically looked up by many articles.
+     * Names expire, and are all forgotten once the gazetteer is updated, as they may have been added since.
+     */
+    private static final Cache<String, Boolean> unknownNames = CacheBuilder.newBuilder()
+            .maximumSize(Config.Gazetteer.GEONAMES_UNKNOWN_NAMES_MAX_SIZE)
+            .expireAfterWrite(Config.Gazetteer.GEONAMES_UNKNOWN_NAMES_EXPIRE_MINUTES, TimeUnit.MINUTES)
+            .recordStats()
+            .build();
+
+    private final Logger logger = LogManager.getLogger(getClass());
+
+    private final SQLiteConnector connector = new SQLiteConnector(Config.Gazetteer.GEONAMES_SQLITE);
+    private final ResultSetToEntryMapper resultSetToEntryMapper = new ResultSetToEntryMapper();
+
+    /**
+     * Statements of the read-only connection of each thread, which the connector keeps open across calls
+     */
+    private final ThreadLocal<Statements> statementsThreadLocal = new ThreadLocal<>();
+
+    @Override
+    public Optional<GeoNamesEntry> load(long geonameId) {
+        try {
+            final PreparedStatement pstmt = statements().selectById;
+            pstmt.setLong(1, geonameId);
+
+            try (final ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next())
+                    return Optional.of(resultSetToEntryMapper.transform(rs));
+            }
+        } catch (SQLException e) {
+            logger.error("unable to load", e);
+        }
+
+        return Optional.empty();
+    }
+
+    @Override
+    public List<GeoNamesEntry> load(String toponymText) {
+        return new ArrayList<>(loadCandidates(Collections.singletonList(toponymText)).get(toponymText));
+    }
+
+    /**
+     * The sizes of both key variants are requested in one pipelined round trip.
+     */
+    @Override
+    public long count(String toponymText) {
+        final String key = toponymText.toLowerCase();
+        if (unknownNames.getIfPresent(key) != null)
+            return 0;
+
+        final String strippedKey = stripDots(key);
+        final List<Response<Long>> sizes = RedisDAO.pipeline(pipeline -> {
+            final List<Response<Long>> responses = new ArrayList<>(2);
+            responses.add(pipeline.scard(key));
+            if (!strippedKey.equals(key))
+                responses.add(pipeline.scard(strippedKey));
+            return responses;
+        });
+
+        for (Response<Long> size : sizes) {
+            if (size.get() > 0)
+                return size.get();
+        }
+
+        unknownNames.put(key, Boolean.TRUE);
+        return 0;
+    }
+
+    @Override
+    public List<GeoNamesEntry> loadAll(Collection<Long> geonameIds) {
+        final Map<Long, GeoNamesEntry> entryMap = fetch(geonameIds);
+
+        final List<GeoNamesEntry> entries = new ArrayList<>(entryMap.size());
+        for (Long geonameId : new LinkedHashSet<>(geonameIds)) {
+            Optional.ofNullable(entryMap.get(geonameId)).ifPresent(entries::add);
+        }
+
+        return entries;
+    }
+
+    /**
+     * Ids of all names are collected from Redis first and their entries are then fetched together.
+     * Candidates of a name are in ascending order of geonameId.
+     */
+    @Override
+    public ListMultimap<String, GeoNamesEntry> loadCandidates(Collection<String> toponymTexts) {
+        final Map<String, List<Long>> idsByName = lookupIds(toponymTexts);
+        final Set<Long> geonameIds = new LinkedHashSet<>();
+        idsByName.values().forEach(geonameIds::addAll);
+
+        final Map<Long, GeoNamesEntry> entryMap = fetch(geonameIds);
+
+        final ListMultimap<String, GeoNamesEntry> candidates = ArrayListMultimap.create();
+        idsByName.forEach((toponymText, ids) -> {
+            for (Long geonameId : ids) {
+                Optional.ofNullable(entryMap.get(geonameId)).ifPresent(entry -> candidates.put(toponymText, entry));
+            }
+        });
+
+        return candidates;
+    }
+
+    /**
+     * Fetches the entries in chunks of {@value #MAX_CHUNK_SIZE} ids, one <code>IN (...)</code> query per chunk.
+     * The statement of a full chunk is prepared once per connection and reused.
+     */
+    private Map<Long, GeoNamesEntry> fetch(Collection<Long> geonameIds) {
+        final Map<Long, GeoNamesEntry> entryMap = new HashMap<>();
+        if (geonameIds.isEmpty())
+            return entryMap;
+
+        final List<Long> ids = new ArrayList<>(new LinkedHashSet<>(geonameIds));
+
+        try {
+            final Statements statements = statements();
+
+            for (int from = 0; from < ids.size(); from += MAX_CHUNK_SIZE) {
+                final List<Long> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_CHUNK_SIZE));
+
+                final boolean fullChunk = chunk.size() == MAX_CHUNK_SIZE;
+                final PreparedStatement pstmt = fullChunk ?
+                        statements.selectFullChunk() : statements.connection.prepareStatement(selectByIds(chunk.size()));
+
+                for (int i = 0; i < chunk.size(); i++) {
+                    pstmt.setLong(i + 1, chunk.get(i));
+                }
+
+                try (final ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        final GeoNamesEntry entry = resultSetToEntryMapper.transform(rs);
+                        entryMap.put(entry.getGeonameId(), entry);
+                    }
+                }
+
+                if (!fullChunk)
+                    pstmt.close();
+            }
+        } catch (SQLException e) {
+            logger.error("unable to load", e);
+        }
+
+        return entryMap;
+    }
+
+    private static String selectByIds(int n) {
+        return "SELECT * FROM geonames WHERE geonameId IN (" + String.join(",", Collections.nCopies(n, "?")) + ")";
+    }
+
+    /**
+     * @return the statements of the current thread, prepared again if its connection has been reopened
+     */
+    private Statements statements() throws SQLException {
+        final Connection connection = connector.openReadOnlyConnection();
+
+        Statements statements = statementsThreadLocal.get();
+        if (statements == null || statements.connection != connection) {
+            statements = new Statements(connection);
+            statementsThreadLocal.set(statements);
+        }
+
+        return statements;
+    }
+
+    /**
+     * A name is looked up under its lower-cased key and, if that key has no ids, under the same key without dots.
+     * Both variants of all names not known to be missing are requested in a single pipelined round trip.
+     * @return the ids of each name keyed by the name as given
+     */
+    private Map<String, List<Long>> lookupIds(Collection<String> toponymTexts) {
+        final Map<String, List<Long>> idsByName = new LinkedHashMap<>();
+        final Map<String, String> pendingKeys = new LinkedHashMap<>();
+
+        for (String toponymText : toponymTexts) {
+            if (idsByName.containsKey(toponymText) || pendingKeys.containsKey(toponymText))
+                continue;
+
+            final String key = toponymText.toLowerCase();
+            if (unknownNames.getIfPresent(key) != null)
+                idsByName.put(toponymText, Collections.emptyList());
+            else
+                pendingKeys.put(toponymText, key);
+        }
+
+        if (pendingKeys.isEmpty())
+            return idsByName;
+
+        final Map<String, List<Response<Set<String>>>> responsesByName = RedisDAO.pipeline(pipeline -> {
+            final Map<String, List<Response<Set<String>>>> responses = new LinkedHashMap<>();
+            pendingKeys.forEach((toponymText, key) -> {
+                final List<Response<Set<String>>> variants = new ArrayList<>(2);
+                variants.add(pipeline.smembers(key));
+                final String strippedKey = stripDots(key);
+                if (!strippedKey.equals(key))
+                    variants.add(pipeline.smembers(strippedKey));
+                responses.put(toponymText, variants);
+            });
+            return responses;
+        });
+
+        responsesByName.forEach((toponymText, variants) -> {
+            final List<Long> ids = new ArrayList<>();
+            for (Response<Set<String>> members : variants) {
+                members.get().forEach(id -> ids.add(Long.valueOf(id)));
+                if (!ids.isEmpty())
+                    break;
+            }
+
+            if (ids.isEmpty())
+                unknownNames.put(pendingKeys.get(toponymText), Boolean.TRUE);
+
+            // members come back as a hash set, so they are put in the order Redis keeps small sets of ids in
+            Collections.sort(ids);
+            idsByName.put(toponymText, ids);
+        });
+
+        return idsByName;
+    }
+
+    private static String stripDots(String key) {
+        return key.replace(".", "");
+    }
+
+    static CacheStats getUnknownNameStats() {
+        return unknownNames.stats();
+    }
+
+    static void invalidateUnknownNames() {
+        unknownNames.invalidateAll();
+    }
+
+    /**
+     * The statements prepared once on a connection
+     */
+    private static class Statements {
+        final Connection connection;
+        final PreparedStatement selectById;
+        private PreparedStatement selectFullChunk;
+
+        Statements(Connection connection) throws SQLException {
+            this.connection = connection;
+            this.selectById = connection.prepareStatement("SELECT * FROM geonames WHERE geonameId = ?");
+        }
+
+        /**
+         * Only articles of many candidates need a full chunk, so its statement is prepared on first use
+         */
+        PreparedStatement selectFullChunk() throws SQLException {
+            if (selectFullChunk == null)
+                selectFullChunk = connection.prepareStatement(selectByIds(MAX_CHUNK_SIZE));
+            return selectFullChunk;
+        }
+    }
+
+    private class ResultSetToEntryMapper {
+        GeoNamesEntry transform(ResultSet rs) throws SQLException {
+            final GeoNamesEntry entry = new GeoNamesEntry();
+
+            entry.setGeonameId(rs.getLong("geonameId"));
+            entry.setName(rs.getString("name"));
+            entry.setAlternateNames(rs.getString("alternateNames"));
+            entry.setLatitude(rs.getDouble("latitude"));
+            entry.setLongitude(rs.getDouble("longitude"));
+            entry.setFeatureCode(rs.getString("featureCode"));
+            entry.setFeatureClass(rs.getString("featureClass"));
+            entry.setAdmin1code(rs.getString("admin1Code"));
+            entry.setAdmin2code(rs.getString("admin2Code"));
+            entry.setCountryCode(rs.getString("countryCode"));
+            entry.setPopulation(rs.getLong("population"));
+            entry.setModificationDate(rs.getString("modificationDate"));
+
+            return entry;
+        }
+    }
+}
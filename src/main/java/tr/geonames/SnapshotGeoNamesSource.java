@@ -0,0 +1,89 @@
+package tr.geonames;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+import java.util.*;
+
+/**
+ * A {@link GeoNamesSource} served entirely from a memory-mapped {@link GeoNamesSnapshot},
+ * so lookups need neither Redis nor SQLite.
+ * Postings of a name are ranked by population, so a budget of candidates needs no sorting;
+ * all candidates of a name are returned in ascending order of geonameId, as the SQLite source returns them.
+ */
+class SnapshotGeoNamesSource implements GeoNamesSource {
+    private final GeoNamesSnapshot snapshot;
+
+    SnapshotGeoNamesSource(GeoNamesSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    @Override
+    public Optional<GeoNamesEntry> load(long geonameId) {
+        final int record = snapshot.findRecord(geonameId);
+        return record < 0 ? Optional.empty() : Optional.of(snapshot.read(record));
+    }
+
+    @Override
+    public List<GeoNamesEntry> load(String toponymText) {
+        final int slot = findSlot(toponymText);
+        if (slot < 0)
+            return Collections.emptyList();
+
+        // geonameIds fit in an int, so each is packed with its record number and sorted along with it
+        final long[] sortedRecords = new long[snapshot.postingCount(slot)];
+        for (int i = 0; i < sortedRecords.length; i++) {
+            final int record = snapshot.postingAt(slot, i);
+            sortedRecords[i] = (snapshot.geonameIdAt(record) << 32) | record;
+        }
+        Arrays.sort(sortedRecords);
+
+        final List<GeoNamesEntry> entries = new ArrayList<>(sortedRecords.length);
+        for (long packed : sortedRecords) {
+            entries.add(snapshot.read((int) packed));
+        }
+
+        return entries;
+    }
+
+    /**
+     * As postings are ranked by population, and ties by geonameId, only the records of the first k postings are read.
+     */
+    @Override
+    public ListMultimap<String, GeoNamesEntry> loadCandidates(Collection<String> toponymTexts, int k) {
+        final ListMultimap<String, GeoNamesEntry> candidates = ArrayListMultimap.create();
+        for (String toponymText : new LinkedHashSet<>(toponymTexts)) {
+            candidates.putAll(toponymText, load(toponymText, k));
+        }
+        return candidates;
+    }
+
+    private List<GeoNamesEntry> load(String toponymText, int k) {
+        final int slot = findSlot(toponymText);
+        if (slot < 0)
+            return Collections.emptyList();
+
+        final int n = Math.min(k, snapshot.postingCount(slot));
+        final List<GeoNamesEntry> entries = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            entries.add(snapshot.read(snapshot.postingAt(slot, i)));
+        }
+
+        return entries;
+    }
+
+    @Override
+    public long count(String toponymText) {
+        final int slot = findSlot(toponymText);
+        return slot < 0 ? 0 : snapshot.postingCount(slot);
+    }
+
+    private int findSlot(String toponymText) {
+        final String key = toponymText.toLowerCase();
+        final int slot = snapshot.findSlot(key);
+        if (slot >= 0)
+            return slot;
+
+        return snapshot.findSlot(key.replaceAll("\\.", ""));
+    }
+}
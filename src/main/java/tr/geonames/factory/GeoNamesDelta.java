@@ -0,0 +1,294 @@
+package tr.geonames.factory;
+
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import tr.geonames.GeoNamesCodeTables;
+import tr.geonames.GeoNamesEntry;
+import tr.geonames.GeoNamesLevel;
+import tr.geonames.GeoNamesRepository;
+import tr.util.StringUtil;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The changes of the daily GeoNames update files, i.e. <code>modifications-*.txt</code>, <code>deletes-*.txt</code>,
+ * <code>alternateNamesModifications-*.txt</code> and <code>alternateNamesDeletes-*.txt</code>.
+ * <p>
+ * Reading the files and working out what has to change in the gazetteer does not touch SQLite or Redis,
+ * the entries currently stored in the gazetteer are handed to {@link #apply(Map)}.
+ * </p>
+ */
+class GeoNamesDelta {
+    private static final Logger logger = LogManager.getLogger(GeoNamesDelta.class);
+
+    /**
+     * Alternate names in these "languages" are links, Wikidata ids and postal codes, which are not part of the dump
+     */
+    private static final Set<String> NON_NAME_LANGUAGES = new HashSet<>(Arrays.asList("link", "wkdt", "post"));
+
+    private final Map<Long, GeoNamesRecord> modifications = new LinkedHashMap<>();
+    private final Set<Long> deletions = new LinkedHashSet<>();
+    private final SetMultimap<Long, String> addedAlternateNames = LinkedHashMultimap.create();
+    private final SetMultimap<Long, String> removedAlternateNames = LinkedHashMultimap.create();
+    private long malformedLines = 0;
+
+    /**
+     * A modification file has the same format as the full dump. A later modification of the same entry wins.
+     */
+    void readModifications(Path modificationsFile) throws IOException {
+        readLines(modificationsFile, line -> {
+            final GeoNamesRecord record = GeoNamesRecord.parse(line);
+            modifications.put(record.getGeonameId(), record);
+        });
+    }
+
+    /**
+     * Columns: geonameId, name, comment
+     */
+    void readDeletes(Path deletesFile) throws IOException {
+        readLines(deletesFile, line -> {
+            final long geonameId = Long.parseLong(split(line, 1)[0]);
+            deletions.add(geonameId);
+            modifications.remove(geonameId);
+        });
+    }
+
+    /**
+     * Columns: alternateNameId, geonameId, isoLanguage, alternateName, isPreferredName, isShortName, isColloquial, isHistoric, ...
+     */
+    void readAlternateNameModifications(Path modificationsFile) throws IOException {
+        readLines(modificationsFile, line -> {
+            final String[] columns = split(line, 4);
+            if (NON_NAME_LANGUAGES.contains(columns[2]))
+                return;
+
+            final long geonameId = Long.parseLong(columns[1]);
+            removedAlternateNames.remove(geonameId, columns[3]);
+            addedAlternateNames.put(geonameId, columns[3]);
+        });
+    }
+
+    /**
+     * Columns: alternateNameId, geonameId, alternateName, comment
+     */
+    void readAlternateNameDeletes(Path deletesFile) throws IOException {
+        readLines(deletesFile, line -> {
+            final String[] columns = split(line, 3);
+            final long geonameId = Long.parseLong(columns[1]);
+            addedAlternateNames.remove(geonameId, columns[2]);
+            removedAlternateNames.put(geonameId, columns[2]);
+        });
+    }
+
+    private void readLines(Path file, Consumer<String> consumer) throws IOException {
+        try (final BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            for (String line; (line = reader.readLine()) != null;) {
+                if (line.isEmpty())
+                    continue;
+
+                try {
+                    consumer.accept(line);
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    malformedLines++;
+                    logger.warn("malformed line skipped in {}: <{}> {}", file.getFileName(), line, e.toString());
+                }
+            }
+        }
+    }
+
+    private static String[] split(String line, int minColumns) {
+        final String[] columns = line.split("\t", -1);
+        if (columns.length < minColumns)
+            throw new IndexOutOfBoundsException(String.format("expected %d columns, found %d", minColumns, columns.length));
+        return columns;
+    }
+
+    long getMalformedLines() {
+        return malformedLines;
+    }
+
+    /**
+     * @return ids of all entries that are modified, deleted or whose alternate names change
+     */
+    Set<Long> getAffectedIds() {
+        final Set<Long> ids = new LinkedHashSet<>(modifications.keySet());
+        ids.addAll(deletions);
+        ids.addAll(addedAlternateNames.keySet());
+        ids.addAll(removedAlternateNames.keySet());
+        return ids;
+    }
+
+    /**
+     * @param currentEntries the entries of {@link #getAffectedIds()} as they are currently stored, keyed by geonameId
+     */
+    Changes apply(Map<Long, GeoNamesEntry> currentEntries) {
+        final Changes changes = new Changes();
+
+        for (Long geonameId : deletions) {
+            final GeoNamesEntry current = currentEntries.get(geonameId);
+            if (current == null)
+                continue;
+
+            changes.deletions.add(geonameId);
+            for (String key : keysOf(current))
+                changes.removedKeys.put(key, geonameId);
+            changes.codeUpdates.add(new CodeUpdate(null, geonameId, null));
+        }
+
+        final Set<Long> updatedIds = new LinkedHashSet<>(modifications.keySet());
+        updatedIds.addAll(addedAlternateNames.keySet());
+        updatedIds.addAll(removedAlternateNames.keySet());
+        updatedIds.removeAll(deletions);
+
+        for (Long geonameId : updatedIds) {
+            final GeoNamesEntry current = currentEntries.get(geonameId);
+            final boolean modified = modifications.containsKey(geonameId);
+
+            final GeoNamesRecord record;
+            if (modified)
+                record = modifications.get(geonameId);
+            else if (current != null)
+                record = GeoNamesRecord.of(current);
+            else {
+                changes.unknownIds.add(geonameId);
+                continue;
+            }
+
+            if (addedAlternateNames.containsKey(geonameId) || removedAlternateNames.containsKey(geonameId)) {
+                final String alternateNames = editAlternateNames(record.getAlternateNames(),
+                        removedAlternateNames.get(geonameId), addedAlternateNames.get(geonameId));
+                if (!alternateNames.equals(record.getAlternateNames()))
+                    record.setAlternateNames(alternateNames);
+                else if (!modified)
+                    continue;
+            }
+
+            changes.upserts.add(record);
+
+            final Set<String> currentKeys = current == null ? Collections.emptySet() : keysOf(current);
+            for (String key : Sets.difference(record.getKeys(), currentKeys))
+                changes.addedKeys.put(key, geonameId);
+            for (String key : Sets.difference(currentKeys, record.getKeys()))
+                changes.removedKeys.put(key, geonameId);
+
+            if (current != null && !(Objects.equals(current.getCountryCode(), record.getCountryCode()) &&
+                    Objects.equals(current.getAdmin1code(), record.getAdmin1Code()) &&
+                    Objects.equals(current.getAdmin2code(), record.getAdmin2Code())))
+                changes.relocatedIds.add(geonameId);
+
+            if (modified)
+                addCodeUpdates(changes, current, record);
+        }
+
+        return changes;
+    }
+
+    /**
+     * First-order and second-order divisions follow their feature code; an entry that stops being one is dropped from its table.
+     * Continents and countries are only ever removed, when their entry is deleted.
+     */
+    private static void addCodeUpdates(Changes changes, GeoNamesEntry current, GeoNamesRecord record) {
+        final String[] hierarchyCodes = GeoNamesRepository.getHierarchyCodes(
+                record.getCountryCode(), record.getAdmin1Code(), record.getAdmin2Code());
+
+        final String[] featureCodes = {"ADM1", "ADM2"};
+        final GeoNamesLevel[] levels = {GeoNamesLevel.ADMIN1, GeoNamesLevel.ADMIN2};
+
+        for (int i = 0; i < levels.length; i++) {
+            final boolean wasDivision = current != null && featureCodes[i].equals(current.getFeatureClass());
+            final String code = hierarchyCodes[i + 1];
+
+            if (featureCodes[i].equals(record.getFeatureCode()) && StringUtil.hasText(code))
+                changes.codeUpdates.add(new CodeUpdate(levels[i], record.getGeonameId(), code));
+            else if (wasDivision)
+                changes.codeUpdates.add(new CodeUpdate(levels[i], record.getGeonameId(), null));
+        }
+    }
+
+    private static Set<String> keysOf(GeoNamesEntry entry) {
+        return GeoNamesRecord.nameKeys(Objects.toString(entry.getName(), ""), entry.getAlternateNames());
+    }
+
+    /**
+     * Names that contain a comma cannot be stored in the comma separated list and are skipped.
+     */
+    static String editAlternateNames(String alternateNames, Collection<String> removedNames, Collection<String> addedNames) {
+        final Set<String> names = new LinkedHashSet<>();
+        if (alternateNames != null && !alternateNames.isEmpty())
+            names.addAll(Arrays.asList(alternateNames.split(",")));
+
+        names.removeAll(removedNames);
+        for (String name : addedNames) {
+            if (!name.isEmpty() && name.indexOf(',') < 0)
+                names.add(name);
+        }
+
+        return String.join(",", names);
+    }
+
+    /**
+     * What has to change in the gazetteer to apply the delta
+     */
+    static class Changes {
+        final List<GeoNamesRecord> upserts = new ArrayList<>();
+        final Set<Long> deletions = new LinkedHashSet<>();
+        final SetMultimap<String, Long> addedKeys = LinkedHashMultimap.create();
+        final SetMultimap<String, Long> removedKeys = LinkedHashMultimap.create();
+
+        /**
+         * Entries whose country or administrative codes have changed, their hierarchy in the index is outdated
+         */
+        final Set<Long> relocatedIds = new LinkedHashSet<>();
+
+        /**
+         * Entries that are neither in the gazetteer nor in the modifications, their alternate names cannot be updated
+         */
+        final Set<Long> unknownIds = new LinkedHashSet<>();
+
+        private final List<CodeUpdate> codeUpdates = new ArrayList<>();
+
+        boolean isEmpty() {
+            return upserts.isEmpty() && deletions.isEmpty();
+        }
+
+        /**
+         * @return whether any code table has changed
+         */
+        boolean updateCodes(GeoNamesCodeTables codeTables) {
+            boolean modified = false;
+            for (CodeUpdate update : codeUpdates) {
+                if (update.level == null)
+                    modified |= codeTables.removeAll(update.geonameId);
+                else if (update.code == null)
+                    modified |= codeTables.remove(update.level, update.geonameId);
+                else
+                    modified |= codeTables.assign(update.level, update.code, update.geonameId);
+            }
+            return modified;
+        }
+    }
+
+    /**
+     * Assigns a code to an entry, or removes the entry from the table if the code is null, or from all tables if the level is null
+     */
+    private static class CodeUpdate {
+        private final GeoNamesLevel level;
+        private final long geonameId;
+        private final String code;
+
+        CodeUpdate(GeoNamesLevel level, long geonameId, String code) {
+            this.level = level;
+            this.geonameId = geonameId;
+            this.code = code;
+        }
+    }
+}
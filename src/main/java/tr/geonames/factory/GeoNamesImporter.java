@@ -7,11 +7,11 @@ import net.sourceforge.argparse4j.inf.Namespace;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import tr.geonames.GeoNamesEntry;
+import tr.geonames.GeoNamesHierarchyIndex;
 import tr.geonames.GeoNamesRepository;
 import tr.util.Config;
 import tr.util.db.BatchExecutor;
-import tr.util.redis.PipelinedSet;
-import tr.util.redis.RedisDAO;
+import tr.util.redis.BatchedPipeline;
 
 import java.io.BufferedReader;
 import java.io.FileInputStream;
@@ -20,8 +20,9 @@ import java.io.InputStreamReader;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.util.List;
-import java.util.concurrent.TimeUnit;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
 /**
@@ -34,6 +35,16 @@ public class GeoNamesImporter {
 
     private static final Logger logger = LogManager.getLogger(GeoNamesImporter.class);
 
+    private static final int CHUNK_SIZE = 1000;
+    private static final int SQL_BATCH_SIZE = 5000;
+    private static final int PROGRESS_INTERVAL = 100000;
+
+    /**
+     * Marks the end of the input on both queues of the import pipeline
+     */
+    private static final List<String> END_OF_LINES = Collections.emptyList();
+    private static final List<GeoNamesRecord> END_OF_ENTRIES = Collections.emptyList();
+
     public static void main(String[] args) {
         ArgumentParser argParser = ArgumentParsers.newFor("GeoNamesImporter")
                 .build()
@@ -48,6 +59,9 @@ public class GeoNamesImporter {
         argParser.addArgument("--abbr")
                 .setDefault(Config.Gazetteer.ABBREVIATION_FILE)
                 .help("Abbreviations file for some U.S. states and countries: A tab separated file containing a name and the corresponding GeoNames Id");
+        argParser.addArgument("--hierarchy")
+                .setDefault(Config.Gazetteer.GEONAMES_HIERARCHY)
+                .help("The hierarchy index to be built, mapping each entry to its country and administrative divisions");
         argParser.addArgument("--redis_host")
                 .setDefault(Config.Redis.HOST)
                 .help("Redis host");
@@ -55,6 +69,14 @@ public class GeoNamesImporter {
                 .type(Integer.class)
                 .setDefault(Config.Redis.PORT)
                 .help("Redis port");
+        argParser.addArgument("--redis_batch")
+                .type(Integer.class)
+                .setDefault(10000)
+                .help("Number of Redis commands sent in one pipeline");
+        argParser.addArgument("--threads")
+                .type(Integer.class)
+                .setDefault(Runtime.getRuntime().availableProcessors())
+                .help("Number of threads parsing the GeoNames file");
 
         final Namespace ns = argParser.parseArgsOrFail(args);
 
@@ -82,13 +104,16 @@ public class GeoNamesImporter {
                                     "By default, it is located in '%s'",
                             adjectivalFile, Config.Gazetteer.ADJECTIVAL_FILE));
 
-        importGeoNames(geoNamesFile);
-        importAbbreviations(abbreviationsFile);
-        importAdjectivalNames(adjectivalFile);
+        final int redisBatchSize = ns.getInt("redis_batch");
+
+        importGeoNames(geoNamesFile, ns.getString("hierarchy"), ns.getInt("threads"), redisBatchSize);
+        importAbbreviations(abbreviationsFile, redisBatchSize);
+        importAdjectivalNames(adjectivalFile, redisBatchSize);
     }
 
-    private static void importAbbreviations(String abbrvFile) {
-        try(final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(abbrvFile), "UTF-8"))) {
+    static void importAbbreviations(String abbrvFile, int redisBatchSize) {
+        try(final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(abbrvFile), "UTF-8"));
+            final BatchedPipeline pipeline = new BatchedPipeline(redisBatchSize)) {
             final Stopwatch stopwatch = Stopwatch.createStarted();
 
             for (String line; (line = reader.readLine()) != null;) {
@@ -100,10 +125,7 @@ public class GeoNamesImporter {
                 final String location = entries[0].trim();
                 final Long geonameId = Long.valueOf(entries[1].trim());
 
-                RedisDAO.pipeline(pipeline -> {
-                    new PipelinedSet<Long>(location.toLowerCase(), pipeline).add(geonameId);
-                    return 0;
-                });
+                pipeline.sadd(location.toLowerCase(), String.valueOf(geonameId));
             }
 
             stopwatch.stop();
@@ -113,9 +135,10 @@ public class GeoNamesImporter {
         }
     }
 
-    private static void importAdjectivalNames(String adjFile) {
+    static void importAdjectivalNames(String adjFile, int redisBatchSize) {
 
-        try(final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(adjFile), "UTF-8"))) {
+        try(final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(adjFile), "UTF-8"));
+            final BatchedPipeline pipeline = new BatchedPipeline(redisBatchSize)) {
             final Stopwatch stopwatch = Stopwatch.createStarted();
 
             final GeoNamesRepository geoNamesRepository = new GeoNamesRepository();
@@ -151,10 +174,7 @@ public class GeoNamesImporter {
 
                     final String key = adjectival.toLowerCase();
                     logger.debug("{},{},{},{}", country.getCountryCode(), country.getName(), country.getGeonameId(), adjectival);
-                    RedisDAO.pipeline(pipeline -> {
-                        new PipelinedSet<Long>(key, pipeline).add(country.getGeonameId());
-                        return 0;
-                    });
+                    pipeline.sadd(key, String.valueOf(country.getGeonameId()));
                 }
             }
 
@@ -165,78 +185,142 @@ public class GeoNamesImporter {
         }
     }
 
-    private static void importGeoNames(String geoNamesFile) {
+    /**
+     * Imports the GeoNames dump through a pipeline of three stages connected by bounded queues:
+     * a reader that cuts the file into chunks of lines, a pool of parsers that turn each line into its columns and name keys,
+     * and a single writer (the calling thread) that inserts the entries into SQLite in one transaction,
+     * adds them to the hierarchy index and sends the name keys to Redis in batched pipelines.
+     * The name index of the SQLite table is created only after all entries are inserted.
+     */
+    private static void importGeoNames(String geoNamesFile, String hierarchyFile, int threads, int redisBatchSize) {
         final GeoNamesRepository repository = new GeoNamesRepository(true);
+        final GeoNamesHierarchyIndex.Writer hierarchyWriter = new GeoNamesHierarchyIndex.Writer();
 
-        try(final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(geoNamesFile), "UTF-8"))) {
+        final BlockingQueue<List<String>> lineQueue = new ArrayBlockingQueue<>(threads * 4);
+        final BlockingQueue<List<GeoNamesRecord>> entryQueue = new ArrayBlockingQueue<>(threads * 4);
+        final AtomicLong malformedLines = new AtomicLong();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try (final BatchedPipeline pipeline = new BatchedPipeline(redisBatchSize)) {
             final Stopwatch stopwatch = Stopwatch.createStarted();
 
             repository.createSchema();
-            final BatchExecutor batchExecutor = repository.startBatch(5000);
+            final BatchExecutor batchExecutor = repository.startBatch(SQL_BATCH_SIZE);
 
-            int i = 0;
-            for (String line; (line = reader.readLine()) != null;) {
-                i += 1;
+            final Future<Long> reader = executor.submit(() -> readLines(geoNamesFile, lineQueue, threads));
+            final List<Future<?>> parsers = new ArrayList<>(threads);
+            for (int t = 0; t < threads; t++) {
+                parsers.add(executor.submit(() -> parseLines(lineQueue, entryQueue, malformedLines)));
+            }
 
-                if (i % 100000 == 0) {
-                    logger.info(String.format("  at line %d", i));
+            long count = 0;
+            for (int finishedParsers = 0; finishedParsers < threads;) {
+                final List<GeoNamesRecord> chunk = entryQueue.take();
+                if (chunk == END_OF_ENTRIES) {
+                    finishedParsers++;
+                    continue;
                 }
 
-                final String[] entries = line.split("\\t");
-                final Long geonameId = Long.valueOf(entries[0]);
-                final String name = entries[1];
-                final String alternateNames = entries[3];
-                final Double latitude = Double.valueOf(entries[4]);
-                final Double longitude = Double.valueOf(entries[5]);
-                final String featureCode = entries[6];
-                final String featureClass = entries[7];
-                final String countryCode = entries[8];
-                final String admin1Code = entries[10];
-                final String admin2Code = entries[11];
-                final String admin3Code = entries[12];
-                final String admin4Code = entries[13];
-                final Long population = Long.valueOf(entries[14]);
-                final String modificationDate = entries[18];
-
-                batchExecutor.addBatch(p -> {
-                    try {
-                        p.setLong(1, geonameId);
-                        p.setString(2, name);
-                        p.setString(3, alternateNames);
-                        p.setDouble(4, latitude);
-                        p.setDouble(5, longitude);
-                        p.setString(6, featureCode);
-                        p.setString(7, featureClass);
-                        p.setString(8, countryCode);
-                        p.setString(9, admin1Code);
-                        p.setString(10, admin2Code);
-                        p.setString(11, admin3Code);
-                        p.setString(12, admin4Code);
-                        p.setLong(13, population);
-                        p.setString(14, modificationDate);
-                    } catch (SQLException ignored) {
+                for (GeoNamesRecord record : chunk) {
+                    batchExecutor.addBatch(record::bind);
+                    hierarchyWriter.add(record.getGeonameId(), record.getCountryCode(), record.getAdmin1Code(), record.getAdmin2Code());
+
+                    final String geonameId = String.valueOf(record.getGeonameId());
+                    for (String key : record.getKeys()) {
+                        pipeline.sadd(key, geonameId);
                     }
-                });
-
-                RedisDAO.pipeline(pipeline -> {
-                    new PipelinedSet<Long>(name.toLowerCase(), pipeline).add(geonameId);
-                    if (alternateNames != null && !alternateNames.isEmpty()) {
-                        for (String altName : alternateNames.split(",")) {
-                            if (!altName.equals(name))
-                                new PipelinedSet<Long>(altName.toLowerCase(), pipeline).add(geonameId);
-                        }
+
+                    if (++count % PROGRESS_INTERVAL == 0) {
+                        logger.info(String.format("  at line %d (%.0f lines/s)",
+                                count, count * 1000.0 / Math.max(1, stopwatch.elapsed(TimeUnit.MILLISECONDS))));
                     }
+                }
+            }
 
-                    return 0;
-                });
+            // a failed parser has ended its entries early, so its failure aborts the import before the transaction is committed
+            for (Future<?> parser : parsers) {
+                parser.get();
             }
 
+            final long lines = reader.get();
+            if (malformedLines.get() > 0)
+                logger.warn("{} of {} lines were malformed and skipped", malformedLines.get(), lines);
+
             batchExecutor.finalizeBatch();
-            
+            pipeline.flush();
+
+            logger.info("{} entries inserted in {} s, creating indexes", count, stopwatch.elapsed(TimeUnit.SECONDS));
+            repository.createIndexes();
+
+            hierarchyWriter.write(hierarchyFile);
+
             stopwatch.stop();
-            logger.info("GeoNames successfully imported in {} s", stopwatch.elapsed(TimeUnit.SECONDS));
+            logger.info("GeoNames successfully imported in {} s ({} Redis commands)",
+                    stopwatch.elapsed(TimeUnit.SECONDS), pipeline.getCommandCount());
         } catch (IOException | SQLException e) {
             logger.error("something went wrong during parsing", e);
+        } catch (ExecutionException e) {
+            logger.error("something went wrong during reading or parsing", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("import interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return number of lines read
+     */
+    private static long readLines(String geoNamesFile, BlockingQueue<List<String>> lineQueue, int parsers)
+            throws IOException, InterruptedException {
+        long count = 0;
+        try(final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(geoNamesFile), "UTF-8"), 1 << 16)) {
+            List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+            for (String line; (line = reader.readLine()) != null;) {
+                chunk.add(line);
+                count++;
+
+                if (chunk.size() == CHUNK_SIZE) {
+                    lineQueue.put(chunk);
+                    chunk = new ArrayList<>(CHUNK_SIZE);
+                }
+            }
+
+            if (!chunk.isEmpty())
+                lineQueue.put(chunk);
+        } finally {
+            for (int t = 0; t < parsers; t++) {
+                lineQueue.put(END_OF_LINES);
+            }
+        }
+
+        return count;
+    }
+
+    private static void parseLines(BlockingQueue<List<String>> lineQueue,
+                                   BlockingQueue<List<GeoNamesRecord>> entryQueue,
+                                   AtomicLong malformedLines) {
+        try {
+            try {
+                for (List<String> chunk; (chunk = lineQueue.take()) != END_OF_LINES;) {
+                    final List<GeoNamesRecord> entries = new ArrayList<>(chunk.size());
+                    for (String line : chunk) {
+                        try {
+                            entries.add(GeoNamesRecord.parse(line));
+                        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                            malformedLines.incrementAndGet();
+                            logger.warn("malformed line skipped: <{}> {}", line, e.toString());
+                        }
+                    }
+
+                    entryQueue.put(entries);
+                }
+            } finally {
+                entryQueue.put(END_OF_ENTRIES);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 }
@@ -0,0 +1,187 @@
+package tr.geonames.factory;
+
+import tr.geonames.GeoNamesEntry;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * A line of a GeoNames dump (<code>allCountries.txt</code> or a <code>modifications-*.txt</code> file)
+ * along with the lower-cased names under which the entry is stored in Redis.
+ * <p>
+ * Columns are kept as they appear in the dump. Note that the <code>featureCode</code> column of the SQLite table
+ * holds the feature class of GeoNames (column 6) and vice versa.
+ * </p>
+ */
+class GeoNamesRecord {
+    private static final int COLUMNS = 19;
+
+    private final String[] columns;
+    private final long geonameId;
+    private final double latitude, longitude;
+    private final long population;
+    private Set<String> keys;
+
+    private GeoNamesRecord(String[] columns) {
+        this.columns = columns;
+        this.geonameId = Long.parseLong(columns[0]);
+        this.latitude = Double.parseDouble(columns[4]);
+        this.longitude = Double.parseDouble(columns[5]);
+        this.population = Long.parseLong(columns[14]);
+        this.keys = nameKeys(columns[1], columns[3]);
+    }
+
+    /**
+     * Splits the line on tabs by hand, which is considerably faster than a regex split on a full dump.
+     * @throws IndexOutOfBoundsException if the line has too few columns
+     * @throws NumberFormatException if a numeric column is malformed
+     */
+    static GeoNamesRecord parse(String line) {
+        final String[] columns = new String[COLUMNS];
+
+        int start = 0;
+        for (int i = 0; i < COLUMNS - 1; i++) {
+            final int end = line.indexOf('\t', start);
+            if (end < 0)
+                throw new IndexOutOfBoundsException(String.format("expected %d columns, found %d", COLUMNS, i + 1));
+            columns[i] = line.substring(start, end);
+            start = end + 1;
+        }
+        final int end = line.indexOf('\t', start);
+        columns[COLUMNS - 1] = end < 0 ? line.substring(start) : line.substring(start, end);
+
+        return new GeoNamesRecord(columns);
+    }
+
+    /**
+     * Rebuilds the record of an entry stored in the gazetteer; columns that are not stored are left empty.
+     */
+    static GeoNamesRecord of(GeoNamesEntry entry) {
+        final String[] columns = new String[COLUMNS];
+        Arrays.fill(columns, "");
+
+        columns[0] = String.valueOf(entry.getGeonameId());
+        columns[1] = Objects.toString(entry.getName(), "");
+        columns[3] = Objects.toString(entry.getAlternateNames(), "");
+        columns[4] = String.valueOf(entry.getLatitude());
+        columns[5] = String.valueOf(entry.getLongitude());
+        columns[6] = Objects.toString(entry.getFeatureCode(), "");
+        columns[7] = Objects.toString(entry.getFeatureClass(), "");
+        columns[8] = Objects.toString(entry.getCountryCode(), "");
+        columns[10] = Objects.toString(entry.getAdmin1code(), "");
+        columns[11] = Objects.toString(entry.getAdmin2code(), "");
+        columns[12] = Objects.toString(entry.getAdmin3Code(), "");
+        columns[13] = Objects.toString(entry.getAdmin4Code(), "");
+        columns[14] = String.valueOf(entry.getPopulation() == null ? 0 : entry.getPopulation());
+        columns[18] = Objects.toString(entry.getModificationDate(), "");
+
+        return new GeoNamesRecord(columns);
+    }
+
+    /**
+     * @return the Redis keys of an entry: its lower-cased name and its lower-cased alternate names
+     */
+    static Set<String> nameKeys(String name, String alternateNames) {
+        final Set<String> keys = new LinkedHashSet<>();
+        keys.add(name.toLowerCase());
+        if (alternateNames != null && !alternateNames.isEmpty()) {
+            for (String altName : alternateNames.split(",")) {
+                if (!altName.equals(name))
+                    keys.add(altName.toLowerCase());
+            }
+        }
+        return keys;
+    }
+
+    long getGeonameId() {
+        return geonameId;
+    }
+
+    String getName() {
+        return columns[1];
+    }
+
+    String getAlternateNames() {
+        return columns[3];
+    }
+
+    double getLatitude() {
+        return latitude;
+    }
+
+    double getLongitude() {
+        return longitude;
+    }
+
+    void setAlternateNames(String alternateNames) {
+        columns[3] = alternateNames;
+        keys = nameKeys(columns[1], alternateNames);
+    }
+
+    /**
+     * @return the GeoNames feature class, e.g. <code>A</code>
+     */
+    String getFeatureClass() {
+        return columns[6];
+    }
+
+    /**
+     * @return the GeoNames feature code, e.g. <code>ADM1</code>
+     */
+    String getFeatureCode() {
+        return columns[7];
+    }
+
+    String getCountryCode() {
+        return columns[8];
+    }
+
+    String getAdmin1Code() {
+        return columns[10];
+    }
+
+    String getAdmin2Code() {
+        return columns[11];
+    }
+
+    String getAdmin3Code() {
+        return columns[12];
+    }
+
+    String getAdmin4Code() {
+        return columns[13];
+    }
+
+    long getPopulation() {
+        return population;
+    }
+
+    String getModificationDate() {
+        return columns[18];
+    }
+
+    Set<String> getKeys() {
+        return keys;
+    }
+
+    void bind(PreparedStatement p) {
+        try {
+            p.setLong(1, geonameId);
+            p.setString(2, columns[1]);
+            p.setString(3, columns[3]);
+            p.setDouble(4, latitude);
+            p.setDouble(5, longitude);
+            p.setString(6, columns[6]);
+            p.setString(7, columns[7]);
+            p.setString(8, columns[8]);
+            p.setString(9, columns[10]);
+            p.setString(10, columns[11]);
+            p.setString(11, columns[12]);
+            p.setString(12, columns[13]);
+            p.setLong(13, population);
+            p.setString(14, columns[18]);
+        } catch (SQLException ignored) {
+        }
+    }
+}
@@ -0,0 +1,447 @@
+package tr.geonames.factory;
+
+import com.google.common.base.Stopwatch;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import tr.geonames.GeoNamesHierarchyIndex;
+import tr.geonames.GeoNamesRepository;
+import tr.geonames.GeoNamesSnapshot;
+import tr.util.Config;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a {@link GeoNamesSnapshot} from the same files {@link GeoNamesImporter} imports,
+ * so that resolvers can run on the <code>snapshot</code> gazetteer backend without Redis and SQLite.
+ * The {@link GeoNamesHierarchyIndex} is written by the same pass next to the snapshot,
+ * so that hierarchies are looked up alike on both backends.
+ * <p>
+ * The whole name dictionary is kept in memory while building,
+ * so a full GeoNames dump needs a large heap (see the <code>snapshot</code> Maven profile).
+ * </p>
+ */
+public class GeoNamesSnapshotBuilder {
+
+    private static final Logger logger = LogManager.getLogger(GeoNamesSnapshotBuilder.class);
+
+    private static final int MAX_SHARED_STRING_LENGTH = 10;
+
+    private final Path recordsFile;
+    private final Path poolFile;
+    private final Path postingsFile;
+
+    private final DataOutputStream records;
+    private final DataOutputStream pool;
+    private long poolSize = 0;
+
+    private final Map<String, Integer> sharedStrings = new HashMap<>();
+    private final Map<String, IntList> names = new HashMap<>();
+    private final GeoNamesHierarchyIndex.Writer hierarchyWriter = new GeoNamesHierarchyIndex.Writer();
+
+    private long[] geonameIds = new long[1 << 16];
+    private long[] populations = new long[1 << 16];
+    private int entryCount = 0;
+
+    private long[] sortedIds;
+
+    private GeoNamesSnapshotBuilder() throws IOException {
+        this.recordsFile = Files.createTempFile("geonames", ".records");
+        this.poolFile = Files.createTempFile("geonames", ".pool");
+        this.postingsFile = Files.createTempFile("geonames", ".postings");
+
+        this.records = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(recordsFile), 1 << 16));
+        this.pool = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(poolFile), 1 << 16));
+    }
+
+    public static void main(String[] args) {
+        ArgumentParser argParser = ArgumentParsers.newFor("GeoNamesSnapshotBuilder")
+                .build()
+                .defaultHelp(true)
+                .description("Builds a memory-mapped gazetteer snapshot from GeoNames data");
+        argParser.addArgument("--geonames")
+                .required(true)
+                .help("GeoNames file (allCountries.zip file should be downloaded from GeoNames and extracted)");
+        argParser.addArgument("--adj")
+                .setDefault(Config.Gazetteer.ADJECTIVAL_FILE)
+                .help("Adjectival names for countries: A tab separated file where the first name is the actual country name");
+        argParser.addArgument("--abbr")
+                .setDefault(Config.Gazetteer.ABBREVIATION_FILE)
+                .help("Abbreviations file for some U.S. states and countries: A tab separated file containing a name and the corresponding GeoNames Id");
+        argParser.addArgument("-o", "--output")
+                .setDefault(Config.Gazetteer.GEONAMES_SNAPSHOT)
+                .help("The snapshot file to be built");
+        argParser.addArgument("--hierarchy")
+                .setDefault(Config.Gazetteer.GEONAMES_HIERARCHY)
+                .help("The hierarchy index to be built, mapping each entry to its country and administrative divisions");
+
+        final Namespace ns = argParser.parseArgsOrFail(args);
+
+        for (String arg : new String[] {"geonames", "abbr", "adj"}) {
+            if (Files.notExists(Paths.get(ns.getString(arg))))
+                throw new IllegalArgumentException(
+                        String.format("File cannot be found in the given path: '%s'", ns.getString(arg)));
+        }
+
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+
+        try {
+            build(ns.getString("geonames"), ns.getString("abbr"), ns.getString("adj"),
+                    ns.getString("output"), ns.getString("hierarchy"));
+
+            stopwatch.stop();
+            logger.info("Snapshot '{}' successfully built in {} s", ns.getString("output"), stopwatch.elapsed(TimeUnit.SECONDS));
+        } catch (IOException e) {
+            logger.error("something went wrong during building the snapshot", e);
+        }
+    }
+
+    public static void build(String geoNamesFile, String abbreviationsFile, String adjectivalFile,
+                             String snapshotFile, String hierarchyFile) throws IOException {
+        final GeoNamesSnapshotBuilder builder = new GeoNamesSnapshotBuilder();
+        builder.addGeoNames(geoNamesFile);
+        builder.addAbbreviations(abbreviationsFile);
+        builder.addAdjectivalNames(adjectivalFile);
+        builder.write(snapshotFile);
+        builder.hierarchyWriter.write(hierarchyFile);
+    }
+
+    /**
+     * Lines are parsed and keyed by {@link GeoNamesRecord}, as {@link GeoNamesImporter} does,
+     * so that names are keyed alike in both backends.
+     */
+    private void addGeoNames(String geoNamesFile) throws IOException {
+        long malformedLines = 0;
+
+        try(final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(geoNamesFile), "UTF-8"))) {
+            int i = 0;
+            for (String line; (line = reader.readLine()) != null;) {
+                i += 1;
+
+                if (i % 100000 == 0) {
+                    logger.info(String.format("  at line %d", i));
+                }
+
+                final GeoNamesRecord geoNamesRecord;
+                try {
+                    geoNamesRecord = GeoNamesRecord.parse(line);
+                } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                    malformedLines++;
+                    logger.warn("malformed line skipped: <{}> {}", line, e.toString());
+                    continue;
+                }
+
+                final long geonameId = geoNamesRecord.getGeonameId();
+                if (geonameId > Integer.MAX_VALUE)
+                    throw new IOException("geonameId out of range: " + geonameId);
+
+                final int record = entryCount++;
+                if (record == geonameIds.length) {
+                    geonameIds = Arrays.copyOf(geonameIds, record * 2);
+                    populations = Arrays.copyOf(populations, record * 2);
+                }
+                geonameIds[record] = geonameId;
+                populations[record] = geoNamesRecord.getPopulation();
+
+                // the feature class and code are swapped, as in the SQLite table
+                records.writeLong(geonameId);
+                records.writeDouble(geoNamesRecord.getLatitude());
+                records.writeDouble(geoNamesRecord.getLongitude());
+                records.writeLong(geoNamesRecord.getPopulation());
+                records.writeInt(poolString(geoNamesRecord.getName()));
+                records.writeInt(poolString(geoNamesRecord.getAlternateNames()));
+                records.writeInt(poolString(geoNamesRecord.getFeatureClass()));
+                records.writeInt(poolString(geoNamesRecord.getFeatureCode()));
+                records.writeInt(poolString(geoNamesRecord.getCountryCode()));
+                records.writeInt(poolString(geoNamesRecord.getAdmin1Code()));
+                records.writeInt(poolString(geoNamesRecord.getAdmin2Code()));
+                records.writeInt(poolString(geoNamesRecord.getAdmin3Code()));
+                records.writeInt(poolString(geoNamesRecord.getAdmin4Code()));
+                records.writeInt(poolString(geoNamesRecord.getModificationDate()));
+
+                hierarchyWriter.add(geonameId, geoNamesRecord.getCountryCode(),
+                        geoNamesRecord.getAdmin1Code(), geoNamesRecord.getAdmin2Code());
+
+                for (String key : geoNamesRecord.getKeys()) {
+                    addName(key, record);
+                }
+            }
+        }
+
+        sortedIds = new long[entryCount];
+        for (int record = 0; record < entryCount; record++) {
+            sortedIds[record] = (geonameIds[record] << 32) | record;
+        }
+        Arrays.sort(sortedIds);
+
+        if (malformedLines > 0)
+            logger.warn("{} malformed lines skipped", malformedLines);
+        logger.info("{} entries and {} names read", entryCount, names.size());
+    }
+
+    private void addAbbreviations(String abbrvFile) throws IOException {
+        try(final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(abbrvFile), "UTF-8"))) {
+            for (String line; (line = reader.readLine()) != null;) {
+
+                if (line.isEmpty())
+                    continue;
+
+                final String[] entries = line.split("\t");
+                final String location = entries[0].trim();
+                final long geonameId = Long.valueOf(entries[1].trim());
+
+                final int record = findRecord(geonameId);
+                if (record < 0) {
+                    logger.error("Could not find abbreviated entry: <{}> {}", location, geonameId);
+                    continue;
+                }
+
+                addName(location.toLowerCase(), record);
+            }
+        }
+    }
+
+    private void addAdjectivalNames(String adjFile) throws IOException {
+        final GeoNamesRepository geoNamesRepository = new GeoNamesRepository(true);
+
+        try(final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(adjFile), "UTF-8"))) {
+            for (String line; (line = reader.readLine()) != null;) {
+
+                final String[] entries = line.split("\t|,| or |/");
+                final String countryName = entries[0].trim();
+
+                IntList candidates = names.get(countryName.toLowerCase());
+                if (candidates == null)
+                    candidates = names.get(countryName.toLowerCase().replaceAll("\\.", ""));
+
+                final IntList countries = new IntList();
+                if (candidates != null) {
+                    for (int i = 0; i < candidates.size; i++) {
+                        if (geoNamesRepository.isCountry(geonameIds[candidates.data[i]]))
+                            countries.add(candidates.data[i]);
+                    }
+                }
+
+                if (countries.size == 0) {
+                    logger.error("Could not find country: <{}>", countryName);
+                    continue;
+                } else if (countries.size > 1) {
+                    logger.warn("More than one country found: <{}>", countryName);
+                    continue;
+                }
+
+                for (int i = 1; i < entries.length; i++) {
+                    String adjectival = entries[i].trim();
+
+                    if (adjectival.matches("\".*\""))
+                        adjectival = adjectival.substring(1, adjectival.length() - 1);
+
+                    if (adjectival.isEmpty() || adjectival.equalsIgnoreCase("none"))
+                        continue;
+
+                    addName(adjectival.toLowerCase(), countries.data[0]);
+                }
+            }
+        }
+    }
+
+    private void write(String snapshotFile) throws IOException {
+        final int slotCount = Integer.highestOneBit(Math.max(1, names.size()) * 2 - 1) << 1;
+        final int[] slots = new int[slotCount * 4];
+
+        int postingCount = 0;
+        try (final DataOutputStream postings = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(postingsFile), 1 << 16))) {
+            for (Map.Entry<String, IntList> nameEntry : names.entrySet()) {
+                final int[] sortedPostings = sortByPopulation(nameEntry.getValue());
+                final int hash = nameEntry.getKey().hashCode();
+
+                int slot = GeoNamesSnapshot.slotOf(hash, slotCount);
+                while (slots[slot * 4 + 3] != 0)
+                    slot = (slot + 1) & (slotCount - 1);
+
+                slots[slot * 4] = hash;
+                slots[slot * 4 + 1] = poolString(nameEntry.getKey(), false);
+                slots[slot * 4 + 2] = postingCount;
+                slots[slot * 4 + 3] = sortedPostings.length;
+
+                for (int record : sortedPostings) {
+                    postings.writeInt(record);
+                }
+                postingCount += sortedPostings.length;
+            }
+        }
+
+        checkSectionSize("records", (long) entryCount * GeoNamesSnapshot.RECORD_SIZE);
+        checkSectionSize("postings", (long) postingCount * 4);
+
+        records.close();
+        pool.close();
+
+        final long recordsOffset = GeoNamesSnapshot.HEADER_SIZE;
+        final long idsOffset = recordsOffset + (long) entryCount * GeoNamesSnapshot.RECORD_SIZE;
+        final long recnosOffset = idsOffset + (long) entryCount * 8;
+        final long slotsOffset = recnosOffset + (long) entryCount * 4;
+        final long postingsOffset = slotsOffset + (long) slotCount * GeoNamesSnapshot.SLOT_SIZE;
+        final long poolOffset = postingsOffset + (long) postingCount * 4;
+
+        try (final FileChannel out = FileChannel.open(Paths.get(snapshotFile),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            final ByteBuffer header = ByteBuffer.allocate(GeoNamesSnapshot.HEADER_SIZE);
+            header.putInt(GeoNamesSnapshot.MAGIC)
+                    .putInt(GeoNamesSnapshot.VERSION)
+                    .putInt(entryCount)
+                    .putInt(names.size())
+                    .putInt(slotCount)
+                    .putInt(0)
+                    .putLong(recordsOffset)
+                    .putLong(idsOffset)
+                    .putLong(recnosOffset)
+                    .putLong(slotsOffset)
+                    .putLong(postingsOffset)
+                    .putLong(poolOffset)
+                    .putLong(poolSize);
+            header.flip();
+            writeFully(out, header);
+
+            transfer(recordsFile, out);
+
+            final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+            for (long packed : sortedIds) {
+                putBuffered(out, buffer, 8).putLong(packed >>> 32);
+            }
+            for (long packed : sortedIds) {
+                putBuffered(out, buffer, 4).putInt((int) packed);
+            }
+            for (int value : slots) {
+                putBuffered(out, buffer, 4).putInt(value);
+            }
+            buffer.flip();
+            writeFully(out, buffer);
+
+            transfer(postingsFile, out);
+            transfer(poolFile, out);
+        } finally {
+            Files.deleteIfExists(recordsFile);
+            Files.deleteIfExists(poolFile);
+            Files.deleteIfExists(postingsFile);
+        }
+    }
+
+    private int findRecord(long geonameId) {
+        int lo = 0, hi = sortedIds.length - 1;
+        while (lo <= hi) {
+            final int mid = (lo + hi) >>> 1;
+            final long midId = sortedIds[mid] >>> 32;
+            if (midId < geonameId)
+                lo = mid + 1;
+            else if (midId > geonameId)
+                hi = mid - 1;
+            else
+                return (int) sortedIds[mid];
+        }
+
+        return -1;
+    }
+
+    private void addName(String key, int record) {
+        names.computeIfAbsent(key, k -> new IntList()).add(record);
+    }
+
+    /**
+     * @return the distinct records, most populated first and ties broken by geonameId,
+     * the order in which the SQLite source ranks the candidates of a name
+     */
+    private int[] sortByPopulation(IntList postings) {
+        final Integer[] boxed = new Integer[postings.size];
+        for (int i = 0; i < postings.size; i++) {
+            boxed[i] = postings.data[i];
+        }
+
+        Arrays.sort(boxed, Comparator.<Integer>comparingLong(r -> populations[r]).reversed()
+                .thenComparingLong(r -> geonameIds[r]));
+
+        return Arrays.stream(boxed).mapToInt(Integer::intValue).distinct().toArray();
+    }
+
+    private int poolString(String str) throws IOException {
+        return poolString(str, true);
+    }
+
+    private int poolString(String str, boolean shareable) throws IOException {
+        if (str == null)
+            return GeoNamesSnapshot.NULL_REF;
+
+        final boolean shared = shareable && str.length() <= MAX_SHARED_STRING_LENGTH;
+        if (shared) {
+            final Integer ref = sharedStrings.get(str);
+            if (ref != null)
+                return ref;
+        }
+
+        final byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        checkSectionSize("string pool", poolSize + 4 + bytes.length);
+
+        final int ref = (int) poolSize;
+        pool.writeInt(bytes.length);
+        pool.write(bytes);
+        poolSize += 4 + bytes.length;
+
+        if (shared)
+            sharedStrings.put(str, ref);
+
+        return ref;
+    }
+
+    /**
+     * A section is mapped as a single buffer, and addressed by <code>int</code> references
+     */
+    private static void checkSectionSize(String section, long size) throws IOException {
+        if (size > Integer.MAX_VALUE)
+            throw new IOException(String.format("%s section of %d bytes exceeds the 2 GB a snapshot section can hold", section, size));
+    }
+
+    private static ByteBuffer putBuffered(FileChannel out, ByteBuffer buffer, int length) throws IOException {
+        if (buffer.remaining() < length) {
+            buffer.flip();
+            writeFully(out, buffer);
+            buffer.clear();
+        }
+        return buffer;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining())
+            out.write(buffer);
+    }
+
+    private static void transfer(Path file, FileChannel out) throws IOException {
+        try (final FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            long position = 0;
+            final long size = in.size();
+            while (position < size)
+                position += in.transferTo(position, size - position, out);
+        }
+    }
+
+    private static class IntList {
+        int[] data = new int[2];
+        int size = 0;
+
+        void add(int value) {
+            if (size == data.length)
+                data = Arrays.copyOf(data, size * 2);
+            data[size++] = value;
+        }
+    }
+}
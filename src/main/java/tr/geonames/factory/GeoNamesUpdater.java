@@ -0,0 +1,195 @@
+package tr.geonames.factory;
+
+import com.google.common.base.Stopwatch;
+import net.sourceforge.argparse4j.ArgumentParsers;
+import net.sourceforge.argparse4j.inf.ArgumentParser;
+import net.sourceforge.argparse4j.inf.Namespace;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import tr.geonames.GeoNamesCodeTables;
+import tr.geonames.GeoNamesEntry;
+import tr.geonames.GeoNamesRepository;
+import tr.util.Config;
+import tr.util.db.BatchExecutor;
+import tr.util.redis.BatchedPipeline;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the daily update files of GeoNames to a gazetteer built by {@link GeoNamesImporter},
+ * so that it does not need to be re-imported to pick up the changes.
+ * <p>
+ * Entries are upserted into and deleted from SQLite, their ids are added to and removed from the name sets in Redis,
+ * and the code tables of first-order and second-order divisions are updated.
+ * The hierarchy index and the gazetteer snapshot are not updated, they have to be rebuilt if an entry has moved.
+ * </p>
+ */
+public class GeoNamesUpdater {
+
+    private static final Logger logger = LogManager.getLogger(GeoNamesUpdater.class);
+
+    private static final int SQL_BATCH_SIZE = 5000;
+
+    public static void main(String[] args) {
+        ArgumentParser argParser = ArgumentParsers.newFor("GeoNamesUpdater")
+                .build()
+                .defaultHelp(true)
+                .description("Applies GeoNames daily modifications and deletions to the SQLite database and Redis key-values");
+        argParser.addArgument("--modifications")
+                .nargs("*")
+                .setDefault(Collections.emptyList())
+                .help("GeoNames modifications-*.txt files, in the order they are published");
+        argParser.addArgument("--deletes")
+                .nargs("*")
+                .setDefault(Collections.emptyList())
+                .help("GeoNames deletes-*.txt files");
+        argParser.addArgument("--alternate_modifications")
+                .nargs("*")
+                .setDefault(Collections.emptyList())
+                .help("GeoNames alternateNamesModifications-*.txt files, in the order they are published");
+        argParser.addArgument("--alternate_deletes")
+                .nargs("*")
+                .setDefault(Collections.emptyList())
+                .help("GeoNames alternateNamesDeletes-*.txt files");
+        argParser.addArgument("--codes")
+                .setDefault("data/gazetteer")
+                .help("Directory of the code tables (continents.csv, country.csv, admin1.csv and admin2.csv)");
+        argParser.addArgument("--adj")
+                .setDefault(Config.Gazetteer.ADJECTIVAL_FILE)
+                .help("Adjectival names for countries, re-applied if names are removed");
+        argParser.addArgument("--abbr")
+                .setDefault(Config.Gazetteer.ABBREVIATION_FILE)
+                .help("Abbreviations file, re-applied if names are removed");
+        argParser.addArgument("--redis_host")
+                .setDefault(Config.Redis.HOST)
+                .help("Redis host");
+        argParser.addArgument("--redis_port")
+                .type(Integer.class)
+                .setDefault(Config.Redis.PORT)
+                .help("Redis port");
+        argParser.addArgument("--redis_batch")
+                .type(Integer.class)
+                .setDefault(10000)
+                .help("Number of Redis commands sent in one pipeline");
+
+        final Namespace ns = argParser.parseArgsOrFail(args);
+
+        Config.Redis.PORT = ns.getInt("redis_port");
+        Config.Redis.HOST = ns.getString("redis_host");
+
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+
+        try {
+            final GeoNamesDelta delta = new GeoNamesDelta();
+            for (Path file : paths(ns.getList("modifications")))
+                delta.readModifications(file);
+            for (Path file : paths(ns.getList("deletes")))
+                delta.readDeletes(file);
+            for (Path file : paths(ns.getList("alternate_modifications")))
+                delta.readAlternateNameModifications(file);
+            for (Path file : paths(ns.getList("alternate_deletes")))
+                delta.readAlternateNameDeletes(file);
+
+            if (delta.getMalformedLines() > 0)
+                logger.warn("{} malformed lines skipped", delta.getMalformedLines());
+
+            final GeoNamesRepository repository = new GeoNamesRepository(true);
+            final Map<Long, GeoNamesEntry> currentEntries = new HashMap<>();
+            for (GeoNamesEntry entry : repository.loadAll(delta.getAffectedIds()))
+                currentEntries.put(entry.getGeonameId(), entry);
+
+            final GeoNamesDelta.Changes changes = delta.apply(currentEntries);
+            if (!changes.unknownIds.isEmpty())
+                logger.warn("{} alternate name changes refer to entries not in the gazetteer", changes.unknownIds.size());
+
+            updateDatabase(repository, changes);
+            final long redisCommands = updateRedis(changes, ns.getInt("redis_batch"),
+                    ns.getString("abbr"), ns.getString("adj"));
+            // names added by the update are no longer unknown
+            GeoNamesRepository.invalidateUnknownNames();
+
+            final GeoNamesCodeTables codeTables = GeoNamesCodeTables.read(ns.getString("codes"));
+            if (changes.updateCodes(codeTables)) {
+                codeTables.write();
+                logger.info("code tables updated");
+            }
+
+            if (!changes.relocatedIds.isEmpty() || !changes.deletions.isEmpty())
+                logger.warn("{} entries moved and {} deleted: rebuild the hierarchy index (and the snapshot, if used) to reflect them",
+                        changes.relocatedIds.size(), changes.deletions.size());
+
+            stopwatch.stop();
+            logger.info("GeoNames updated in {} ms: {} entries upserted, {} deleted, {} Redis commands",
+                    stopwatch.elapsed(TimeUnit.MILLISECONDS), changes.upserts.size(), changes.deletions.size(), redisCommands);
+        } catch (IOException | SQLException e) {
+            logger.error("something went wrong during updating", e);
+        }
+    }
+
+    private static List<Path> paths(List<Object> files) {
+        final List<Path> paths = new ArrayList<>();
+        for (Object file : files) {
+            final Path path = Paths.get(file.toString());
+            if (Files.notExists(path))
+                throw new IllegalArgumentException(String.format("File cannot be found in the given path: '%s'", file));
+            paths.add(path);
+        }
+        return paths;
+    }
+
+    /**
+     * The upserts and the deletions are applied in a single transaction, so a failure leaves the database as it was.
+     */
+    private static void updateDatabase(GeoNamesRepository repository, GeoNamesDelta.Changes changes) throws SQLException {
+        final BatchExecutor upsertBatch = repository.startUpsertBatch(SQL_BATCH_SIZE);
+        for (GeoNamesRecord record : changes.upserts)
+            upsertBatch.addBatch(record::bind);
+
+        if (changes.deletions.isEmpty()) {
+            upsertBatch.finalizeBatch();
+            return;
+        }
+
+        // both batches run on the writable connection of this thread, so the deletions commit the upserts as well
+        upsertBatch.executePending();
+
+        final BatchExecutor deleteBatch = repository.startDeleteBatch(SQL_BATCH_SIZE);
+        for (Long geonameId : changes.deletions) {
+            deleteBatch.addBatch(p -> {
+                try {
+                    p.setLong(1, geonameId);
+                } catch (SQLException ignored) {
+                }
+            });
+        }
+        deleteBatch.finalizeBatch();
+    }
+
+    /**
+     * Stale keys are removed before new keys are added. As a removed name may have been an abbreviation or
+     * an adjectival name as well, these are imported again afterwards.
+     * @return number of Redis commands sent
+     */
+    private static long updateRedis(GeoNamesDelta.Changes changes, int redisBatchSize, String abbreviationsFile, String adjectivalFile) {
+        long commands;
+        try (final BatchedPipeline pipeline = new BatchedPipeline(redisBatchSize)) {
+            changes.removedKeys.forEach((key, geonameId) -> pipeline.srem(key, String.valueOf(geonameId)));
+            changes.addedKeys.forEach((key, geonameId) -> pipeline.sadd(key, String.valueOf(geonameId)));
+            pipeline.flush();
+            commands = pipeline.getCommandCount();
+        }
+
+        if (!changes.removedKeys.isEmpty()) {
+            GeoNamesImporter.importAbbreviations(abbreviationsFile, redisBatchSize);
+            GeoNamesImporter.importAdjectivalNames(adjectivalFile, redisBatchSize);
+        }
+
+        return commands;
+    }
+}
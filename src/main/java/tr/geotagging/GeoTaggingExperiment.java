@@ -6,6 +6,7 @@ import tr.Toponym;
 import tr.dataset.Dataset;
 import tr.dataset.DatasetException;
 import tr.dataset.DatasetSummary;
+import tr.geonames.GeoNamesRepository;
 import tr.geotagging.evaluation.EvaluationResult;
 import tr.geotagging.evaluation.EvaluationResultExporter;
 import tr.geotagging.evaluation.GeoTagEvaluator;
@@ -26,11 +27,14 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Created with IntelliJ IDEA.
@@ -73,6 +77,8 @@ public class GeoTaggingExperiment {
         final String experimentName = String.format("%s|%s", recognizerName, resolverName);
         exporter.ifPresent(ex -> ex.exportHeader(recognizerName, resolverName, testDataset.getName()));
 
+        final AtomicBoolean firstArticle = new AtomicBoolean(true);
+
         final DatasetSummary summary = testDataset.forEach(article -> {
             if (!article.isAnnotated())
                 return;
@@ -80,6 +86,13 @@ public class GeoTaggingExperiment {
             final List<TaggedWord> taggedWords = geoRecognizer.extract(article);
             final List<Toponym> resolvedToponyms = geoResolver.resolve(article, taggedWords);
 
+            if (firstArticle.compareAndSet(true, false))
+                logger.info(String.format("[%s] [%s] first article resolved in %d ms (JVM uptime %d ms)",
+                        experimentName,
+                        testDataset.getName(),
+                        stopwatch.elapsed(TimeUnit.MILLISECONDS),
+                        ManagementFactory.getRuntimeMXBean().getUptime()));
+
             final EvaluationResult r = evaluator.measure(article.getToponyms(), resolvedToponyms);
 
             logger.info(String.format("[%s] [%s|%s] topos: %d " +
@@ -123,6 +136,17 @@ public class GeoTaggingExperiment {
 
         exporter.ifPresent(EvaluationResultExporter::close);
 
+        logger.info(String.format("[%s] [%s] gazetteer cache: %s",
+                experimentName,
+                testDataset.getName(),
+                GeoNamesRepository.getEntryCache()));
+
+        logger.info(String.format("[%s] [%s] unknown names: %d hits of %d lookups",
+                experimentName,
+                testDataset.getName(),
+                GeoNamesRepository.getUnknownNameStats().hitCount(),
+                GeoNamesRepository.getUnknownNameStats().requestCount()));
+
         stopwatch.stop();
         logger.info(String.format("[%s] [%s] done in %d s",
                 experimentName,
@@ -155,26 +179,64 @@ public class GeoTaggingExperiment {
         final Namespace ns = argParser.parseArgsOrFail(args);
 
         final GeoRecognizer recognizer = ArgUtil.getRecognizer(ns.getString("recognizer"));
-        final GeoResolver resolver = ArgUtil.getResolver(
-                ns.getString("resolver"),
-                ns.getString("model"),
-                ns.getDouble("threshold"));
 
         final Dataset<Article, DatasetSummary> dataset = ArgUtil.getDataset(ns.getString("data"));
 
         final GeoTagResultMatcher.MatcherType matcherType = ArgUtil.getMatcherType(ns.getString("matcher"));
 
-        final GeoTaggingExperiment experiment = new GeoTaggingExperiment(recognizer, resolver, ns.getBoolean("save"));
         final GeoTagResultMatcher matcher = new GeoTagResultMatcher(matcherType,
                 DistanceUnit.mi.of(ns.getDouble("distance")));
 
+        final List<Integer> budgets = ns.getList("budgets");
+
         try {
-            experiment.evaluate(dataset, matcher);
+            if (budgets == null) {
+                final GeoResolver resolver = ArgUtil.getResolver(
+                        ns.getString("resolver"),
+                        ns.getString("model"),
+                        ns.getDouble("threshold"));
+
+                new GeoTaggingExperiment(recognizer, resolver, ns.getBoolean("save")).evaluate(dataset, matcher);
+            } else {
+                evaluateBudgets(recognizer, ns, budgets, dataset, matcher);
+            }
         } catch (DatasetException e) {
             e.printStackTrace();
         }
     }
 
+    /**
+     * Evaluates the resolver once per candidate budget, in the given order, and reports the accuracy and the time
+     * each budget takes. The gazetteer cache is shared by the runs, so a budget may be repeated to tell a cold run from a warm one.
+     */
+    private static void evaluateBudgets(GeoRecognizer recognizer, Namespace ns, List<Integer> budgets,
+                                        Dataset<Article, DatasetSummary> dataset, GeoTagResultMatcher matcher) throws DatasetException {
+        final List<String> report = new ArrayList<>();
+
+        for (int budget : budgets) {
+            final int k = budget > 0 ? budget : Integer.MAX_VALUE;
+            final GeoResolver resolver = ArgUtil.getResolver(
+                    ns.getString("resolver"),
+                    ns.getString("model"),
+                    ns.getDouble("threshold"),
+                    k);
+
+            final Stopwatch stopwatch = Stopwatch.createStarted();
+            final EvaluationResult result = new GeoTaggingExperiment(recognizer, resolver).evaluate(dataset, matcher);
+            stopwatch.stop();
+
+            final double precision = result.getPrecision(), recall = result.getRecall();
+            report.add(String.format("k=%s precision: %.3f recall: %.3f f-measure: %.3f time: %d ms",
+                    budget > 0 ? String.valueOf(budget) : "all",
+                    precision, recall, MathUtil.f1Measure(precision, recall),
+                    stopwatch.elapsed(TimeUnit.MILLISECONDS)));
+        }
+
+        logger.info(String.format("[%s] [%s] candidate budgets:", ns.getString("resolver"), dataset.getName()));
+        for (String line : report)
+            logger.info(line);
+    }
+
     private static ArgumentParser buildArgParser() {
         ArgumentParser argParser = ArgumentParsers.newFor("GeoTaggingExperiment")
                 .build()
@@ -205,6 +267,11 @@ public class GeoTaggingExperiment {
                 .type(Double.class)
                 .setDefault(Config.Eval.DEFAULT_DISTANCE)
                 .help("The distance, based on which a resolution can be deemed as correct");
+        argParser.addArgument("-k", "--budgets")
+                .type(Integer.class)
+                .nargs("+")
+                .help("Evaluate the resolver with each of the given numbers of candidates per toponym (0 keeps all) " +
+                        "and report the accuracy and time of each");
         argParser.addArgument("-s", "--save")
                 .action(Arguments.storeTrue())
                 .help("Enable saving the result");
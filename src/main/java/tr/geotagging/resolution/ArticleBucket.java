@@ -8,6 +8,8 @@ import tr.geonames.GeoNamesUtil;
 import tr.util.nlp.TaggedWordUtil;
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.Table;
 
 import java.util.*;
@@ -21,15 +23,46 @@ import java.util.stream.Collectors;
  * Time: 11:38 AM
  */
 public class ArticleBucket {
-    private final Function<TaggedWord, List<GeoNamesEntry>> candidateLoader;
+    private final Function<Collection<TaggedWord>, ListMultimap<String, GeoNamesEntry>> candidateLoader;
 
     private final List<TaggedWord> taggedWords;
     private final List<TaggedWord> recognizedToponyms;
 
-    private final ArrayListMultimap<String, GeoCandidateEntry> candidateMap;
+    private final ListMultimap<String, GeoCandidateEntry> candidateMap;
     private final Table<NamedEntityTag, String, Set<TaggedWord>> surfaceMentionMap;
 
+    /**
+     * Entries of the pinned toponyms keyed by {@link #makeKey(TaggedWord)}, shared by the buckets of the same article
+     */
+    private final Map<String, GeoNamesEntry> pinnedEntries;
+
     public ArticleBucket(Function<TaggedWord, List<GeoNamesEntry>> candidateLoader, List<TaggedWord> taggedWords) {
+        this(taggedWords, toponyms -> {
+            final ListMultimap<String, GeoNamesEntry> candidates = ArrayListMultimap.create();
+            toponyms.forEach(toponym -> candidates.putAll(makeKey(toponym), candidateLoader.apply(toponym)));
+            return candidates;
+        });
+    }
+
+    /**
+     * @param k the most populated candidates kept per toponym, which are the only ones loaded along with their hierarchies
+     */
+    public ArticleBucket(int k, List<TaggedWord> taggedWords) {
+        this(taggedWords, toponyms -> {
+            final ListMultimap<String, GeoNamesEntry> loaded = new GeoNamesRepository().loadCandidates(
+                    toponyms.stream().map(TaggedWord::getPhrase).collect(Collectors.toList()), k);
+
+            final ListMultimap<String, GeoNamesEntry> candidates = ArrayListMultimap.create();
+            toponyms.forEach(toponym -> candidates.putAll(makeKey(toponym), loaded.get(toponym.getPhrase())));
+            return candidates;
+        });
+    }
+
+    /**
+     * @param candidateLoader loads the candidates of all given toponyms at once, keyed by {@link #makeKey(TaggedWord)}
+     */
+    private ArticleBucket(List<TaggedWord> taggedWords,
+                          Function<Collection<TaggedWord>, ListMultimap<String, GeoNamesEntry>> candidateLoader) {
         this.candidateLoader = candidateLoader;
         this.taggedWords = taggedWords;
 
@@ -43,49 +76,69 @@ public class ArticleBucket {
 
             mentions.add(taggedWord);
         });
-        candidateMap = findCandidates();
+        candidateMap = Multimaps.unmodifiableListMultimap(findCandidates());
+        pinnedEntries = new HashMap<>();
     }
 
-    public ArticleBucket(int k, List<TaggedWord> taggedWords) {
-        this(taggedWord ->
-                new GeoNamesRepository().load(taggedWord.getPhrase())
-                        .stream()
-                        .sorted(Comparator.comparing(GeoNamesEntry::getPopulation).reversed())
-                        .limit(k)
-                        .collect(Collectors.toList()),
-                taggedWords);
+    /**
+     * Shares the candidates and mentions of another bucket of the same article, so they are not loaded again.
+     * Neither bucket may modify them.
+     */
+    protected ArticleBucket(ArticleBucket articleBucket) {
+        this(articleBucket.candidateLoader,
+                articleBucket.taggedWords,
+                articleBucket.recognizedToponyms,
+                articleBucket.candidateMap,
+                articleBucket.surfaceMentionMap,
+                articleBucket.pinnedEntries);
     }
 
-    protected ArticleBucket(Function<TaggedWord, List<GeoNamesEntry>> candidateLoader,
+    protected ArticleBucket(Function<Collection<TaggedWord>, ListMultimap<String, GeoNamesEntry>> candidateLoader,
                             List<TaggedWord> taggedWords,
                             List<TaggedWord> recognizedToponyms,
-                            ArrayListMultimap<String, GeoCandidateEntry> candidateMap,
+                            ListMultimap<String, GeoCandidateEntry> candidateMap,
                             Table<NamedEntityTag, String, Set<TaggedWord>> surfaceMentionMap) {
+        this(candidateLoader, taggedWords, recognizedToponyms, candidateMap, surfaceMentionMap, new HashMap<>());
+    }
+
+    private ArticleBucket(Function<Collection<TaggedWord>, ListMultimap<String, GeoNamesEntry>> candidateLoader,
+                          List<TaggedWord> taggedWords,
+                          List<TaggedWord> recognizedToponyms,
+                          ListMultimap<String, GeoCandidateEntry> candidateMap,
+                          Table<NamedEntityTag, String, Set<TaggedWord>> surfaceMentionMap,
+                          Map<String, GeoNamesEntry> pinnedEntries) {
         this.candidateLoader = candidateLoader;
         this.taggedWords = taggedWords;
         this.recognizedToponyms = recognizedToponyms;
         this.candidateMap = candidateMap;
         this.surfaceMentionMap = surfaceMentionMap;
+        this.pinnedEntries = pinnedEntries;
     }
 
-    private String makeKey(TaggedWord taggedWord) {
+    private static String makeKey(TaggedWord taggedWord) {
         return taggedWord.getPhrase().toLowerCase();
     }
 
     private String makeKey(GeoNamesEntry geoNamesEntry) {
-        return geoNamesEntry.getName().toLowerCase();
+        return geoNamesEntry.getLowerCaseName();
     }
 
     private ArrayListMultimap<String, GeoCandidateEntry> findCandidates() {
         ArrayListMultimap<String, GeoCandidateEntry> candidateMap = ArrayListMultimap.create();
 
+        final Map<String, TaggedWord> toponymsByKey = new LinkedHashMap<>();
         for (TaggedWord s : recognizedToponyms) {
-            if (candidateMap.containsKey(makeKey(s)))
-                continue;
+            toponymsByKey.putIfAbsent(makeKey(s), s);
+        }
+
+        if (toponymsByKey.isEmpty())
+            return candidateMap;
 
-            candidateLoader.apply(s)
+        final ListMultimap<String, GeoNamesEntry> candidates = candidateLoader.apply(toponymsByKey.values());
+        for (String key : toponymsByKey.keySet()) {
+            candidates.get(key)
                     .forEach(candidate ->
-                            candidateMap.put(makeKey(s),
+                            candidateMap.put(key,
                                     new GeoCandidateEntry(candidate, GeoNamesUtil.getGeoNamesHierarchy(candidate))));
         }
 
@@ -96,6 +149,36 @@ public class ArticleBucket {
         return this.candidateMap.get(makeKey(taggedWord));
     }
 
+    /**
+     * Pins the recognized toponyms that need no resolution, before any resolver runs on this bucket.
+     * @return the number of recognized toponyms pinned
+     */
+    public int pin(Pinning pinning) {
+        int pinnedCount = 0;
+
+        for (TaggedWord taggedWord : recognizedToponyms) {
+            final String key = makeKey(taggedWord);
+            if (!pinnedEntries.containsKey(key))
+                pinning.pin(key, getCandidates(taggedWord)).ifPresent(entry -> pinnedEntries.put(key, entry));
+
+            if (pinnedEntries.containsKey(key))
+                pinnedCount++;
+        }
+
+        return pinnedCount;
+    }
+
+    /**
+     * @return the entry the toponym is pinned to, if it is pinned
+     */
+    public Optional<GeoNamesEntry> getPinnedEntry(TaggedWord taggedWord) {
+        return Optional.ofNullable(pinnedEntries.get(makeKey(taggedWord)));
+    }
+
+    public boolean isPinned(TaggedWord taggedWord) {
+        return pinnedEntries.containsKey(makeKey(taggedWord));
+    }
+
     public Set<TaggedWord> getSurfaceMentions(String phrase) {
         return surfaceMentionMap.get(NamedEntityTag.LOCATION, phrase);
     }
@@ -105,8 +188,8 @@ public class ArticleBucket {
 
         Optional.ofNullable(surfaceMentionMap.get(NamedEntityTag.LOCATION, makeKey(geoNamesEntry))).ifPresent(mentions::addAll);
 
-        for (String altName : GeoNamesUtil.getAlternateNames(geoNamesEntry)) {
-            Optional.ofNullable(surfaceMentionMap.get(NamedEntityTag.LOCATION, altName.toLowerCase())).ifPresent(mentions::addAll);
+        for (String altName : geoNamesEntry.getLowerCaseAlternateNames()) {
+            Optional.ofNullable(surfaceMentionMap.get(NamedEntityTag.LOCATION, altName)).ifPresent(mentions::addAll);
         }
 
         return mentions;
@@ -116,7 +199,10 @@ public class ArticleBucket {
         return surfaceMentionMap;
     }
 
-    public ArrayListMultimap<String, GeoCandidateEntry> getCandidateMap() {
+    /**
+     * @return the candidates of each recognized toponym, which are shared and cannot be modified
+     */
+    public ListMultimap<String, GeoCandidateEntry> getCandidateMap() {
         return candidateMap;
     }
 
@@ -128,7 +214,7 @@ public class ArticleBucket {
         return recognizedToponyms;
     }
 
-    protected Function<TaggedWord, List<GeoNamesEntry>> getCandidateLoader() {
+    protected Function<Collection<TaggedWord>, ListMultimap<String, GeoNamesEntry>> getCandidateLoader() {
         return candidateLoader;
     }
 }
@@ -3,6 +3,10 @@ package tr.geotagging.resolution;
 import tr.Article;
 import tr.TaggedWord;
 import tr.Toponym;
+import tr.util.Config;
+import tr.util.math.MathUtil;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
 
 import java.util.List;
 
@@ -14,13 +18,47 @@ import java.util.List;
  */
 public abstract class DefaultGeoResolver<A extends ArticleBucket> implements GeoResolver {
 
+    private static final Logger logger = LogManager.getLogger(DefaultGeoResolver.class);
+
+    /**
+     * The toponyms pinned before {@link #extract(ArticleBucket)} runs
+     */
+    protected final Pinning pinning;
+
+    protected DefaultGeoResolver() {
+        this(Pinning.of(Config.Resolvers.PINNING));
+    }
+
+    protected DefaultGeoResolver(Pinning pinning) {
+        this.pinning = pinning;
+    }
+
     protected abstract A newArticleBucket(Article article, List<TaggedWord> taggedWords);
 
+    /**
+     * Resolves the toponyms of the bucket; the pinned toponyms are to be resolved to their pinned entries
+     */
     protected abstract List<Toponym> extract(A articleBucket);
 
     @Override
     public List<Toponym> resolve(Article article, List<TaggedWord> taggedWords) {
-        final A articleBucket = newArticleBucket(article, taggedWords);
+        final A articleBucket = newPinnedArticleBucket(article, taggedWords);
         return extract(articleBucket);
     }
+
+    /**
+     * Creates the bucket of the article and pins the toponyms that need no resolution
+     */
+    protected A newPinnedArticleBucket(Article article, List<TaggedWord> taggedWords) {
+        final A articleBucket = newArticleBucket(article, taggedWords);
+
+        final int pinnedCount = articleBucket.pin(pinning);
+        final int toponymCount = articleBucket.getRecognizedToponyms().size();
+        if (pinning != Pinning.NONE)
+            logger.info(String.format("[Article %s] %d of %d toponyms pinned (%.1f%%)",
+                    article.getArticleId(), pinnedCount, toponymCount,
+                    100 * MathUtil.safeDivide(pinnedCount, toponymCount)));
+
+        return articleBucket;
+    }
 }
@@ -5,6 +5,7 @@ import tr.geonames.GeoNamesLevel;
 import tr.geonames.GeoNamesUtil;
 
 import javax.annotation.Nonnull;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.NoSuchElementException;
@@ -22,7 +23,7 @@ public class GeoCandidateEntry implements Iterable<GeoNamesEntry> {
 
     GeoCandidateEntry(GeoNamesEntry geoNamesCandid, Map<GeoNamesLevel, GeoNamesEntry> hierarchyMap) {
         this.geoNamesCandid = geoNamesCandid;
-        this.hierarchyMap = hierarchyMap;
+        this.hierarchyMap = Collections.unmodifiableMap(hierarchyMap);
     }
 
     public Optional<GeoNamesEntry> getEntryAt(GeoNamesLevel level) {
@@ -41,7 +42,7 @@ public class GeoCandidateEntry implements Iterable<GeoNamesEntry> {
                 return entryAt.get();
         }
 
-        return GeoNamesUtil.EARTH;
+        return GeoNamesUtil.getEarth();
     }
 
     private Optional<GeoNamesEntry> getChildEntry(final GeoNamesLevel level) {
@@ -62,7 +63,7 @@ public class GeoCandidateEntry implements Iterable<GeoNamesEntry> {
 
     private GeoNamesEntry getRootEntry() {
         if (geoNamesCandid.getLevel() == GeoNamesLevel.COUNTRY)
-            return GeoNamesUtil.EARTH;
+            return GeoNamesUtil.getEarth();
         else {
             for (GeoNamesLevel lvl = GeoNamesLevel.EARTH; lvl != null; lvl = lvl.getChild().orElse(null)) {
                 final Optional<GeoNamesEntry> entryAt = getEntryAt(lvl);
@@ -0,0 +1,70 @@
+package tr.geotagging.resolution;
+
+import tr.geonames.GeoNamesEntry;
+import tr.geonames.GeoNamesLevel;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Which toponyms are resolved before a resolver runs. A pinned toponym keeps its entry and is not resolved again,
+ * but still serves as context for resolving the other toponyms of the article.
+ */
+public enum Pinning {
+    /**
+     * Nothing is pinned
+     */
+    NONE,
+
+    /**
+     * A toponym with a single candidate is pinned to it
+     */
+    SINGLE,
+
+    /**
+     * As {@link #SINGLE}; in addition, a toponym named exactly as a country is pinned to the country,
+     * and otherwise a toponym named exactly as a single first-level division is pinned to the division
+     */
+    NAMES;
+
+    /**
+     * @param name the name of a pinning, regardless of case, as in the config file
+     */
+    public static Pinning of(String name) {
+        return valueOf(name.trim().toUpperCase());
+    }
+
+    /**
+     * @param toponymKey the lower-cased phrase of the toponym
+     * @return the entry the toponym is pinned to, if any
+     */
+    Optional<GeoNamesEntry> pin(String toponymKey, List<GeoCandidateEntry> candidates) {
+        if (this == NONE || candidates.isEmpty())
+            return Optional.empty();
+
+        if (candidates.size() == 1)
+            return Optional.of(candidates.get(0).getGeoNamesCandid());
+
+        if (this == SINGLE)
+            return Optional.empty();
+
+        GeoNamesEntry admin1 = null;
+        int admin1Count = 0;
+
+        for (GeoCandidateEntry candidateEntry : candidates) {
+            final GeoNamesEntry candidate = candidateEntry.getGeoNamesCandid();
+            if (!toponymKey.equals(candidate.getLowerCaseName()))
+                continue;
+
+            if (candidate.getLevel() == GeoNamesLevel.COUNTRY)
+                return Optional.of(candidate);
+
+            if (candidate.getLevel() == GeoNamesLevel.ADMIN1) {
+                admin1 = candidate;
+                admin1Count++;
+            }
+        }
+
+        return admin1Count == 1 ? Optional.of(admin1) : Optional.empty();
+    }
+}
@@ -1,11 +1,6 @@
 package tr.geotagging.resolution.contextbound;
 
-import tr.TaggedWord;
 import tr.geonames.GeoNamesLevel;
-import tr.geotagging.resolution.GeoCandidateEntry;
-import com.google.common.collect.Table;
-
-import java.util.List;
 
 /**
  * Implementation of the following paper (section 3.2: location disambiguation):
@@ -27,8 +22,8 @@ public class ContextBoundInhHypothesisResolver extends ContextBoundResolver {
     }
 
     @Override
-    protected double calcKLDivergence(GeoNamesLevel level, TaggedWord taggedWord, Table<String, GeoCandidateEntry, Double> nearProbModel, List<GeoCandidateEntry> candidateEntries) {
-        return Math.log(candidateEntries.size());
+    protected double calcKLDivergence(GeoNamesLevel level, ContextBoundModel model, int phrase) {
+        return Math.log(model.getCandidates(phrase).size());
     }
 
     @Override
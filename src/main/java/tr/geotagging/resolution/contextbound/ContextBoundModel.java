@@ -0,0 +1,188 @@
+package tr.geotagging.resolution.contextbound;
+
+import com.google.common.collect.SetMultimap;
+import tr.TaggedWord;
+import tr.geonames.GeoNamesEntry;
+import tr.geonames.GeoNamesLevel;
+import tr.geotagging.resolution.ArticleBucket;
+import tr.geotagging.resolution.GeoCandidateEntry;
+
+import java.util.*;
+
+/**
+ * The near and inherit probabilities of the candidates of an article at one level.
+ * <p>
+ * Distinct phrases and their candidates are numbered once per article, and the probabilities are kept in
+ * flat arrays indexed by <code>offset of the phrase + position of the candidate</code>, which are overwritten
+ * for each level and iteration. The recognized toponyms and candidates of an article are shared by all buckets
+ * cloned from the same article, so the numbering holds across iterations.
+ * </p>
+ */
+class ContextBoundModel {
+    private final List<String> phrases = new ArrayList<>();
+    private final List<List<GeoCandidateEntry>> candidates = new ArrayList<>();
+
+    /**
+     * Phrase of each recognized toponym, in the order of {@link ArticleBucket#getRecognizedToponyms()}
+     */
+    private final int[] toponymPhrases;
+
+    /**
+     * First and last recognized toponym of each phrase
+     */
+    private final int[] firstToponyms, lastToponyms;
+
+    /**
+     * Entry of each pinned phrase, whose probabilities are never computed
+     */
+    private final GeoNamesEntry[] pinnedEntries;
+    private final BitSet pinnedPhrases = new BitSet();
+
+    private final int[] offsets;
+    private final double[] nearProbs;
+    private final double[] inheritProbs;
+
+    ContextBoundModel(ArticleBucket articleBucket) {
+        final List<TaggedWord> recognizedToponyms = articleBucket.getRecognizedToponyms();
+        final Map<String, Integer> phraseIndexes = new HashMap<>();
+
+        toponymPhrases = new int[recognizedToponyms.size()];
+        final List<Integer> firsts = new ArrayList<>();
+
+        for (int t = 0; t < recognizedToponyms.size(); t++) {
+            final TaggedWord taggedWord = recognizedToponyms.get(t);
+            final String phrase = taggedWord.getPhrase().toLowerCase();
+
+            Integer p = phraseIndexes.get(phrase);
+            if (p == null) {
+                p = phrases.size();
+                phraseIndexes.put(phrase, p);
+                phrases.add(phrase);
+                candidates.add(articleBucket.getCandidates(taggedWord));
+                firsts.add(t);
+            }
+
+            toponymPhrases[t] = p;
+        }
+
+        firstToponyms = new int[phrases.size()];
+        lastToponyms = new int[phrases.size()];
+        for (int p = 0; p < phrases.size(); p++)
+            firstToponyms[p] = firsts.get(p);
+        for (int t = 0; t < toponymPhrases.length; t++)
+            lastToponyms[toponymPhrases[t]] = t;
+
+        pinnedEntries = new GeoNamesEntry[phrases.size()];
+        for (int p = 0; p < phrases.size(); p++) {
+            final Optional<GeoNamesEntry> pinnedEntry = articleBucket.getPinnedEntry(recognizedToponyms.get(firstToponyms[p]));
+            if (pinnedEntry.isPresent()) {
+                pinnedEntries[p] = pinnedEntry.get();
+                pinnedPhrases.set(p);
+            }
+        }
+
+        offsets = new int[phrases.size() + 1];
+        for (int p = 0; p < phrases.size(); p++)
+            offsets[p + 1] = offsets[p] + candidates.get(p).size();
+
+        nearProbs = new double[offsets[phrases.size()]];
+        inheritProbs = new double[offsets[phrases.size()]];
+    }
+
+    int getPhraseCount() {
+        return phrases.size();
+    }
+
+    BitSet getAllPhrases() {
+        final BitSet allPhrases = new BitSet(phrases.size());
+        allPhrases.set(0, phrases.size());
+        return allPhrases;
+    }
+
+    /**
+     * The models of a phrase at a level read the indirect mentions of the entries of its candidates at that level.
+     * @param changedNames levels and names whose indirect mentions have changed
+     * @return phrases whose models at the given level have to be computed again
+     */
+    BitSet findDependentPhrases(GeoNamesLevel level, SetMultimap<GeoNamesLevel, String> changedNames) {
+        final BitSet dependentPhrases = new BitSet(phrases.size());
+
+        for (int p = 0; p < phrases.size(); p++) {
+            for (GeoCandidateEntry candidate : candidates.get(p)) {
+                final Optional<GeoNamesEntry> entry = candidate.getEntryAt(level);
+                if (entry.isPresent() && dependsOn(entry.get(), changedNames)) {
+                    dependentPhrases.set(p);
+                    break;
+                }
+            }
+        }
+
+        return dependentPhrases;
+    }
+
+    private static boolean dependsOn(GeoNamesEntry entry, SetMultimap<GeoNamesLevel, String> changedNames) {
+        final Set<String> names = changedNames.get(entry.getLevel());
+        if (names.isEmpty())
+            return false;
+
+        if (names.contains(entry.getLowerCaseName()))
+            return true;
+
+        for (String altName : entry.getLowerCaseAlternateNames()) {
+            if (names.contains(altName))
+                return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * @return the pinned phrases, which must not be modified
+     */
+    BitSet getPinnedPhrases() {
+        return pinnedPhrases;
+    }
+
+    /**
+     * @return the entry the phrase is pinned to, or null
+     */
+    GeoNamesEntry getPinnedEntry(int phrase) {
+        return pinnedEntries[phrase];
+    }
+
+    int getPhraseOf(int toponym) {
+        return toponymPhrases[toponym];
+    }
+
+    String getPhrase(int phrase) {
+        return phrases.get(phrase);
+    }
+
+    List<GeoCandidateEntry> getCandidates(int phrase) {
+        return candidates.get(phrase);
+    }
+
+    int getFirstToponym(int phrase) {
+        return firstToponyms[phrase];
+    }
+
+    int getLastToponym(int phrase) {
+        return lastToponyms[phrase];
+    }
+
+    double getNearProb(int phrase, int candidate) {
+        return nearProbs[offsets[phrase] + candidate];
+    }
+
+    void setNearProb(int phrase, int candidate, double nearProb) {
+        nearProbs[offsets[phrase] + candidate] = nearProb;
+    }
+
+    double getInheritProb(int phrase, int candidate) {
+        return inheritProbs[offsets[phrase] + candidate];
+    }
+
+    void setInheritProb(int phrase, int candidate, double inheritProb) {
+        inheritProbs[offsets[phrase] + candidate] = inheritProb;
+    }
+}
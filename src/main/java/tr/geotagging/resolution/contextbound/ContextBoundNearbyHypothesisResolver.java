@@ -1,11 +1,6 @@
 package tr.geotagging.resolution.contextbound;
 
-import tr.TaggedWord;
 import tr.geonames.GeoNamesLevel;
-import tr.geotagging.resolution.GeoCandidateEntry;
-import com.google.common.collect.Table;
-
-import java.util.List;
 
 /**
  * Implementation of the following paper (section 3.2: location disambiguation):
@@ -27,7 +22,7 @@ public class ContextBoundNearbyHypothesisResolver extends ContextBoundResolver {
     }
 
     @Override
-    protected double calcKLDivergence(GeoNamesLevel level, TaggedWord taggedWord, Table<String, GeoCandidateEntry, Double> nearProbModel, List<GeoCandidateEntry> candidateEntries) {
+    protected double calcKLDivergence(GeoNamesLevel level, ContextBoundModel model, int phrase) {
         return 0;
     }
 
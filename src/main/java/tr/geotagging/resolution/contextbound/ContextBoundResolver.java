@@ -1,28 +1,27 @@
 package tr.geotagging.resolution.contextbound;
 
 import tr.Article;
-import tr.NamedEntityTag;
 import tr.TaggedWord;
 import tr.Toponym;
 import tr.geonames.GeoNamesEntry;
 import tr.geonames.GeoNamesLevel;
-import tr.geonames.GeoNamesUtil;
 import tr.geotagging.resolution.ArticleBucket;
 import tr.geotagging.resolution.DefaultGeoResolver;
 import tr.geotagging.resolution.GeoCandidateEntry;
+import tr.geotagging.resolution.Pinning;
 import tr.util.Config;
 import tr.util.DistanceFunction;
 import tr.util.math.MathUtil;
-import tr.util.math.statistics.SummaryStat;
 import tr.util.tuple.Tuple2;
-import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Table;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.*;
-import java.util.function.Function;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -38,17 +37,40 @@ import java.util.stream.Stream;
  */
 public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolver.YRArticleBucket> {
     protected final int k;
-    private final DistanceFunction<TaggedWord> dm = new IndexDistanceFunction();
+    private final int maxIterations;
+    private final boolean incremental;
 
     private final Logger logger = LogManager.getLogger(getClass());
 
 
-    ContextBoundResolver(int k) {
+    public ContextBoundResolver(int k) {
+        this(k, Config.CBH.MAX_ITERATIONS, Config.CBH.INCREMENTAL);
+    }
+
+    /**
+     * @param incremental whether iterations after the first one update the indirect mentions of the revised toponyms
+     *                    and rescore only the phrases depending on them, rather than starting over with a new bucket
+     */
+    ContextBoundResolver(int k, int maxIterations, boolean incremental) {
+        this(k, maxIterations, incremental, Pinning.of(Config.Resolvers.PINNING));
+    }
+
+    ContextBoundResolver(int k, int maxIterations, boolean incremental, Pinning pinning) {
+        super(pinning);
         this.k = k;
+        this.maxIterations = maxIterations;
+        this.incremental = incremental;
     }
 
     public ContextBoundResolver() {
-        this(Integer.MAX_VALUE);
+        this(Config.Resolvers.CANDIDATE_BUDGET);
+    }
+
+    /**
+     * @return the most populated candidates kept per toponym
+     */
+    public int getCandidateBudget() {
+        return k;
     }
 
     @Override
@@ -56,6 +78,14 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
         return new YRArticleBucket(taggedWords);
     }
 
+    /**
+     * Resolves the toponyms of an article whose candidates have already been loaded, e.g. by another resolver.
+     * The given bucket is left as it is and should hold at most {@link #k} candidates per toponym.
+     */
+    public List<Toponym> resolve(ArticleBucket articleBucket) {
+        return extract(new YRArticleBucket(articleBucket));
+    }
+
     @Override
     protected List<Toponym> extract(YRArticleBucket articleBucket) {
         final Map<TaggedWord, Toponym> disambiguatedMap = disambiguateLocations(articleBucket);
@@ -69,33 +99,61 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
         final Map<TaggedWord, List<Toponym>> geotags = new HashMap<>();
 
         YRArticleBucket bucket = articleBucket;
+        final ContextBoundModel model = new ContextBoundModel(articleBucket);
+        final List<TaggedWord> recognizedToponyms = articleBucket.getRecognizedToponyms();
+        final GeoNamesLevel[] levels = GeoNamesLevel.getHierarchyLevels();
+
+        // the toponym selected for each recognized toponym at each level, kept for the phrases that are not rescored
+        final Toponym[][] selections = incremental ? new Toponym[levels.length][recognizedToponyms.size()] : null;
+        SetMultimap<GeoNamesLevel, String> changedNames = null;
 
         int revisedCount = 0;
-        for (int i = 1; i <= Config.CBH.MAX_ITERATIONS; i++) {
-            for (GeoNamesLevel level : GeoNamesLevel.getHierarchyLevels()) {
+        for (int i = 1; i <= maxIterations; i++) {
+            for (int l = 0; l < levels.length; l++) {
+                final GeoNamesLevel level = levels[l];
+                final BitSet phrases = changedNames == null ? model.getAllPhrases() : model.findDependentPhrases(level, changedNames);
+                phrases.andNot(model.getPinnedPhrases());
+
+                if (changedNames != null)
+                    logger.debug("At {} - {} of {} phrases rescored at {}", i, phrases.cardinality(), model.getPhraseCount(), level);
 
-                final Table<String, Long, Double> inheritProbModel = calcInheritProbModel(level, bucket);
-                final Table<String, GeoCandidateEntry, Double> nearProbModel = calcNearProbModel(level, bucket);
+                calcInheritProbModel(level, bucket, model, phrases);
+                calcNearProbModel(level, bucket, model, phrases);
 
-                for (TaggedWord taggedWord : bucket.getRecognizedToponyms()) {
+                for (int t = 0; t < recognizedToponyms.size(); t++) {
+                    final TaggedWord taggedWord = recognizedToponyms.get(t);
+                    final int phrase = model.getPhraseOf(t);
 
-                    final List<GeoCandidateEntry> candidateEntries = bucket.getCandidates(taggedWord);
+                    final GeoNamesEntry pinnedEntry = model.getPinnedEntry(phrase);
+                    if (pinnedEntry != null) {
+                        geotags.put(taggedWord, Stream.of(new Toponym(taggedWord, pinnedEntry, 1D)).collect(Collectors.toList()));
+                        continue;
+                    }
+
+                    if (!phrases.get(phrase)) {
+                        final Toponym previous = selections[l][t];
+                        if (previous != null)
+                            geotags.put(taggedWord, Stream.of(previous).collect(Collectors.toList()));
+                        continue;
+                    }
+
+                    final List<GeoCandidateEntry> candidateEntries = model.getCandidates(phrase);
 
                     Tuple2<Double, List<GeoNamesEntry>> selected = new Tuple2<>(0D, new ArrayList<>());
 
                     if (candidateEntries.size() == 1) {
                         selected = new Tuple2<>(1D, Stream.of(candidateEntries.get(0).getGeoNamesCandid()).collect(Collectors.toList()));
                     } else {
-                        final double H = calcKLDivergence(level, taggedWord, nearProbModel, candidateEntries);
+                        final double H = calcKLDivergence(level, model, phrase);
 
-                        for (GeoCandidateEntry candidateEntry : candidateEntries) {
-                            final Optional<GeoNamesEntry> constituentTerm = candidateEntry.getEntryAt(level);
-                            if (!constituentTerm.isPresent())
+                        for (int c = 0; c < candidateEntries.size(); c++) {
+                            final GeoCandidateEntry candidateEntry = candidateEntries.get(c);
+                            if (!candidateEntry.getEntryAt(level).isPresent())
                                 continue;
 
                             double J = 1 - H / Math.log(candidateEntries.size());
-                            double Ph = inheritProbModel.get(taggedWord.getPhrase().toLowerCase(), constituentTerm.get().getGeonameId());
-                            double Pn = nearProbModel.get(taggedWord.getPhrase().toLowerCase(), candidateEntry);
+                            double Ph = model.getInheritProb(phrase, c);
+                            double Pn = model.getNearProb(phrase, c);
                             double p = J * Pn + (1 - J) * Ph;
                             if (selected.get_1() < p) {
                                 selected = new Tuple2<>(p, Stream.of(candidateEntry.getGeoNamesCandid()).collect(Collectors.toList()));
@@ -105,14 +163,19 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
                         }
                     }
 
+                    Toponym selectedToponym = null;
                     if (!selected.get_2().isEmpty()) {
                         final Double score = selected.get_1();
-                        geotags.put(taggedWord, selected.get_2().stream()
+                        selectedToponym = selected.get_2().stream()
                                 .sorted(Comparator.comparingLong(GeoNamesEntry::getPopulation).reversed())
                                 .findFirst()
-                                .map(ge -> Stream.of(new Toponym(taggedWord, ge, score)).collect(Collectors.toList()))
-                                .get());
+                                .map(ge -> new Toponym(taggedWord, ge, score))
+                                .get();
+                        geotags.put(taggedWord, Stream.of(selectedToponym).collect(Collectors.toList()));
                     }
+
+                    if (selections != null)
+                        selections[l][t] = selectedToponym;
                 }
             }
 
@@ -140,11 +203,15 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
             else
                 logger.info("At {} - {} of {} revised", i, changedList.size(), geotags.size());
 
-            bucket = bucket.clone();
-
             final Map<TaggedWord, Toponym> newDisambiguatedMap = new HashMap<>();
             geotags.forEach((taggedWord, estimatedTopos) -> newDisambiguatedMap.put(taggedWord, estimatedTopos.get(0)));
-            bucket.setDisambiguatedMap(newDisambiguatedMap);
+
+            if (incremental) {
+                changedNames = bucket.updateDisambiguatedMap(newDisambiguatedMap);
+            } else {
+                bucket = bucket.clone();
+                bucket.setDisambiguatedMap(newDisambiguatedMap);
+            }
         }
 
         if (revisedCount > 0)
@@ -153,68 +220,74 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
         return geotags.values().stream().flatMap(List::stream).collect(Collectors.toList());
     }
 
-    protected double calcKLDivergence(GeoNamesLevel level, TaggedWord taggedWord, Table<String, GeoCandidateEntry, Double> nearProbModel, List<GeoCandidateEntry> candidateEntries) {
-        return candidateEntries.stream()
-                .filter(candidateEntry -> candidateEntry.getHierarchyMap().containsKey(level))
-                .mapToDouble(candidateEntry -> nearProbModel.get(taggedWord.getPhrase().toLowerCase(), candidateEntry))
-                .filter(Pn -> Pn != 0)
-                .reduce(0.0, (result, Pn) -> result - Pn * Math.log(Pn));
-    }
-
-    private Table<String, GeoCandidateEntry, Double> calcNearProbModel(GeoNamesLevel geoNamesLevel, YRArticleBucket articleBucket) {
-
-        Table<String, GeoCandidateEntry, Double> nearProbModel = HashBasedTable.create();
+    protected double calcKLDivergence(GeoNamesLevel level, ContextBoundModel model, int phrase) {
+        final List<GeoCandidateEntry> candidateEntries = model.getCandidates(phrase);
 
-        for (TaggedWord taggedWord : articleBucket.getRecognizedToponyms()) {
-
-            if (nearProbModel.containsRow(taggedWord.getPhrase().toLowerCase()))
+        double H = 0.0;
+        for (int c = 0; c < candidateEntries.size(); c++) {
+            if (!candidateEntries.get(c).getHierarchyMap().containsKey(level))
                 continue;
 
-            final List<GeoCandidateEntry> candidates = articleBucket.getCandidates(taggedWord);
-            SummaryStat inverseDEStat = new SummaryStat();
+            final double Pn = model.getNearProb(phrase, c);
+            if (Pn != 0)
+                H = H - Pn * Math.log(Pn);
+        }
+
+        return H;
+    }
 
-            for (GeoCandidateEntry candidate : candidates) {
-                final Optional<GeoNamesEntry> geoNamesEntry = candidate.getEntryAt(geoNamesLevel);
-                if (!geoNamesEntry.isPresent())
-                    continue;
+    void calcNearProbModel(GeoNamesLevel geoNamesLevel, YRArticleBucket articleBucket, ContextBoundModel model) {
+        calcNearProbModel(geoNamesLevel, articleBucket, model, model.getAllPhrases());
+    }
 
-                final Set<TaggedWord> allMentions = articleBucket.getSurfaceAndIndirectMentions(geoNamesEntry.get());
+    /**
+     * Fills in the near probabilities of the given phrases at the given level, computed once per phrase
+     */
+    private void calcNearProbModel(GeoNamesLevel geoNamesLevel, YRArticleBucket articleBucket, ContextBoundModel model, BitSet phrases) {
 
-                SummaryStat DEStat = new SummaryStat();
+        for (int p = phrases.nextSetBit(0); p >= 0; p = phrases.nextSetBit(p + 1)) {
 
-                for (TaggedWord mi : articleBucket.getSurfaceMentions(taggedWord.getPhrase().toLowerCase())) {
-                    for (TaggedWord mj : allMentions) {
-                        if (mj.equals(mi))
-                            continue;
+            final List<GeoCandidateEntry> candidates = model.getCandidates(p);
+            final MentionPositions surfacePositions = articleBucket.getSurfacePositions(model.getPhrase(p));
+            double inverseDESum = 0;
 
-                        DEStat.accept(dm.applyAsDouble(mi, mj));
-                    }
+            for (int c = 0; c < candidates.size(); c++) {
+                final Optional<GeoNamesEntry> geoNamesEntry = candidates.get(c).getEntryAt(geoNamesLevel);
+                if (!geoNamesEntry.isPresent()) {
+                    model.setNearProb(p, c, 0);
+                    continue;
                 }
 
-                final double inverseDE = DEStat.getCount() > 0 ? (1.0 / DEStat.getMin()) : 0;
-                inverseDEStat.accept(inverseDE);
-                nearProbModel.put(taggedWord.getPhrase().toLowerCase(), candidate, inverseDE);
-            }
+                final int minDE = articleBucket.getSurfaceAndIndirectPositions(geoNamesEntry.get()).minDistance(surfacePositions);
 
-            for (GeoCandidateEntry candidate : candidates) {
-                final Double inverseDE = Optional.ofNullable(nearProbModel.get(taggedWord.getPhrase().toLowerCase(), candidate)).orElse(0D);
-                nearProbModel.put(taggedWord.getPhrase().toLowerCase(), candidate, MathUtil.safeDivide(inverseDE, inverseDEStat.getSum()));
+                final double inverseDE = minDE != MentionPositions.NOT_FOUND ? (1.0 / minDE) : 0;
+                inverseDESum += inverseDE;
+                model.setNearProb(p, c, inverseDE);
             }
-        }
 
-        return nearProbModel;
+            for (int c = 0; c < candidates.size(); c++)
+                model.setNearProb(p, c, MathUtil.safeDivide(model.getNearProb(p, c), inverseDESum));
+        }
     }
 
-    private Map<TaggedWord, Toponym> disambiguateLocations(final YRArticleBucket articleBucket) {
+    Map<TaggedWord, Toponym> disambiguateLocations(final YRArticleBucket articleBucket) {
         final Map<TaggedWord, Toponym> disambiguatedMap = new HashMap<>();
 
         final Map<String, Collection<GeoCandidateEntry>> flatCandidateMap = articleBucket.getCandidateMap().asMap();
 
         for (Map.Entry<String, Collection<GeoCandidateEntry>> flatEntry : flatCandidateMap.entrySet()) {
             final Set<TaggedWord> MS = articleBucket.getSurfaceMentions(flatEntry.getKey());
+            final MentionPositions surfacePositions = articleBucket.getSurfacePositions(flatEntry.getKey());
 
             final Collection<GeoCandidateEntry> candidateEntries = flatEntry.getValue();
 
+            final Optional<GeoNamesEntry> pinnedEntry = MS.stream().findFirst().flatMap(articleBucket::getPinnedEntry);
+            if (pinnedEntry.isPresent()) {
+                for (TaggedWord word : MS)
+                    disambiguatedMap.put(word, new Toponym(word, pinnedEntry.get()));
+                continue;
+            }
+
             if (candidateEntries.size() == 1) {
                 for (TaggedWord word : MS) {
                     candidateEntries
@@ -238,17 +311,13 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
                     final Set<TaggedWord> MC = articleBucket.getSurfaceMentions(c);
 
                     for (TaggedWord mc : MC) {
-                        double score = 0;
-                        for (TaggedWord ms : MS) {
-                            if (ms.equals(mc))
+                        // all the mentions in MS share the same phrase, regardless of case
+                        if (c.getLevel() != GeoNamesLevel.COUNTRY && c.getLevel() != GeoNamesLevel.CONTINENT)
+                            if (MS.stream().findFirst().filter(ms -> ms.getPhrase().equalsIgnoreCase(mc.getPhrase())).isPresent())
                                 continue;
 
-                            if (c.getLevel() != GeoNamesLevel.COUNTRY && c.getLevel() != GeoNamesLevel.CONTINENT)
-                                if  (ms.getPhrase().equalsIgnoreCase(mc.getPhrase()))
-                                    continue;
-
-                            score = Math.max(score, 1.0 / dm.applyAsDouble(mc, ms));
-                        }
+                        final int distance = surfacePositions.minDistance(mc);
+                        final double score = distance != MentionPositions.NOT_FOUND ? 1.0 / distance : 0;
 
                         confidence += score;
                     }
@@ -278,16 +347,27 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
         return disambiguatedMap;
     }
 
-    private Table<String, Long, Double> calcInheritProbModel(GeoNamesLevel geoNamesLevel, YRArticleBucket articleBucket) {
+    void calcInheritProbModel(GeoNamesLevel geoNamesLevel, YRArticleBucket articleBucket, ContextBoundModel model) {
+        calcInheritProbModel(geoNamesLevel, articleBucket, model, model.getAllPhrases());
+    }
 
-        Table<String, Long, Double> inheritModel = HashBasedTable.create();
+    /**
+     * Fills in the inherit probabilities of the given phrases at the given level. A phrase takes the frequencies
+     * as seen from its last mention, excluding the mention itself.
+     */
+    private void calcInheritProbModel(GeoNamesLevel geoNamesLevel, YRArticleBucket articleBucket, ContextBoundModel model, BitSet phrases) {
 
-        for (TaggedWord taggedWord : articleBucket.getRecognizedToponyms()) {
+        final Map<Long, Long> freqMap = new HashMap<>();
+
+        for (int p = phrases.nextSetBit(0); p >= 0; p = phrases.nextSetBit(p + 1)) {
+
+            final TaggedWord taggedWord = articleBucket.getRecognizedToponyms().get(model.getLastToponym(p));
+            final List<GeoCandidateEntry> candidates = model.getCandidates(p);
 
             LongSummaryStatistics totalStats = new LongSummaryStatistics();
-            final Map<Long, Long> freqMap = new HashMap<>();
+            freqMap.clear();
 
-            for (GeoCandidateEntry candidateEntry : articleBucket.getCandidates(taggedWord)) {
+            for (GeoCandidateEntry candidateEntry : candidates) {
                 final Optional<GeoNamesEntry> constituency = candidateEntry.getEntryAt(geoNamesLevel);
 
                 if (!constituency.isPresent())
@@ -296,21 +376,25 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
                 if (freqMap.containsKey(constituency.get().getGeonameId()))
                     continue;
 
-                final Set<TaggedWord> allMentions = articleBucket.getSurfaceAndIndirectMentions(constituency.get());
-                allMentions.removeIf(w -> w.equals(taggedWord));
+                final BitSet allMentions = articleBucket.getSurfaceAndIndirectMentionBits(constituency.get());
 
-                final long tf = allMentions.size();
+                final long tf = allMentions.cardinality() - (articleBucket.hasMention(allMentions, taggedWord) ? 1 : 0);
                 freqMap.put(constituency.get().getGeonameId(), tf);
 
                 totalStats.accept(tf);
             }
 
-            freqMap.forEach((constituentId, tf) ->
-                    inheritModel.put(taggedWord.getPhrase().toLowerCase(), constituentId,
-                            MathUtil.safeDivide(tf, totalStats.getSum())));
-        }
+            for (int c = 0; c < candidates.size(); c++) {
+                final Optional<GeoNamesEntry> constituency = candidates.get(c).getEntryAt(geoNamesLevel);
+                if (!constituency.isPresent()) {
+                    model.setInheritProb(p, c, 0);
+                    continue;
+                }
 
-        return inheritModel;
+                final long tf = freqMap.get(constituency.get().getGeonameId());
+                model.setInheritProb(p, c, MathUtil.safeDivide(tf, totalStats.getSum()));
+            }
+        }
     }
 
     @Override
@@ -319,19 +403,26 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
     }
 
     class YRArticleBucket extends ArticleBucket implements Cloneable {
-        private final Table<GeoNamesLevel, String, Set<TaggedWord>> indirectMentionTable = HashBasedTable.create();
+        private final MentionIndex mentionIndex;
+        private final Table<GeoNamesLevel, String, BitSet> indirectMentionTable = HashBasedTable.create();
+        private final Map<String, MentionPositions> surfacePositions = new HashMap<>();
+        private final Map<Long, BitSet> surfaceAndIndirectMentions = new HashMap<>();
+        private final Map<Long, MentionPositions> surfaceAndIndirectPositions = new HashMap<>();
         Map<TaggedWord, Toponym> disambiguatedMap;
 
         YRArticleBucket(List<TaggedWord> taggedWords) {
             super(k, taggedWords);
+            this.mentionIndex = new MentionIndex(this);
         }
 
-        private YRArticleBucket(Function<TaggedWord, List<GeoNamesEntry>> candidateLoader,
-                                List<TaggedWord> taggedWords,
-                                List<TaggedWord> recognizedToponyms,
-                                ArrayListMultimap<String, GeoCandidateEntry> candidateMap,
-                                Table<NamedEntityTag, String, Set<TaggedWord>> surfaceMentionMap) {
-            super(candidateLoader, taggedWords, recognizedToponyms, candidateMap, surfaceMentionMap);
+        YRArticleBucket(ArticleBucket articleBucket) {
+            super(articleBucket);
+            this.mentionIndex = new MentionIndex(this);
+        }
+
+        private YRArticleBucket(ArticleBucket articleBucket, MentionIndex mentionIndex) {
+            super(articleBucket);
+            this.mentionIndex = mentionIndex;
         }
 
         void setDisambiguatedMap(Map<TaggedWord, Toponym> disambiguatedMap) {
@@ -345,30 +436,119 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
             }
         }
 
+        /**
+         * Replaces the disambiguated map, moving the indirect mentions of only the toponyms whose entry has changed.
+         * The indirect mentions end up the same as those of a new bucket given the new map.
+         * @return the levels and names whose indirect mentions may have changed
+         */
+        SetMultimap<GeoNamesLevel, String> updateDisambiguatedMap(Map<TaggedWord, Toponym> newDisambiguatedMap) {
+            final SetMultimap<GeoNamesLevel, String> changedNames = HashMultimap.create();
+
+            disambiguatedMap.forEach((taggedWord, toponym) -> {
+                final Toponym newToponym = newDisambiguatedMap.get(taggedWord);
+                if (newToponym == null || !Objects.equals(newToponym.getGeonameId(), toponym.getGeonameId()))
+                    forEachIndirectName(toponym, getCandidates(taggedWord), (level, geoName) -> {
+                        removeFromIndirectTable(level, geoName, taggedWord);
+                        changedNames.put(level, geoName);
+                    });
+            });
+
+            newDisambiguatedMap.forEach((taggedWord, newToponym) -> {
+                final Toponym toponym = disambiguatedMap.get(taggedWord);
+                if (toponym == null || !Objects.equals(newToponym.getGeonameId(), toponym.getGeonameId()))
+                    forEachIndirectName(newToponym, getCandidates(taggedWord), (level, geoName) -> {
+                        addToIndirectTable(level, geoName, taggedWord);
+                        changedNames.put(level, geoName);
+                    });
+            });
+
+            this.disambiguatedMap = newDisambiguatedMap;
+            return changedNames;
+        }
+
         Set<TaggedWord> getSurfaceAndIndirectMentions(GeoNamesEntry geoNamesEntry) {
-            return Stream.concat(
-                    Stream.concat(Stream.of(geoNamesEntry.getName()), GeoNamesUtil.getAlternateNames(geoNamesEntry).stream())
-                            .flatMap(geoName ->
-                                    Optional.ofNullable(indirectMentionTable.get(geoNamesEntry.getLevel(), geoName.toLowerCase()))
-                                            .orElse(Collections.emptySet())
-                                            .stream()),
-                    getSurfaceMentions(geoNamesEntry).stream())
-                    .collect(Collectors.toSet());
+            return mentionIndex.toSet(getSurfaceAndIndirectMentionBits(geoNamesEntry));
         }
 
-        private void addToIndirectTable(GeoNamesEntry geoNamesEntry, TaggedWord mention) {
-            Stream.concat(Stream.of(geoNamesEntry.getName()), GeoNamesUtil.getAlternateNames(geoNamesEntry).stream())
-                    .forEach(geoName -> {
-                        Set<TaggedWord> mentions = indirectMentionTable.get(geoNamesEntry.getLevel(), geoName.toLowerCase());
+        /**
+         * Surface and indirect mentions of the entry as numbers of the {@link MentionIndex} of the article,
+         * kept until the indirect mentions change. The returned bitset must not be modified.
+         */
+        BitSet getSurfaceAndIndirectMentionBits(GeoNamesEntry geoNamesEntry) {
+            BitSet mentions = surfaceAndIndirectMentions.get(geoNamesEntry.getGeonameId());
+            if (mentions == null) {
+                final BitSet allMentions = (BitSet) mentionIndex.getSurfaceMentions(geoNamesEntry).clone();
+                forEachName(geoNamesEntry, (level, geoName) -> {
+                    final BitSet indirectMentions = indirectMentionTable.get(level, geoName);
+                    if (indirectMentions != null)
+                        allMentions.or(indirectMentions);
+                });
+
+                surfaceAndIndirectMentions.put(geoNamesEntry.getGeonameId(), mentions = allMentions);
+            }
 
-                        if (mentions == null)
-                            indirectMentionTable.put(geoNamesEntry.getLevel(), geoName.toLowerCase(), mentions = new HashSet<>());
+            return mentions;
+        }
 
-                        mentions.add(mention);
-                    });
+        /**
+         * @return whether the given mention is among the given mention numbers
+         */
+        boolean hasMention(BitSet mentions, TaggedWord mention) {
+            return mentions.get(mentionIndex.numberOf(mention));
+        }
+
+        MentionPositions getSurfacePositions(String phrase) {
+            return surfacePositions.computeIfAbsent(phrase,
+                    p -> new MentionPositions(Optional.ofNullable(getSurfaceMentions(p)).orElse(Collections.emptySet())));
+        }
+
+        /**
+         * Positions of {@link #getSurfaceAndIndirectMentions(GeoNamesEntry)}, kept until the indirect mentions change
+         */
+        MentionPositions getSurfaceAndIndirectPositions(GeoNamesEntry geoNamesEntry) {
+            return surfaceAndIndirectPositions.computeIfAbsent(geoNamesEntry.getGeonameId(),
+                    id -> new MentionPositions(mentionIndex.toArray(getSurfaceAndIndirectMentionBits(geoNamesEntry))));
+        }
+
+        private void forEachName(GeoNamesEntry geoNamesEntry, BiConsumer<GeoNamesLevel, String> consumer) {
+            consumer.accept(geoNamesEntry.getLevel(), geoNamesEntry.getLowerCaseName());
+            for (String altName : geoNamesEntry.getLowerCaseAlternateNames()) {
+                consumer.accept(geoNamesEntry.getLevel(), altName);
+            }
+        }
+
+        private void indirectMentionsChanged() {
+            surfaceAndIndirectMentions.clear();
+            surfaceAndIndirectPositions.clear();
+        }
+
+        private void addToIndirectTable(GeoNamesLevel level, String geoName, TaggedWord mention) {
+            indirectMentionsChanged();
+
+            BitSet mentions = indirectMentionTable.get(level, geoName);
+
+            if (mentions == null)
+                indirectMentionTable.put(level, geoName, mentions = new BitSet());
+
+            mentions.set(mentionIndex.numberOf(mention));
+        }
+
+        private void removeFromIndirectTable(GeoNamesLevel level, String geoName, TaggedWord mention) {
+            indirectMentionsChanged();
+
+            final BitSet mentions = indirectMentionTable.get(level, geoName);
+            if (mentions != null)
+                mentions.clear(mentionIndex.numberOf(mention));
         }
 
         void addIndirect(TaggedWord taggedWord, Toponym toponym, List<GeoCandidateEntry> candidateEntries) {
+            forEachIndirectName(toponym, candidateEntries, (level, geoName) -> addToIndirectTable(level, geoName, taggedWord));
+        }
+
+        /**
+         * Goes through the levels and names under which a mention resolved to the given toponym is indirectly mentioned
+         */
+        private void forEachIndirectName(Toponym toponym, List<GeoCandidateEntry> candidateEntries, BiConsumer<GeoNamesLevel, String> consumer) {
             candidateEntries
                     .stream()
                     .filter(c -> c.getGeoNamesCandid().getGeonameId().equals(toponym.getGeonameId()))
@@ -376,18 +556,18 @@ public class ContextBoundResolver extends DefaultGeoResolver<ContextBoundResolve
                     .ifPresent(candidateEntry -> {
 
                         if (GeoNamesLevel.isHierarchyLevel(candidateEntry.getGeoNamesCandid().getLevel())) {
-                            addToIndirectTable(candidateEntry.getGeoNamesCandid(), taggedWord);
+                            forEachName(candidateEntry.getGeoNamesCandid(), consumer);
                         }
 
                         candidateEntry.getHierarchyMap().forEach(
-                                (hierarchyLevel, hierarchyEntry) -> addToIndirectTable(hierarchyEntry, taggedWord)
+                                (hierarchyLevel, hierarchyEntry) -> forEachName(hierarchyEntry, consumer)
                         );
                     });
         }
 
         @Override
         protected YRArticleBucket clone() {
-            return new YRArticleBucket(getCandidateLoader(), getTaggedWords(), getRecognizedToponyms(), getCandidateMap(), getSurfaceMentionMap());
+            return new YRArticleBucket(this, mentionIndex);
         }
     }
 
@@ -0,0 +1,78 @@
+package tr.geotagging.resolution.contextbound;
+
+import tr.TaggedWord;
+import tr.geonames.GeoNamesEntry;
+import tr.geotagging.resolution.ArticleBucket;
+
+import java.util.*;
+
+/**
+ * Numbers the distinct mentions of an article in the order of their token index, so that a group of mentions
+ * can be kept as a bitset, and indexes the surface mentions of the gazetteer entries of the article by geonameId.
+ * <p>
+ * The surface mentions of an article do not change, so the index is built once per article
+ * and shared by all buckets of the article.
+ * </p>
+ */
+class MentionIndex {
+    private final ArticleBucket articleBucket;
+
+    private final Map<TaggedWord, Integer> numbers = new HashMap<>();
+    private final List<TaggedWord> mentions = new ArrayList<>();
+    private final Map<Long, BitSet> surfaceMentions = new HashMap<>();
+
+    MentionIndex(ArticleBucket articleBucket) {
+        this.articleBucket = articleBucket;
+
+        final List<TaggedWord> taggedWords = new ArrayList<>(articleBucket.getTaggedWords());
+        taggedWords.sort(Comparator.comparingInt(TaggedWord::getIndex));
+        taggedWords.forEach(this::numberOf);
+    }
+
+    /**
+     * @return the number of the mention, numbering it if it is not a mention of the article
+     */
+    int numberOf(TaggedWord mention) {
+        Integer number = numbers.get(mention);
+        if (number == null) {
+            number = mentions.size();
+            numbers.put(mention, number);
+            mentions.add(mention);
+        }
+
+        return number;
+    }
+
+    TaggedWord get(int number) {
+        return mentions.get(number);
+    }
+
+    /**
+     * @return surface mentions of the entry, which must not be modified
+     */
+    BitSet getSurfaceMentions(GeoNamesEntry geoNamesEntry) {
+        BitSet mentions = surfaceMentions.get(geoNamesEntry.getGeonameId());
+        if (mentions == null) {
+            mentions = new BitSet();
+            for (TaggedWord mention : articleBucket.getSurfaceMentions(geoNamesEntry))
+                mentions.set(numberOf(mention));
+            surfaceMentions.put(geoNamesEntry.getGeonameId(), mentions);
+        }
+
+        return mentions;
+    }
+
+    TaggedWord[] toArray(BitSet mentions) {
+        final TaggedWord[] array = new TaggedWord[mentions.cardinality()];
+        for (int i = 0, m = mentions.nextSetBit(0); m >= 0; m = mentions.nextSetBit(m + 1))
+            array[i++] = get(m);
+        return array;
+    }
+
+    Set<TaggedWord> toSet(BitSet mentions) {
+        final Set<TaggedWord> set = new HashSet<>();
+        for (int m = mentions.nextSetBit(0); m >= 0; m = mentions.nextSetBit(m + 1))
+            set.add(get(m));
+        return set;
+    }
+}
@@ -0,0 +1,83 @@
+package tr.geotagging.resolution.contextbound;
+
+import tr.TaggedWord;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+/**
+ * A group of mentions sorted by their token index, so that the nearest mention of the group to another mention
+ * is found by binary search rather than by comparing against every mention of the group.
+ * A mention is never paired with a mention of the group equal to it.
+ * Distances are the same as {@link ContextBoundResolver.IndexDistanceFunction}.
+ */
+class MentionPositions {
+    static final int NOT_FOUND = -1;
+
+    private final int[] positions;
+    private final TaggedWord[] mentions;
+
+    MentionPositions(Collection<TaggedWord> mentions) {
+        this(mentions.toArray(new TaggedWord[0]));
+    }
+
+    /**
+     * @param mentions distinct mentions, which are sorted in place
+     */
+    MentionPositions(TaggedWord[] mentions) {
+        this.mentions = mentions;
+        Arrays.sort(this.mentions, Comparator.comparingInt(TaggedWord::getIndex));
+
+        this.positions = new int[this.mentions.length];
+        for (int i = 0; i < this.mentions.length; i++)
+            positions[i] = this.mentions[i].getIndex();
+    }
+
+    /**
+     * @return the smallest index distance between the given mention and a mention of the group, or {@link #NOT_FOUND}
+     */
+    int minDistance(TaggedWord mention) {
+        final int position = mention.getIndex();
+
+        int from = Arrays.binarySearch(positions, position);
+        if (from < 0) {
+            from = -from - 1;
+        } else {
+            while (from > 0 && positions[from - 1] == position)
+                from--;
+        }
+
+        int to = from;
+        for (; to < positions.length && positions[to] == position; to++) {
+            if (!mentions[to].equals(mention))
+                return 0;
+        }
+
+        int distance = NOT_FOUND;
+        if (from > 0)
+            distance = position - positions[from - 1];
+        if (to < positions.length && (distance == NOT_FOUND || positions[to] - position < distance))
+            distance = positions[to] - position;
+
+        return distance;
+    }
+
+    /**
+     * @return the smallest index distance between a mention of the given group and a mention of this group, or {@link #NOT_FOUND}
+     */
+    int minDistance(MentionPositions others) {
+        int distance = NOT_FOUND;
+
+        for (TaggedWord mention : others.mentions) {
+            final int d = minDistance(mention);
+            if (d != NOT_FOUND && (distance == NOT_FOUND || d < distance)) {
+                distance = d;
+                if (distance == 0)
+                    break;
+            }
+        }
+
+        return distance;
+    }
+}
@@ -3,15 +3,21 @@ package tr.geotagging.resolution.contextfusion;
 import tr.Article;
 import tr.TaggedWord;
 import tr.Toponym;
+import tr.geonames.GeoNamesRepository;
+import tr.geotagging.resolution.ArticleBucket;
 import tr.geotagging.resolution.spatialset.SpatialHierarchySetResolver;
 import tr.geotagging.resolution.contextbound.ContextBoundResolver;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import tr.util.Config;
+import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 /**
@@ -26,23 +32,82 @@ public class CHFResolver extends SpatialHierarchySetResolver {
 
     private final double scoreThreshold;
 
-    private final ContextBoundResolver contextBoundResolver = new ContextBoundResolver();
+    private final ContextBoundResolver contextBoundResolver;
+
+    /**
+     * Runs the set cover stage while the context-bound stage runs on the calling thread; null if the stages run one after the other
+     */
+    private final Executor stageExecutor;
+
+    /**
+     * The executor shared by all resolvers whose stages run concurrently as configured
+     */
+    private static class StageExecutorHolder {
+        private static final ExecutorService STAGE_EXECUTOR = Executors.newFixedThreadPool(Config.CHF.STAGE_THREADS,
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("chf-stage-%d").build());
+    }
 
     public CHFResolver() {
         this(Config.CHF.DEFAULT_THRESHOLD);
     }
 
     public CHFResolver(double scoreThreshold) {
+        this(scoreThreshold, Config.Resolvers.CANDIDATE_BUDGET);
+    }
+
+    /**
+     * @param k the most populated candidates kept per toponym, shared by both stages
+     */
+    public CHFResolver(double scoreThreshold, int k) {
+        this(scoreThreshold, k, Config.CHF.STAGE_THREADS > 0 ? StageExecutorHolder.STAGE_EXECUTOR : null);
+    }
+
+    /**
+     * @param stageExecutor runs the set cover stage concurrently with the context-bound stage, or null to run them in turn
+     */
+    public CHFResolver(double scoreThreshold, Executor stageExecutor) {
+        this(scoreThreshold, Config.Resolvers.CANDIDATE_BUDGET, stageExecutor);
+    }
+
+    public CHFResolver(double scoreThreshold, int k, Executor stageExecutor) {
+        super(k);
         this.scoreThreshold = scoreThreshold;
-        logger.debug("resolution is set up with threshold {}", this.scoreThreshold);
+        this.contextBoundResolver = new ContextBoundResolver(k);
+        this.stageExecutor = stageExecutor;
+        logger.debug("resolution is set up with threshold {}{}", this.scoreThreshold,
+                stageExecutor == null ? "" : " and concurrent stages");
     }
 
+    /**
+     * The candidates of the article are loaded and pinned once and shared read-only by both resolvers,
+     * which are independent of each other until their results are fused.
+     */
     @Override
     public List<Toponym> resolve(Article article, List<TaggedWord> taggedWords) {
-        final List<Toponym> setcoverResolvedToponyms = super.resolve(article, taggedWords);
+        GeoNamesRepository.resetLoadCounter();
+
+        final Stopwatch bucketStopwatch = Stopwatch.createStarted();
+        final ArticleBucket articleBucket = newPinnedArticleBucket(article, taggedWords);
+        bucketStopwatch.stop();
+        final GeoNamesRepository.LoadCounter bucketLoads = GeoNamesRepository.resetLoadCounter();
+
+        final Supplier<StageResult> setcoverStage = () -> timed(() -> extract(articleBucket));
+        final Supplier<StageResult> yrStage = () -> timed(() -> contextBoundResolver.resolve(articleBucket));
+
+        final StageResult setcoverResult, yrResult;
+        if (stageExecutor == null) {
+            setcoverResult = setcoverStage.get();
+            yrResult = yrStage.get();
+        } else {
+            final CompletableFuture<StageResult> setcoverFuture = CompletableFuture.supplyAsync(setcoverStage, stageExecutor);
+            yrResult = yrStage.get();
+            setcoverResult = join(setcoverFuture);
+        }
+
+        final List<Toponym> setcoverResolvedToponyms = setcoverResult.toponyms;
         final Map<Integer, Toponym> setcoverResolvedMap = setcoverResolvedToponyms.stream().collect(Collectors.toMap(Toponym::getStart, v -> v));
 
-        final List<Toponym> yrResolvedToponyms = contextBoundResolver.resolve(article, taggedWords)
+        final List<Toponym> yrResolvedToponyms = yrResult.toponyms
                 .stream()
                 .filter(t -> t.getScore() >= scoreThreshold)
                 .collect(Collectors.toList());
@@ -69,16 +134,61 @@ public class CHFResolver extends SpatialHierarchySetResolver {
             }
         }
 
-        logger.info(String.format("[Article %s] %d topos = %d from YR (%d/disagree + %d/onlyYR) and %d from setcover",
+        logger.info(String.format("[Article %s] %d topos = %d from YR (%d/disagree + %d/onlyYR) and %d from setcover, gazetteer loads: %s",
                 article.getArticleId(), fusedToponyms.size(),
                 disagreeCount + onlyYR, disagreeCount, onlyYR,
-                fusedToponyms.size() - disagreeCount - onlyYR));
+                fusedToponyms.size() - disagreeCount - onlyYR,
+                bucketLoads.plus(setcoverResult.loads).plus(yrResult.loads)));
+        logger.info(String.format("[Article %s] latency: candidates %d ms, setcover %d ms, YR %d ms%s",
+                article.getArticleId(),
+                bucketStopwatch.elapsed(TimeUnit.MILLISECONDS), setcoverResult.millis, yrResult.millis,
+                stageExecutor == null ? "" : " (concurrent)"));
 
         return fusedToponyms;
     }
 
+    /**
+     * Load counters are kept per thread, so the stage counts its loads on the thread it runs on
+     *
+     * @return the result of the stage along with its duration and gazetteer loads
+     */
+    private static StageResult timed(Supplier<List<Toponym>> stage) {
+        GeoNamesRepository.resetLoadCounter();
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final List<Toponym> toponyms = stage.get();
+        return new StageResult(toponyms, stopwatch.elapsed(TimeUnit.MILLISECONDS), GeoNamesRepository.resetLoadCounter());
+    }
+
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            if (e.getCause() instanceof Error)
+                throw (Error) e.getCause();
+            throw e;
+        }
+    }
+
+    ContextBoundResolver getContextBoundResolver() {
+        return contextBoundResolver;
+    }
+
     @Override
     public String toString() {
         return "Fused-" + scoreThreshold + "-Resolver";
     }
+
+    private static class StageResult {
+        final List<Toponym> toponyms;
+        final long millis;
+        final GeoNamesRepository.LoadCounter loads;
+
+        StageResult(List<Toponym> toponyms, long millis, GeoNamesRepository.LoadCounter loads) {
+            this.toponyms = toponyms;
+            this.millis = millis;
+            this.loads = loads;
+        }
+    }
 }
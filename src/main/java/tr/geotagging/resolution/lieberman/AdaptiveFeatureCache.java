@@ -0,0 +1,141 @@
+package tr.geotagging.resolution.lieberman;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import tr.geonames.GeoNamesEntry;
+import tr.util.Config;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * A bounded, concurrent cache of the adaptive features that depend on the gazetteer alone,
+ * so that they are computed once for a stream of articles rather than once per article:
+ * <ul>
+ * <li>the interpretations of a window toponym, sorted and truncated to the window depth, keyed by phrase</li>
+ * <li>the minimum distance and the sibling counts between an interpretation of a toponym
+ * and the interpretations of a window toponym, keyed by geonameId and phrase</li>
+ * </ul>
+ * Both are evicted in LRU order once their maximum size is reached.
+ * The interpretations depend on the window depth, so a cache serves builders of a single window depth.
+ * Cached lists are shared, so they must not be modified.
+ */
+class AdaptiveFeatureCache {
+    private final Cache<String, List<GeoNamesEntry>> windowInterpretations;
+    private final Cache<PairKey, WindowPair> windowPairs;
+
+    private CacheStats lastInterpretationStats = new CacheStats(0, 0, 0, 0, 0, 0);
+    private CacheStats lastPairStats = new CacheStats(0, 0, 0, 0, 0, 0);
+
+    AdaptiveFeatureCache() {
+        this(Config.Adaptive.CACHE_INTERPRETATIONS_MAX_SIZE, Config.Adaptive.CACHE_PAIRS_MAX_SIZE);
+    }
+
+    AdaptiveFeatureCache(long maxInterpretations, long maxPairs) {
+        this.windowInterpretations = CacheBuilder.newBuilder()
+                .maximumSize(maxInterpretations)
+                .recordStats()
+                .build();
+        this.windowPairs = CacheBuilder.newBuilder()
+                .maximumSize(maxPairs)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param loader sorts and truncates the interpretations of the phrase, in case they are not cached
+     */
+    List<GeoNamesEntry> getWindowInterpretations(String phrase, Callable<List<GeoNamesEntry>> loader) {
+        return get(windowInterpretations, phrase, loader);
+    }
+
+    /**
+     * @param loader compares the interpretation to the window interpretations of the phrase, in case they are not cached
+     */
+    WindowPair getWindowPair(GeoNamesEntry interpretation, String windowPhrase, Callable<WindowPair> loader) {
+        return get(windowPairs, new PairKey(interpretation.getGeonameId(), windowPhrase), loader);
+    }
+
+    private static <K, V> V get(Cache<K, V> cache, K key, Callable<V> loader) {
+        try {
+            return cache.get(key, loader);
+        } catch (UncheckedExecutionException e) {
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw e;
+        } catch (ExecutionException e) {
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+
+    CacheStats interpretationStats() {
+        return windowInterpretations.stats();
+    }
+
+    CacheStats pairStats() {
+        return windowPairs.stats();
+    }
+
+    /**
+     * @return hit rates of both caches since the previous report, followed by their overall hit rates and sizes
+     */
+    synchronized String report() {
+        final CacheStats interpretationStats = windowInterpretations.stats();
+        final CacheStats pairStats = windowPairs.stats();
+
+        final String report = String.format("interpretations hitRate: %.3f (overall %.3f, size %d) pairs hitRate: %.3f (overall %.3f, size %d)",
+                interpretationStats.minus(lastInterpretationStats).hitRate(), interpretationStats.hitRate(), windowInterpretations.size(),
+                pairStats.minus(lastPairStats).hitRate(), pairStats.hitRate(), windowPairs.size());
+
+        lastInterpretationStats = interpretationStats;
+        lastPairStats = pairStats;
+
+        return report;
+    }
+
+    /**
+     * What the window interpretations of a phrase tell about an interpretation of a toponym
+     * (lines 8 and 10-14 of the pseudo-code explained in the paper)
+     */
+    static class WindowPair {
+        final double dMin;
+        final long siblingCountryLevel;
+        final long siblingAdmin1Level;
+        final long siblingAdmin2Level;
+
+        WindowPair(double dMin, long siblingCountryLevel, long siblingAdmin1Level, long siblingAdmin2Level) {
+            this.dMin = dMin;
+            this.siblingCountryLevel = siblingCountryLevel;
+            this.siblingAdmin1Level = siblingAdmin1Level;
+            this.siblingAdmin2Level = siblingAdmin2Level;
+        }
+    }
+
+    private static class PairKey {
+        final Long geonameId;
+        final String windowPhrase;
+
+        PairKey(Long geonameId, String windowPhrase) {
+            this.geonameId = geonameId;
+            this.windowPhrase = windowPhrase;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            PairKey that = (PairKey) o;
+            return Objects.equals(geonameId, that.geonameId) &&
+                    windowPhrase.equals(that.windowPhrase);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(geonameId, windowPhrase);
+        }
+    }
+}
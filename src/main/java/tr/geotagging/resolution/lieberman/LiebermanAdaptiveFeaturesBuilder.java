@@ -5,11 +5,13 @@ import tr.Toponym;
 import tr.geonames.GeoNamesEntry;
 import tr.geonames.GeoNamesRepository;
 import tr.util.StringUtil;
+import tr.util.db.IdNotFoundException;
 import tr.util.nlp.TaggedWordUtil;
 import tr.util.geo.GeoCoordinate;
 import tr.util.geo.GeoUtil;
 import com.google.common.collect.HashBasedTable;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Table;
 import com.google.common.util.concurrent.AtomicLongMap;
@@ -61,9 +63,36 @@ class LiebermanAdaptiveFeaturesBuilder {
 
     private final int wb, wd;
 
+    /**
+     * whether windows are found by scanning the tokens, kept as the reference for {@link ToponymWindows#windowOf}
+     */
+    private final boolean scanWindows;
+
+    /**
+     * features that depend on the gazetteer alone, shared by all articles this builder sees
+     */
+    private final AdaptiveFeatureCache featureCache;
+
     LiebermanAdaptiveFeaturesBuilder(int wb, int wd) {
+        this(wb, wd, new AdaptiveFeatureCache());
+    }
+
+    /**
+     * @param featureCache a cache of a stream of articles, which must only be shared by builders of the same window depth
+     */
+    LiebermanAdaptiveFeaturesBuilder(int wb, int wd, AdaptiveFeatureCache featureCache) {
+        this(wb, wd, featureCache, false);
+    }
+
+    LiebermanAdaptiveFeaturesBuilder(int wb, int wd, boolean scanWindows) {
+        this(wb, wd, new AdaptiveFeatureCache(), scanWindows);
+    }
+
+    private LiebermanAdaptiveFeaturesBuilder(int wb, int wd, AdaptiveFeatureCache featureCache, boolean scanWindows) {
         this.wb = wb;
         this.wd = wd;
+        this.featureCache = featureCache;
+        this.scanWindows = scanWindows;
     }
 
     Accumulator accumulator() {
@@ -73,11 +102,31 @@ class LiebermanAdaptiveFeaturesBuilder {
     Multimap<Toponym, Instance> toUnlabeledInstances(final List<TaggedWord> taggedWords) {
         final HashMultimap<Toponym, Instance> unlabeledInstances = HashMultimap.create();
 
-        final Table<String, Long, AdaptiveValue> instanceTable = compute(taggedWords);
-
         final Instances dataset = new Instances("test", getWekaAttributes(), 0);
         dataset.setClassIndex(dataset.numAttributes() - 1);
 
+        toUnlabeledFeatures(taggedWords).forEach((toponym, vals) -> {
+            final DenseInstance instance = new DenseInstance(1.0, vals);
+            instance.setDataset(dataset);
+
+            unlabeledInstances.put(toponym, instance);
+        });
+
+        return unlabeledInstances;
+    }
+
+    /**
+     * Same as {@link #toUnlabeledInstances(List)}, except that each candidate is given as its feature vector
+     * instead of a Weka instance. Toponyms are put in the same order, so both are iterated alike.
+     */
+    Multimap<Toponym, double[]> toUnlabeledFeatures(final List<TaggedWord> taggedWords) {
+        final HashMultimap<Toponym, double[]> unlabeledFeatures = HashMultimap.create();
+
+        final Table<String, Long, AdaptiveValue> instanceTable = compute(taggedWords);
+
+        final Map<Long, GeoNamesEntry> entryMap = new HashMap<>();
+        geoNamesRepository.loadAll(instanceTable.columnKeySet()).forEach(entry -> entryMap.put(entry.getGeonameId(), entry));
+
         HashMultimap<String, TaggedWord> taggedWordsByPhrase = HashMultimap.create();
 
         taggedWords.forEach(taggedWord -> taggedWordsByPhrase.put(taggedWord.getPhrase().toLowerCase(), taggedWord));
@@ -100,17 +149,15 @@ class LiebermanAdaptiveFeaturesBuilder {
                     vals[AdaptiveFeature.siblingAdmin2Level.ordinal()] = adaptiveValue.siblingAdmin2Level;
                     vals[AdaptiveFeature.klass.ordinal()] = 0;
 
-                    final DenseInstance instance = new DenseInstance(1.0, vals);
-                    instance.setDataset(dataset);
+                    final Toponym toponym = new Toponym(usage,
+                            Optional.ofNullable(entryMap.get(geonameId)).orElseThrow(IdNotFoundException::new));
 
-                    final Toponym toponym = new Toponym(usage, geoNamesRepository.load(geonameId));
-
-                    unlabeledInstances.put(toponym, instance);
+                    unlabeledFeatures.put(toponym, vals);
                 }
             });
         }
 
-        return unlabeledInstances;
+        return unlabeledFeatures;
     }
 
     private ArrayList<Attribute> getWekaAttributes() {
@@ -151,14 +198,20 @@ class LiebermanAdaptiveFeaturesBuilder {
 
         final HashMultimap<InstanceKey, AdaptiveValue> docMultimap = HashMultimap.create();
 
+        // interpretations of every toponym in the article, window toponyms included, are loaded at once
+        final ListMultimap<String, GeoNamesEntry> interpretationMap = geoNamesRepository.loadCandidates(
+                recognizedToponyms.stream().map(TaggedWord::getPhrase).collect(Collectors.toList()));
+
+        final ToponymWindows windows = new ToponymWindows(taggedWords, recognizedToponyms, wb);
+
         // line 2 of the pseudo-code explained in the paper
         for (TaggedWord t : recognizedToponyms) {
-            final List<GeoNamesEntry> tInterpretations = geoNamesRepository.load(t.getPhrase());
+            final List<GeoNamesEntry> tInterpretations = interpretationMap.get(t.getPhrase());
             if (tInterpretations.isEmpty())
                 continue;
 
             // line 4 of the pseudo-code explained in the paper
-            final List<TaggedWord> window = createWindow(taggedWords, recognizedToponyms, t);
+            final List<TaggedWord> window = scanWindows ? windows.windowByScan(t) : windows.windowOf(t);
 
             final Map<InstanceKey, ProximityArg> proximityArgMap = new HashMap<>();
             final AtomicLongMap<InstanceKey> countryLevelMap = AtomicLongMap.create();
@@ -169,43 +222,29 @@ class LiebermanAdaptiveFeaturesBuilder {
             for (TaggedWord o : window) {
 
                 // line 6 of the pseudo-code explained in the paper
-                final List<GeoNamesEntry> oInterpretations = geoNamesRepository
-                        .load(o.getPhrase())
-                        .stream()
-                        .sorted(Comparator
-                                .<GeoNamesEntry>comparingInt(p -> Optional.ofNullable(p.getAlternateNames()).orElse("").split(",").length)
-                                .reversed()
-                                .thenComparing(GeoNamesEntry::getPopulation)
-                                .reversed())
-                        .limit(wd)
-                        .collect(Collectors.toList());
+                // the interpretations of a window toponym are the same in every window, so they are sorted and limited once
+                final String windowPhrase = o.getPhrase();
+                final List<GeoNamesEntry> oInterpretations = featureCache.getWindowInterpretations(windowPhrase,
+                        () -> toWindowInterpretations(interpretationMap.get(windowPhrase)));
 
                 if (!oInterpretations.isEmpty()) {
                     for (GeoNamesEntry lt : tInterpretations) {
-                        final GeoCoordinate ct = lt.toCoordinate();
                         final InstanceKey key = new InstanceKey(t.getPhrase(), lt.getGeonameId());
 
-                        DoubleSummaryStatistics distanceSummary = new DoubleSummaryStatistics();
-                        for (GeoNamesEntry lo : oInterpretations) {
-                            final GeoCoordinate co = lo.toCoordinate();
-                            // line 8 of the pseudo-code explained in the paper
-                            distanceSummary.accept(GeoUtil.distance(ct, co).toKilometres());
+                        final AdaptiveFeatureCache.WindowPair windowPair =
+                                featureCache.getWindowPair(lt, windowPhrase, () -> toWindowPair(lt, oInterpretations));
 
-                            // lines 10-14 of the pseudo-code explained in the paper
-                            // from here
-                            if (StringUtil.hasText(lt.getCountryCode()) && Objects.equals(lo.getCountryCode(), lt.getCountryCode()))
-                                countryLevelMap.addAndGet(key, 1);
+                        if (windowPair.siblingCountryLevel > 0)
+                            countryLevelMap.addAndGet(key, windowPair.siblingCountryLevel);
 
-                            if (StringUtil.hasText(lt.getAdmin1code()) && Objects.equals(lo.getAdmin1code(), lt.getAdmin1code()))
-                                admin1LevelMap.addAndGet(key, 1);
+                        if (windowPair.siblingAdmin1Level > 0)
+                            admin1LevelMap.addAndGet(key, windowPair.siblingAdmin1Level);
 
-                            if (StringUtil.hasText(lt.getAdmin2code()) && Objects.equals(lo.getAdmin2code(), lt.getAdmin2code()))
-                                admin2LevelMap.addAndGet(key, 1);
-                            // to here
-                        }
+                        if (windowPair.siblingAdmin2Level > 0)
+                            admin2LevelMap.addAndGet(key, windowPair.siblingAdmin2Level);
 
                         // line 9 of the pseudo-code explained in the paper
-                        final double dMin = distanceSummary.getMin();
+                        final double dMin = windowPair.dMin;
                         if (Double.isFinite(dMin))
                             proximityArgMap.compute(key, (instanceKey, arg) -> (arg == null ? new ProximityArg() : arg).incr(dMin));
                     }
@@ -235,10 +274,7 @@ class LiebermanAdaptiveFeaturesBuilder {
 //                val.latitude = interpretation.getLatitude();
 //                val.longitude = interpretation.getLongitude();
 
-                if (interpretation.getAlternateNames() != null)
-                    val.altNames = interpretation.getAlternateNames().split(",").length;
-                else
-                    val.altNames = 0;
+                val.altNames = interpretation.getAlternateNameCount();
 
                 docMultimap.put(new InstanceKey(t.getPhrase(), interpretation.getGeonameId()), val);
             }
@@ -247,31 +283,47 @@ class LiebermanAdaptiveFeaturesBuilder {
         return propagateFeatures(docMultimap);
     }
 
-    private List<TaggedWord> createWindow(List<TaggedWord> taggedWords, List<TaggedWord> recognizedToponyms, TaggedWord t) {
-        final int numOfTokens = taggedWords.size();
-        final int index = taggedWords.indexOf(t);
-        int lb, ub;
-        if (index <= wb / 2) {
-            lb = 0;
-            ub = Math.min(numOfTokens, wb);
-        } else if (index + wb / 2 >= numOfTokens) {
-            lb = Math.max(0, numOfTokens - wb);
-            ub = numOfTokens;
-        } else {
-            lb = index - wb / 2;
-            ub = index + wb / 2;
-        }
+    /**
+     * @return the interpretations of a window toponym that are compared to the interpretations of the toponym
+     */
+    private List<GeoNamesEntry> toWindowInterpretations(List<GeoNamesEntry> interpretations) {
+        return interpretations
+                .stream()
+                .sorted(Comparator
+                        // an entry without alternate names counts as one, like splitting an empty string
+                        .<GeoNamesEntry>comparingInt(p -> p.getAlternateNames() != null ? p.getAlternateNameCount() : 1)
+                        .reversed()
+                        .thenComparing(GeoNamesEntry::getPopulation)
+                        .reversed())
+                .limit(wd)
+                .collect(Collectors.toList());
+    }
+
+    private static AdaptiveFeatureCache.WindowPair toWindowPair(GeoNamesEntry lt, List<GeoNamesEntry> oInterpretations) {
+        final GeoCoordinate ct = lt.toCoordinate();
+
+        long siblingCountryLevel = 0, siblingAdmin1Level = 0, siblingAdmin2Level = 0;
+
+        DoubleSummaryStatistics distanceSummary = new DoubleSummaryStatistics();
+        for (GeoNamesEntry lo : oInterpretations) {
+            final GeoCoordinate co = lo.toCoordinate();
+            // line 8 of the pseudo-code explained in the paper
+            distanceSummary.accept(GeoUtil.distance(ct, co).toKilometres());
+
+            // lines 10-14 of the pseudo-code explained in the paper
+            // from here
+            if (StringUtil.hasText(lt.getCountryCode()) && Objects.equals(lo.getCountryCode(), lt.getCountryCode()))
+                siblingCountryLevel++;
 
-        final Map<String, TaggedWord> windowMap = new HashMap<>();
-        recognizedToponyms.stream()
-                .filter(oo -> {
-                    final int oindex = taggedWords.indexOf(oo);
-                    return oindex <= ub && oindex >= lb;
-                })
-                .filter(oo -> !t.getPhrase().equalsIgnoreCase(oo.getPhrase()))
-                .forEach(taggedWord -> windowMap.put(taggedWord.getPhrase().toLowerCase(), taggedWord));
+            if (StringUtil.hasText(lt.getAdmin1code()) && Objects.equals(lo.getAdmin1code(), lt.getAdmin1code()))
+                siblingAdmin1Level++;
 
-        return new ArrayList<>(windowMap.values());
+            if (StringUtil.hasText(lt.getAdmin2code()) && Objects.equals(lo.getAdmin2code(), lt.getAdmin2code()))
+                siblingAdmin2Level++;
+            // to here
+        }
+
+        return new AdaptiveFeatureCache.WindowPair(distanceSummary.getMin(), siblingCountryLevel, siblingAdmin1Level, siblingAdmin2Level);
     }
 
     private Table<String, Long, AdaptiveValue> propagateFeatures(HashMultimap<InstanceKey, AdaptiveValue> articleInstanceMap) {
@@ -397,15 +449,43 @@ class LiebermanAdaptiveFeaturesBuilder {
 
         private final Set<AdaptiveValue> values = new HashSet<>();
 
+        /**
+         * labeled instances of numbered articles, kept apart until they are merged in the order of the articles
+         */
+        private final SortedMap<Integer, Set<AdaptiveValue>> valuesByArticle = new TreeMap<>();
+
         private Accumulator(LiebermanAdaptiveFeaturesBuilder builder) {
             this.builder = builder;
         }
 
         @Override
         public void accept(List<TaggedWord> taggedWords, List<Toponym> toponyms) {
+            values.addAll(createLabeledInstances(taggedWords, toponyms));
+        }
+
+        /**
+         * Creates the labeled instances of an article, to be added by {@link #merge(Collection)}
+         *
+         * @param article number of the article in its dataset
+         */
+        void accept(int article, List<TaggedWord> taggedWords, List<Toponym> toponyms) {
+            valuesByArticle.put(article, createLabeledInstances(taggedWords, toponyms));
+        }
+
+        /**
+         * Adds the instances of the numbered articles of the given accumulators in the order of the articles,
+         * as if the articles were accepted in turn by this accumulator
+         */
+        void merge(Collection<Accumulator> accumulators) {
+            final SortedMap<Integer, Set<AdaptiveValue>> mergedValues = new TreeMap<>();
+            accumulators.forEach(accumulator -> mergedValues.putAll(accumulator.valuesByArticle));
+            mergedValues.values().forEach(values::addAll);
+        }
+
+        private Set<AdaptiveValue> createLabeledInstances(List<TaggedWord> taggedWords, List<Toponym> toponyms) {
             final Set<AdaptiveValue> labeledInstances = this.builder.toLabeledInstances(taggedWords, toponyms);
-            values.addAll(labeledInstances);
             logger.info("{} labeled instances created for {} topos", labeledInstances.size(), toponyms.size());
+            return labeledInstances;
         }
 
         Instances toWekaDataset(String datasetName) {
@@ -5,17 +5,20 @@ import tr.TaggedWord;
 import tr.Toponym;
 import tr.geotagging.resolution.ArticleBucket;
 import tr.geotagging.resolution.DefaultGeoResolver;
+import tr.geotagging.resolution.Pinning;
 import tr.util.Config;
+import tr.util.ml.CompiledRandomForest;
 import tr.util.ml.WekaUtil;
 import com.google.common.collect.Multimap;
 import com.google.common.io.Files;
-import hr.irb.fastRandomForest.FastRandomForest;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
-import weka.core.Instance;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static tr.geotagging.resolution.lieberman.LiebermanAdaptiveModelBuilder.Model.CLUST_stanfordNER_wb80;
 
@@ -29,17 +32,46 @@ public class LiebermanAdaptiveGeoResolver extends DefaultGeoResolver<ArticleBuck
 
     private static final Logger logger = LogManager.getLogger(LiebermanAdaptiveGeoResolver.class);
 
+    /**
+     * articles between two reports of the feature cache
+     */
+    private static final int CACHE_REPORT_INTERVAL = 1000;
+
     private final String modelFile;
     private final int windowBreadth, windowDepth;
-    private final FastRandomForest randomForest;
+
+    /**
+     * the most populated candidates kept per toponym in the article bucket; the features see all candidates regardless
+     */
+    private final int candidateBudget;
+    private final CompiledRandomForest randomForest;
+
+    /**
+     * one builder serves the stream of articles, so that its feature cache is shared by them
+     */
+    private final LiebermanAdaptiveFeaturesBuilder adaptiveFeaturesBuilder;
+    private final AdaptiveFeatureCache featureCache = new AdaptiveFeatureCache();
+    private final AtomicLong articleCount = new AtomicLong();
 
     public LiebermanAdaptiveGeoResolver(String modelFile, int windowBreadth, int windowDepth) {
+        this(modelFile, windowBreadth, windowDepth, windowDepth);
+    }
+
+    /**
+     * @param candidateBudget the most populated candidates kept per toponym in the article bucket,
+     *                        which leaves the window depth of the features, and so what the forest sees, as it is
+     */
+    public LiebermanAdaptiveGeoResolver(String modelFile, int windowBreadth, int windowDepth, int candidateBudget) {
+        // every toponym goes through classification, as the model was trained, so nothing is pinned
+        super(Pinning.NONE);
         this.modelFile = modelFile;
         this.windowBreadth = windowBreadth;
         this.windowDepth = windowDepth;
+        this.candidateBudget = candidateBudget;
+        this.adaptiveFeaturesBuilder = new LiebermanAdaptiveFeaturesBuilder(windowBreadth, windowDepth, featureCache);
 
         try {
-            this.randomForest = WekaUtil.loadClassificationModel(modelFile);
+            this.randomForest = WekaUtil.loadCompiledRandomForest(modelFile);
         } catch (Exception e) {
             throw new ExceptionInInitializerError(String.format("Unable to load model file '%s': %s", modelFile, e.getMessage()));
         }
@@ -58,31 +90,31 @@ public class LiebermanAdaptiveGeoResolver extends DefaultGeoResolver<ArticleBuck
     }
 
     protected ArticleBucket newArticleBucket(Article article, List<TaggedWord> taggedWords) {
-        return new ArticleBucket(windowDepth, taggedWords);
+        return new ArticleBucket(candidateBudget, taggedWords);
     }
 
     @Override
     protected List<Toponym> extract(ArticleBucket articleBucket) {
-        final LiebermanAdaptiveFeaturesBuilder adaptiveFeaturesBuilder = new LiebermanAdaptiveFeaturesBuilder(windowBreadth, windowDepth);
-        final Multimap<Toponym, Instance> testInstances = adaptiveFeaturesBuilder.toUnlabeledInstances(articleBucket.getTaggedWords());
+        final Multimap<Toponym, double[]> testFeatures = adaptiveFeaturesBuilder.toUnlabeledFeatures(articleBucket.getTaggedWords());
 
         final List<Toponym> extractedToponyms = new ArrayList<>();
 
-        testInstances.asMap().forEach((recognizedToponym, candidateInstances) ->
-                candidateInstances.stream()
-                        .filter(testInstance -> {
-                            try {
-                                return randomForest.classifyInstance(testInstance) == 1;
-                            } catch (Exception e) {
-                                logger.error("word %s cannot classify instance\n", recognizedToponym.getPhrase(), e);
-                                return false;
-                            }
-                        })
-                        .findAny()
-                        .ifPresent(instance ->
-                                extractedToponyms.add(recognizedToponym)
-                        )
-        );
+        // all candidates of the article are classified at once, in the order the toponyms are iterated below
+        final double[] predictions = randomForest.classify(testFeatures.values().toArray(new double[0][]));
+
+        int i = 0;
+        for (Map.Entry<Toponym, Collection<double[]>> candidateFeatures : testFeatures.asMap().entrySet()) {
+            boolean resolved = false;
+            for (int c = 0; c < candidateFeatures.getValue().size(); c++)
+                resolved |= predictions[i++] == 1;
+
+            if (resolved)
+                extractedToponyms.add(candidateFeatures.getKey());
+        }
+
+        final long articles = articleCount.incrementAndGet();
+        if (articles % CACHE_REPORT_INTERVAL == 0)
+            logger.info(String.format("[%s] feature cache after %d articles: %s", this, articles, featureCache.report()));
 
         return extractedToponyms;
     }
@@ -1,6 +1,7 @@
 package tr.geotagging.resolution.lieberman;
 
 import com.google.common.base.Stopwatch;
+import com.google.common.util.concurrent.Uninterruptibles;
 import hr.irb.fastRandomForest.FastRandomForest;
 import net.sourceforge.argparse4j.ArgumentParsers;
 import net.sourceforge.argparse4j.inf.ArgumentParser;
@@ -20,9 +21,12 @@ import weka.classifiers.Evaluation;
 import weka.core.Instances;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.Random;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.*;
 import java.util.stream.Collectors;
 
 /**
@@ -41,6 +45,26 @@ public class LiebermanAdaptiveModelBuilder {
     private static final String OUR_noRECOG_wb80 = "data/adaptive/adaptive.TRNews.noRECOG.wb80";
     private static final String OUR_stanfordNER_wb80 = "data/adaptive/adaptive.TRNews.stanfordNER.wb80";
 
+    private static final int DEFAULT_SEED = 1;
+
+    private static final NumberedArticle END_OF_ARTICLES = new NumberedArticle(-1, null);
+
+    private static class WorkerStoppedException extends RuntimeException {
+        WorkerStoppedException(String message) {
+            super(message);
+        }
+    }
+
+    private static class NumberedArticle {
+        final int number;
+        final Article article;
+
+        NumberedArticle(int number, Article article) {
+            this.number = number;
+            this.article = article;
+        }
+    }
+
     public static class Arff {
         public static final String LGL_noRECOG_wb80 = LiebermanAdaptiveModelBuilder.LGL_noRECOG_wb80 + ".arff";
         public static final String LGL_stanfordNER_wb80 = LiebermanAdaptiveModelBuilder.LGL_stanfordNER_wb80 + ".arff";
@@ -70,18 +94,113 @@ public class LiebermanAdaptiveModelBuilder {
     }
 
     public String exportToArff(Dataset<Article, DatasetSummary> dataset, GeoRecognizer recognizer) throws DatasetException, IOException {
-        return exportToArff(dataset, recognizer, Config.Adaptive.DEFAULT_Wb);
+        return exportToArff(dataset, recognizer, Config.Adaptive.DEFAULT_Wb, Config.Adaptive.THREADS);
+    }
+
+    private String exportToArff(Dataset<Article, DatasetSummary> dataset, GeoRecognizer recognizer, int windowBreadth, int threads) throws DatasetException, IOException {
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final LiebermanAdaptiveFeaturesBuilder.Accumulator accumulator = accumulate(dataset, recognizer, windowBreadth, threads);
+        logger.info(String.format("[%s] instances of all articles created in %d s by %d threads",
+                dataset.getName(), stopwatch.elapsed(TimeUnit.SECONDS), threads));
+
+        final String arffFilePath = getArffFilePath(dataset, recognizer, windowBreadth);
+        WekaUtil.saveDataset(accumulator.toWekaDataset(dataset.getName()), arffFilePath);
+
+        return arffFilePath;
+    }
+
+    /**
+     * Creates the labeled instances of the annotated articles on worker threads, each with its own accumulator.
+     * The instances of the workers are merged in the order of the articles in the dataset,
+     * so the instances, and the ARFF file made of them, are the same for any number of threads.
+     *
+     * @param threads number of workers, or 0 for one per processor
+     */
+    LiebermanAdaptiveFeaturesBuilder.Accumulator accumulate(Dataset<Article, DatasetSummary> dataset, GeoRecognizer recognizer,
+                                                            int windowBreadth, int threads) throws DatasetException {
+        final int workerCount = Config.toThreadCount(threads);
+        final BlockingQueue<NumberedArticle> articleQueue = new ArrayBlockingQueue<>(workerCount * 4);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(workerCount);
+        final List<Future<LiebermanAdaptiveFeaturesBuilder.Accumulator>> workers = new ArrayList<>();
+        try {
+            for (int t = 0; t < workerCount; t++)
+                workers.add(executor.submit(() -> accumulateArticles(dataset, recognizer, windowBreadth, articleQueue)));
+
+            final int[] articleCount = {0};
+            dataset.forEach(article -> {
+                if (article.isAnnotated())
+                    offer(articleQueue, new NumberedArticle(articleCount[0]++, article), workers);
+            });
+            for (int t = 0; t < workerCount; t++)
+                offer(articleQueue, END_OF_ARTICLES, workers);
+
+            final List<LiebermanAdaptiveFeaturesBuilder.Accumulator> workerAccumulators = new ArrayList<>();
+            for (Future<LiebermanAdaptiveFeaturesBuilder.Accumulator> worker : workers)
+                workerAccumulators.add(Uninterruptibles.getUninterruptibly(worker));
+
+            final LiebermanAdaptiveFeaturesBuilder.Accumulator accumulator =
+                    new LiebermanAdaptiveFeaturesBuilder(windowBreadth, Integer.MAX_VALUE).accumulator();
+            accumulator.merge(workerAccumulators);
+            return accumulator;
+        } catch (WorkerStoppedException e) {
+            // the failed worker tells why it stopped
+            try {
+                for (Future<LiebermanAdaptiveFeaturesBuilder.Accumulator> worker : workers) {
+                    if (worker.isDone())
+                        Uninterruptibles.getUninterruptibly(worker);
+                }
+            } catch (ExecutionException | CancellationException failure) {
+                throw new DatasetException(String.format("[%s] unable to create instances", dataset.getName()),
+                        failure instanceof ExecutionException ? failure.getCause() : failure);
+            }
+            throw new DatasetException(String.format("[%s] unable to create instances", dataset.getName()), e);
+        } catch (ExecutionException e) {
+            throw new DatasetException(String.format("[%s] unable to create instances", dataset.getName()), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Puts the article on the queue, waiting for room as long as no worker has failed.
+     * A worker that failed, with an exception or an error, no longer takes articles and would leave the queue full forever;
+     * a worker that took the end of the articles has simply finished.
+     *
+     * @throws WorkerStoppedException if a worker has failed, or the reader is interrupted
+     */
+    private static void offer(BlockingQueue<NumberedArticle> articleQueue, NumberedArticle numberedArticle,
+                              List<? extends Future<?>> workers) {
+        try {
+            while (!articleQueue.offer(numberedArticle, 1, TimeUnit.SECONDS)) {
+                for (Future<?> worker : workers) {
+                    if (!worker.isDone())
+                        continue;
+                    try {
+                        worker.get();
+                    } catch (ExecutionException | CancellationException e) {
+                        throw new WorkerStoppedException("a worker stopped before the end of the articles");
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WorkerStoppedException("interrupted while waiting for the workers");
+        }
     }
 
-    private String exportToArff(Dataset<Article, DatasetSummary> dataset, GeoRecognizer recognizer, int windowBreadth) throws DatasetException, IOException {
-        final LiebermanAdaptiveFeaturesBuilder featuresBuilder = new LiebermanAdaptiveFeaturesBuilder(windowBreadth, Integer.MAX_VALUE);
-        final LiebermanAdaptiveFeaturesBuilder.Accumulator accumulator = featuresBuilder.accumulator();
+    private LiebermanAdaptiveFeaturesBuilder.Accumulator accumulateArticles(Dataset<Article, DatasetSummary> dataset, GeoRecognizer recognizer,
+                                                                            int windowBreadth, BlockingQueue<NumberedArticle> articleQueue)
+            throws InterruptedException {
+        final LiebermanAdaptiveFeaturesBuilder.Accumulator accumulator =
+                new LiebermanAdaptiveFeaturesBuilder(windowBreadth, Integer.MAX_VALUE).accumulator();
+
+        // a failure stops the worker, which the dataset reader notices while it offers the next article
+        for (NumberedArticle numberedArticle; (numberedArticle = articleQueue.take()) != END_OF_ARTICLES;) {
+            final Article article = numberedArticle.article;
 
-        dataset.forEach(article -> {
-            if (!article.isAnnotated())
-                return;
             final Stopwatch stopwatch = Stopwatch.createStarted();
-            accumulator.accept(recognizer.extract(article), article.getToponyms());
+            accumulator.accept(numberedArticle.number, recognizer.extract(article), article.getToponyms());
             stopwatch.stop();
 
             final long elapsed = stopwatch.elapsed(TimeUnit.MILLISECONDS);
@@ -89,24 +208,19 @@ public class LiebermanAdaptiveModelBuilder {
                 logger.warn(String.format("[%s|%s] @SLOWLOG instances created in %d ms", dataset.getName(), article.getArticleId(), elapsed));
 
             logger.debug(String.format("[%s|%s] instances created in %d ms", dataset.getName(), article.getArticleId(), elapsed));
-        });
-
-        final String arffFilePath = getArffFilePath(dataset, recognizer, windowBreadth);
-        WekaUtil.saveDataset(accumulator.toWekaDataset(dataset.getName()), arffFilePath);
+        }
 
-        return arffFilePath;
+        return accumulator;
     }
 
     public String trainOn(String arffFile) throws Exception {
-        return trainOn(arffFile, Config.Adaptive.DEFAULT_N_TREES, Config.Adaptive.DEFAULT_N_FEATURES);
+        return trainOn(arffFile, Config.Adaptive.DEFAULT_N_TREES, Config.Adaptive.DEFAULT_N_FEATURES, Config.Adaptive.THREADS);
     }
 
-    private String trainOn(String arffFile, int numTrees, int numFeatures) throws Exception {
+    private String trainOn(String arffFile, int numTrees, int numFeatures, int threads) throws Exception {
         final Instances dataset = WekaUtil.loadDataset(arffFile);
 
-        FastRandomForest forest = new FastRandomForest();
-        forest.setNumTrees(numTrees);
-        forest.setNumFeatures(numFeatures);
+        FastRandomForest forest = newForest(numTrees, numFeatures, threads, DEFAULT_SEED);
         forest.setComputeImportances(true);
 
         forest.buildClassifier(dataset);
@@ -118,19 +232,22 @@ public class LiebermanAdaptiveModelBuilder {
         return modelFile;
     }
 
-    private Evaluation validateOn(String arffFile, int numFolds) throws Exception {
-        return validateOn(arffFile, Config.Adaptive.DEFAULT_N_TREES, Config.Adaptive.DEFAULT_N_FEATURES, numFolds);
+    private static FastRandomForest newForest(int numTrees, int numFeatures, int threads, int seed) {
+        final FastRandomForest forest = new FastRandomForest();
+        forest.setNumTrees(numTrees);
+        forest.setNumFeatures(numFeatures);
+        forest.setNumThreads(threads);
+        forest.setSeed(seed);
+        return forest;
     }
 
-    private Evaluation validateOn(String arffFile, int numTrees, int numFeatures, int numFolds) throws Exception {
+    private Evaluation validateOn(String arffFile, int numTrees, int numFeatures, int numFolds, int threads, int seed) throws Exception {
         final Instances dataset = WekaUtil.loadDataset(arffFile);
 
-        FastRandomForest forest = new FastRandomForest();
-        forest.setNumTrees(numTrees);
-        forest.setNumFeatures(numFeatures);
-
-        Evaluation evaluation = new Evaluation(dataset);
-        evaluation.crossValidateModel(forest, dataset, numFolds, new Random());
+        final Stopwatch stopwatch = Stopwatch.createStarted();
+        final Evaluation evaluation = crossValidate(dataset, numTrees, numFeatures, numFolds, threads, seed);
+        logger.info(String.format("n_trees=%d, n_features=%d: %d folds validated in %d s by %d threads",
+                numTrees, numFeatures, numFolds, stopwatch.elapsed(TimeUnit.SECONDS), threads));
 
         logger.info(evaluation.toSummaryString());
         logger.info("confusion matrix: " + Arrays.stream(evaluation.confusionMatrix())
@@ -143,6 +260,48 @@ public class LiebermanAdaptiveModelBuilder {
         return evaluation;
     }
 
+    /**
+     * Cross-validates a forest as {@link Evaluation#crossValidateModel} does, except that the forests of the folds
+     * are built concurrently, one fold per thread. The folds are made with the given seed and fold {@code i}
+     * is trained with seed {@code seed + i}, so the evaluation is the same for any number of threads.
+     * The folds are evaluated in turn once all forests are built.
+     */
+    Evaluation crossValidate(Instances dataset, int numTrees, int numFeatures, int numFolds, int threads, int seed) throws Exception {
+        final Instances data = new Instances(dataset);
+        data.randomize(new Random(seed));
+        if (data.classAttribute().isNominal())
+            data.stratify(numFolds);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Config.toThreadCount(threads));
+        try {
+            final List<Instances> trainFolds = new ArrayList<>();
+            final List<Future<FastRandomForest>> forests = new ArrayList<>();
+            for (int fold = 0; fold < numFolds; fold++) {
+                final int foldSeed = seed + fold;
+                final Instances train = data.trainCV(numFolds, fold, new Random(foldSeed));
+                trainFolds.add(train);
+
+                forests.add(executor.submit(() -> {
+                    // folds already run in parallel, so each forest is built on its own thread
+                    final FastRandomForest forest = newForest(numTrees, numFeatures, 1, foldSeed);
+                    forest.buildClassifier(train);
+                    return forest;
+                }));
+            }
+
+            final Evaluation evaluation = new Evaluation(data);
+            for (int fold = 0; fold < numFolds; fold++) {
+                final FastRandomForest forest = forests.get(fold).get();
+                evaluation.setPriors(trainFolds.get(fold));
+                evaluation.evaluateModel(forest, data.testCV(numFolds, fold));
+            }
+
+            return evaluation;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
     public static void main(String[] args) {
         final ArgumentParser argParser = buildArgParser();
 
@@ -152,34 +311,54 @@ public class LiebermanAdaptiveModelBuilder {
         final Dataset<Article, DatasetSummary> dataset = ArgUtil.getDataset(ns.getString("data"));
         final int wb = ns.getInt("wb");
         final int numFolds = ns.getInt("folds");
+        final int threads = Config.toThreadCount(ns.getInt("threads"));
+        final int seed = ns.getInt("seed");
+        final List<Integer> numTreesList = ns.getList("n_trees");
+        final List<Integer> numFeaturesList = ns.getList("n_features");
         final String op = ns.getString("op");
 
         final LiebermanAdaptiveModelBuilder modelBuilder = new LiebermanAdaptiveModelBuilder();
 
         if (op.equalsIgnoreCase("factory")) {
             try {
-                System.out.printf("Successfully exported to arff: '%s'\n", modelBuilder.exportToArff(dataset, recognizer, wb));
+                System.out.printf("Successfully exported to arff: '%s'\n", modelBuilder.exportToArff(dataset, recognizer, wb, threads));
             } catch (DatasetException | IOException e) {
                 System.out.println("oh crap! Error during factory :(");
                 e.printStackTrace();
             }
         } else if (op.equalsIgnoreCase("train")) {
             try {
-                modelBuilder.trainOn(modelBuilder.getArffFilePath(dataset, recognizer, wb));
+                modelBuilder.trainOn(modelBuilder.getArffFilePath(dataset, recognizer, wb), numTreesList.get(0), numFeaturesList.get(0), threads);
             } catch (Exception e) {
                 System.out.println("oh crap! Error during training :(");
                 e.printStackTrace();
             }
         } else if (op.equalsIgnoreCase("validate")) {
             try {
-                final Evaluation evaluation = modelBuilder.validateOn(modelBuilder.getArffFilePath(dataset, recognizer, wb), numFolds);
-                System.out.println(evaluation.toSummaryString());
-                System.out.println("confusion matrix: " + Arrays.stream(evaluation.confusionMatrix())
-                        .map(Arrays::toString)
-                        .collect(Collectors.joining(",")));
-                System.out.println(String.format("precision: %.5f,%.5f", evaluation.precision(0), evaluation.precision(1)));
-                System.out.println(String.format("recall: %.5f,%.5f", evaluation.recall(0), evaluation.recall(1)));
-                System.out.println(String.format("f-measure: %.5f,%.5f", evaluation.fMeasure(0), evaluation.fMeasure(1)));
+                final List<String> report = new ArrayList<>();
+
+                for (int numTrees : numTreesList) {
+                    for (int numFeatures : numFeaturesList) {
+                        final Evaluation evaluation = modelBuilder.validateOn(modelBuilder.getArffFilePath(dataset, recognizer, wb),
+                                numTrees, numFeatures, numFolds, threads, seed);
+                        System.out.printf("n_trees=%d, n_features=%d\n", numTrees, numFeatures);
+                        System.out.println(evaluation.toSummaryString());
+                        System.out.println("confusion matrix: " + Arrays.stream(evaluation.confusionMatrix())
+                                .map(Arrays::toString)
+                                .collect(Collectors.joining(",")));
+                        System.out.println(String.format("precision: %.5f,%.5f", evaluation.precision(0), evaluation.precision(1)));
+                        System.out.println(String.format("recall: %.5f,%.5f", evaluation.recall(0), evaluation.recall(1)));
+                        System.out.println(String.format("f-measure: %.5f,%.5f", evaluation.fMeasure(0), evaluation.fMeasure(1)));
+
+                        report.add(String.format("  n_trees=%d, n_features=%d: P=%.5f R=%.5f F1=%.5f",
+                                numTrees, numFeatures, evaluation.precision(1), evaluation.recall(1), evaluation.fMeasure(1)));
+                    }
+                }
+
+                if (report.size() > 1) {
+                    System.out.println("sweep:");
+                    report.forEach(System.out::println);
+                }
             } catch (Exception e) {
                 System.out.println("oh crap! Error during validation :(");
                 e.printStackTrace();
@@ -211,6 +390,25 @@ public class LiebermanAdaptiveModelBuilder {
                 .type(Integer.class)
                 .setDefault(Config.Eval.DEFUALT_N_FOLDS)
                 .help("Number of folds for cross validation");
+        argParser.addArgument("-t", "--threads")
+                .type(Integer.class)
+                .setDefault(Config.Adaptive.THREADS)
+                .help("Number of threads creating instances in factory, building the forest in train " +
+                        "and building the forests of the folds in validate, 0 for one per processor; the results are the same for any number");
+        argParser.addArgument("-s", "--seed")
+                .type(Integer.class)
+                .setDefault(DEFAULT_SEED)
+                .help("Seed of the folds in validate; fold i is trained with seed + i");
+        argParser.addArgument("--n_trees")
+                .type(Integer.class)
+                .nargs("+")
+                .setDefault(Collections.singletonList(Config.Adaptive.DEFAULT_N_TREES))
+                .help("Number of trees; validate runs once per combination with n_features, train takes the first");
+        argParser.addArgument("--n_features")
+                .type(Integer.class)
+                .nargs("+")
+                .setDefault(Collections.singletonList(Config.Adaptive.DEFAULT_N_FEATURES))
+                .help("Number of features considered at each split; validate runs once per combination with n_trees, train takes the first");
         return argParser;
     }
 }
@@ -0,0 +1,139 @@
+package tr.geotagging.resolution.lieberman;
+
+import tr.TaggedWord;
+
+import java.util.*;
+
+/**
+ * Windows of the recognized toponyms of an article, each made of the other toponyms
+ * at most {@code wb / 2} tokens away from the toponym (line 4 of the pseudo-code explained in the paper).
+ * <p>
+ * Token positions are looked up once per article and the toponyms are kept sorted by position,
+ * so a window is found by binary search instead of scanning the tokens for every toponym.
+ * A position is the index of the first token equal to the toponym, as {@link List#indexOf(Object)} finds it.
+ * </p>
+ */
+class ToponymWindows {
+    private final List<TaggedWord> taggedWords;
+    private final List<TaggedWord> recognizedToponyms;
+    private final int wb;
+
+    /**
+     * indexes of the tokens by their start and end offsets, since equal tokens share both
+     */
+    private final Map<Long, List<Integer>> tokenIndexesBySpan = new HashMap<>();
+
+    /**
+     * indexes of the recognized toponyms in the order of their position, and the positions in the same order
+     */
+    private final int[] sortedToponyms;
+    private final int[] sortedPositions;
+
+    ToponymWindows(List<TaggedWord> taggedWords, List<TaggedWord> recognizedToponyms, int wb) {
+        this.taggedWords = taggedWords;
+        this.recognizedToponyms = recognizedToponyms;
+        this.wb = wb;
+
+        for (int i = 0; i < taggedWords.size(); i++)
+            tokenIndexesBySpan.computeIfAbsent(spanOf(taggedWords.get(i)), span -> new ArrayList<>()).add(i);
+
+        final int[] positions = new int[recognizedToponyms.size()];
+        final Integer[] order = new Integer[positions.length];
+        for (int r = 0; r < positions.length; r++) {
+            positions[r] = positionOf(recognizedToponyms.get(r));
+            order[r] = r;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingInt(r -> positions[r]).thenComparingInt(r -> r));
+
+        sortedToponyms = new int[order.length];
+        sortedPositions = new int[order.length];
+        for (int i = 0; i < order.length; i++) {
+            sortedToponyms[i] = order[i];
+            sortedPositions[i] = positions[order[i]];
+        }
+    }
+
+    /**
+     * @return the toponyms around the given one, one per phrase regardless of case, excluding the phrase of the toponym
+     */
+    List<TaggedWord> windowOf(TaggedWord t) {
+        final int[] bounds = boundsOf(positionOf(t));
+
+        final int from = firstPositionAtLeast(bounds[0]);
+        final int to = firstPositionAtLeast(bounds[1] + 1);
+
+        // the toponyms are taken in their recognized order, so the same toponym wins a phrase as in a scan
+        final int[] inWindow = Arrays.copyOfRange(sortedToponyms, from, to);
+        Arrays.sort(inWindow);
+
+        final Map<String, TaggedWord> windowMap = new HashMap<>();
+        for (int r : inWindow) {
+            final TaggedWord oo = recognizedToponyms.get(r);
+            if (!t.getPhrase().equalsIgnoreCase(oo.getPhrase()))
+                windowMap.put(oo.getPhrase().toLowerCase(), oo);
+        }
+
+        return new ArrayList<>(windowMap.values());
+    }
+
+    /**
+     * The same window as {@link #windowOf(TaggedWord)}, found by scanning the tokens for every toponym
+     */
+    List<TaggedWord> windowByScan(TaggedWord t) {
+        final int[] bounds = boundsOf(taggedWords.indexOf(t));
+        final int lb = bounds[0], ub = bounds[1];
+
+        final Map<String, TaggedWord> windowMap = new HashMap<>();
+        recognizedToponyms.stream()
+                .filter(oo -> {
+                    final int oindex = taggedWords.indexOf(oo);
+                    return oindex <= ub && oindex >= lb;
+                })
+                .filter(oo -> !t.getPhrase().equalsIgnoreCase(oo.getPhrase()))
+                .forEach(taggedWord -> windowMap.put(taggedWord.getPhrase().toLowerCase(), taggedWord));
+
+        return new ArrayList<>(windowMap.values());
+    }
+
+    /**
+     * @return lower and upper bounds of the window, both inclusive
+     */
+    private int[] boundsOf(int index) {
+        final int numOfTokens = taggedWords.size();
+        if (index <= wb / 2)
+            return new int[]{0, Math.min(numOfTokens, wb)};
+        else if (index + wb / 2 >= numOfTokens)
+            return new int[]{Math.max(0, numOfTokens - wb), numOfTokens};
+        else
+            return new int[]{index - wb / 2, index + wb / 2};
+    }
+
+    /**
+     * @return index of the first token equal to the given one, or -1 if there is none
+     */
+    private int positionOf(TaggedWord taggedWord) {
+        for (int i : tokenIndexesBySpan.getOrDefault(spanOf(taggedWord), Collections.emptyList())) {
+            if (taggedWord.equals(taggedWords.get(i)))
+                return i;
+        }
+
+        return -1;
+    }
+
+    private int firstPositionAtLeast(int position) {
+        int lo = 0, hi = sortedPositions.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (sortedPositions[mid] < position)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+
+        return lo;
+    }
+
+    private static long spanOf(TaggedWord taggedWord) {
+        return ((long) taggedWord.getStart() << 32) | (taggedWord.getEnd() & 0xffffffffL);
+    }
+}
@@ -0,0 +1,176 @@
+package tr.geotagging.resolution.spatialset;
+
+import tr.geonames.GeoNamesEntry;
+import tr.util.tuple.Tuple3;
+import com.google.common.collect.Sets;
+
+import java.util.*;
+
+/**
+ * Greedy set cover over the toponym sets of an article. In each round, the compatible set with the lowest cost
+ * per uncovered toponym is chosen (ties go to the more populated set and then to the set that comes first),
+ * and each of its uncovered toponyms is resolved to the most populated node of the set having it.
+ * A set stays compatible as long as it contains the entries already chosen for its toponyms.
+ * <p>
+ * As covering toponyms only makes a set less effective or incompatible, {@link #cover()} evaluates sets lazily:
+ * sets are kept in a priority queue by their last known effectiveness and only the head is re-evaluated.
+ * {@link #coverByScan()} re-evaluates all sets in every round and is kept as a reference.
+ * </p>
+ */
+class GreedySetCover {
+
+    private static final Comparator<Candidate> BY_EFFECTIVENESS = Comparator.<Candidate>comparingDouble(c -> c.key)
+            .thenComparing(Comparator.comparingLong((Candidate c) -> c.population).reversed())
+            .thenComparingInt(c -> c.order);
+
+    private final ToponymUniverse universe;
+    private final List<ToponymSet> toponymSets;
+
+    /**
+     * @param toponymSets sets in the order they are considered, which breaks the remaining ties
+     */
+    GreedySetCover(ToponymUniverse universe, Collection<ToponymSet> toponymSets) {
+        this.universe = universe;
+        this.toponymSets = new ArrayList<>(toponymSets);
+    }
+
+    /**
+     * @return the chosen entry of each covered toponym
+     */
+    Map<String, GeoNamesEntry> cover() {
+        final List<List<Candidate>> setsOfToponym = new ArrayList<>(universe.size());
+        for (int t = 0; t < universe.size(); t++)
+            setsOfToponym.add(new ArrayList<>());
+
+        final PriorityQueue<Candidate> queue = new PriorityQueue<>(Math.max(1, toponymSets.size()), BY_EFFECTIVENESS);
+
+        for (int i = 0; i < toponymSets.size(); i++) {
+            final Candidate candidate = new Candidate(i, toponymSets.get(i));
+
+            for (int t = candidate.members.nextSetBit(0); t >= 0; t = candidate.members.nextSetBit(t + 1))
+                setsOfToponym.get(t).add(candidate);
+
+            if (candidate.uncovered > 0) {
+                candidate.key = candidate.effectiveness();
+                queue.add(candidate);
+            }
+        }
+
+        final Map<String, GeoNamesEntry> foundToponyms = new HashMap<>();
+        final BitSet covered = new BitSet(universe.size());
+
+        while (foundToponyms.size() < universe.size()) {
+            final Candidate best = pollBest(queue);
+            if (best == null)
+                break;
+
+            for (int t = best.members.nextSetBit(0); t >= 0; t = best.members.nextSetBit(t + 1)) {
+                if (covered.get(t))
+                    continue;
+
+                final int topo = t;
+                best.set.pickPopulatedEntry(topo).ifPresent(e -> {
+                    foundToponyms.put(universe.get(topo), e);
+                    covered.set(topo);
+
+                    for (Candidate candidate : setsOfToponym.get(topo)) {
+                        candidate.uncovered--;
+                        if (!candidate.set.contains(e))
+                            candidate.compatible = false;
+                    }
+                });
+            }
+        }
+
+        return foundToponyms;
+    }
+
+    /**
+     * A set whose effectiveness is still the one it was queued with is the best one,
+     * since the effectiveness of the others can only be worse than their queued value.
+     */
+    private Candidate pollBest(PriorityQueue<Candidate> queue) {
+        while (!queue.isEmpty()) {
+            final Candidate head = queue.poll();
+            if (!head.compatible || head.uncovered == 0)
+                continue;
+
+            final double effectiveness = head.effectiveness();
+            if (effectiveness == head.key)
+                return head;
+
+            head.key = effectiveness;
+            queue.add(head);
+        }
+
+        return null;
+    }
+
+    /**
+     * @return the chosen entry of each covered toponym, by re-evaluating every set in each round
+     */
+    Map<String, GeoNamesEntry> coverByScan() {
+        final Map<String, GeoNamesEntry> foundToponyms = new HashMap<>();
+
+        while (foundToponyms.size() < universe.size()) {
+            Tuple3<Double, Long, ToponymSet> bestSet = new Tuple3<>(Double.MAX_VALUE, Long.MIN_VALUE,null);
+
+            final Set<String> I = foundToponyms.keySet();
+
+            for (ToponymSet toponymSet : toponymSets) {
+
+                final Set<String> Si = toponymSet.toponyms();
+
+                if (I.stream().anyMatch(i -> Si.contains(i) && !toponymSet.contains(foundToponyms.get(i))))
+                    continue;
+
+                final double effectiveness = toponymSet.getCost() / Sets.difference(Si, I).size();
+                if (bestSet.get_1() > effectiveness)
+                    bestSet = new Tuple3<>(effectiveness, toponymSet.getPopulation(), toponymSet);
+                else if (bestSet.get_1() == effectiveness)
+                    if (bestSet.get_2() < toponymSet.getPopulation())
+                        bestSet = new Tuple3<>(effectiveness, toponymSet.getPopulation(), toponymSet);
+            }
+
+            if (bestSet.get_3() != null) {
+                for (String topo : bestSet.get_3().toponyms()) {
+                    if (I.contains(topo))
+                        continue;
+
+                    bestSet.get_3().pickPopulatedEntry(universe.indexOf(topo)).ifPresent(e -> foundToponyms.put(topo, e));
+                }
+            } else
+                break;
+        }
+
+        return foundToponyms;
+    }
+
+    /**
+     * A toponym set along with what the cover needs of it, computed once as the set does not change while covering
+     */
+    private static class Candidate {
+        private final int order;
+        private final ToponymSet set;
+        private final BitSet members;
+        private final long population;
+        private final double cost;
+
+        private int uncovered;
+        private boolean compatible = true;
+        private double key;
+
+        Candidate(int order, ToponymSet set) {
+            this.order = order;
+            this.set = set;
+            this.members = set.toponymBits();
+            this.population = set.getPopulation();
+            this.cost = set.getCost();
+            this.uncovered = members.cardinality();
+        }
+
+        double effectiveness() {
+            return cost / uncovered;
+        }
+    }
+}
@@ -7,14 +7,12 @@ import tr.geonames.GeoNamesEntry;
 import tr.geotagging.resolution.ArticleBucket;
 import tr.geotagging.resolution.DefaultGeoResolver;
 import tr.geotagging.resolution.GeoCandidateEntry;
-import tr.util.tuple.Tuple3;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Sets;
+import tr.util.Config;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Created with IntelliJ IDEA.
@@ -26,29 +24,67 @@ public class SpatialHierarchySetResolver extends DefaultGeoResolver<ArticleBucke
 
     private final Logger logger = LogManager.getLogger(getClass());
 
+    /**
+     * The most populated candidates kept per toponym
+     */
+    protected final int k;
+
+    public SpatialHierarchySetResolver() {
+        this(Config.Resolvers.CANDIDATE_BUDGET);
+    }
+
+    public SpatialHierarchySetResolver(int k) {
+        this.k = k;
+    }
+
+    /**
+     * @return the most populated candidates kept per toponym
+     */
+    public int getCandidateBudget() {
+        return k;
+    }
+
     @Override
     protected ArticleBucket newArticleBucket(Article article, List<TaggedWord> taggedWords) {
-        return new ArticleBucket(Integer.MAX_VALUE, taggedWords);
+        return new ArticleBucket(k, taggedWords);
     }
 
     @Override
     protected List<Toponym> extract(ArticleBucket articleBucket) {
-        Set<String> universe = new HashSet<>();
+        final Map<String, GeoNamesEntry> foundToponyms = newSetCover(articleBucket).cover();
+        for (TaggedWord taggedWord : articleBucket.getRecognizedToponyms())
+            articleBucket.getPinnedEntry(taggedWord).ifPresent(entry -> foundToponyms.put(taggedWord.getPhrase().toLowerCase(), entry));
+
+        final List<Toponym> geotags = new ArrayList<>();
+        foundToponyms.forEach((toponymText, matchedEntry) ->
+                articleBucket.getSurfaceMentions(toponymText).forEach(
+                        taggedWord -> geotags.add(new Toponym(taggedWord, matchedEntry))
+                )
+        );
+
+        return geotags;
+    }
+
+    GreedySetCover newSetCover(ArticleBucket articleBucket) {
+        final ToponymUniverse universe = new ToponymUniverse();
 
         final Set<Long> childGeonames = new HashSet<>();
         final Map<Long, ToponymSet> pivotIdToSet = new HashMap<>();
-        final Multimap<String, ToponymSet> toponymToSets = HashMultimap.create();
 
         for (TaggedWord taggedWord : articleBucket.getRecognizedToponyms()) {
             final String toponymText = taggedWord.getPhrase().toLowerCase();
 
-            if (universe.contains(toponymText))
+            final int toponym = universe.add(toponymText);
+            if (toponym < 0)
                 continue;
 
-            universe.add(toponymText);
-
             final int startingSize = pivotIdToSet.size();
-            final List<GeoCandidateEntry> candidates = articleBucket.getCandidates(taggedWord);
+            // a pinned toponym joins the sets of its pinned entry only
+            final Optional<GeoNamesEntry> pinnedEntry = articleBucket.getPinnedEntry(taggedWord);
+            final List<GeoCandidateEntry> candidates = articleBucket.getCandidates(taggedWord)
+                    .stream()
+                    .filter(c -> !pinnedEntry.isPresent() || c.getGeoNamesCandid().equals(pinnedEntry.get()))
+                    .collect(Collectors.toList());
 
             for (GeoCandidateEntry geoCandidateEntry : candidates) {
 
@@ -59,35 +95,25 @@ public class SpatialHierarchySetResolver extends DefaultGeoResolver<ArticleBucke
                 final ToponymSet existingSet = pivotIdToSet.get(pivot.getGeonameId());
 
                 if (existingSet == null) {
-                    final ToponymSet newSet = new ToponymSet(toponymText, geoCandidateEntry);
-                    pivotIdToSet.put(newSet.getPivot().getElement().entry.getGeonameId(), newSet);
-
-                    if (newSet.getPivot().getParent() != null) {
-                        final ToponymSet pivotParentSet = pivotIdToSet.get(newSet.getPivot().getParent().getElement().entry.getGeonameId());
-
-                        if (pivotParentSet != null) {
-                            pivotParentSet.find(newSet.getPivot().getElement().entry).ifPresent(n -> {
-                                newSet.getPivot().getElement().toponyms.addAll(n.toponyms);
-                                n.toponyms.forEach(topo -> toponymToSets.get(topo).add(newSet));
-                            });
-                        }
-                    }
+                    final ToponymSet newSet = new ToponymSet(universe, toponym, geoCandidateEntry);
+                    pivotIdToSet.put(newSet.getPivotId(), newSet);
+
+                    if (newSet.hasPivotParent()) {
+                        final ToponymSet pivotParentSet = pivotIdToSet.get(newSet.getPivotParentId());
 
-                    toponymToSets.put(toponymText, newSet);
+                        if (pivotParentSet != null)
+                            newSet.addPivotToponyms(pivotParentSet);
+                    }
                 } else {
-                    existingSet.addChild(toponymText, geoCandidateEntry);
-                    toponymToSets.put(toponymText, existingSet);
+                    existingSet.addChild(toponym, geoCandidateEntry);
                 }
 
                 childGeonames.add(geoCandidateEntry.getGeoNamesCandid().getGeonameId());
 
 
                 final ToponymSet pivotSet = pivotIdToSet.get(geoCandidateEntry.getGeoNamesCandid().getGeonameId());
-                if (pivotSet != null) {
-                    pivotSet.getPivot().getElement().toponyms.add(toponymText);
-                    toponymToSets.get(toponymText).add(pivotSet);
-                }
-                
+                if (pivotSet != null)
+                    pivotSet.addPivotToponym(toponym);
             }
 
             final int finishingSize = pivotIdToSet.size();
@@ -96,48 +122,7 @@ public class SpatialHierarchySetResolver extends DefaultGeoResolver<ArticleBucke
 
 //        final List<Element> edmonton = collection.stream().filter(element -> !element.tree.filter(n -> n.getElement().toponyms.contains("pyongyang")).isEmpty()).collect(Collectors.toList());
 
-        final Map<String, GeoNamesEntry> foundToponyms = new HashMap<>();
-
-        while (foundToponyms.size() < universe.size()) {
-            Tuple3<Double, Long, ToponymSet> bestSet = new Tuple3<>(Double.MAX_VALUE, Long.MIN_VALUE,null);
-
-            final Set<String> I = foundToponyms.keySet();
-
-            for (ToponymSet toponymSet : pivotIdToSet.values()) {
-
-                final Set<String> Si = toponymSet.toponyms();
-
-                if (I.stream().anyMatch(i -> Si.contains(i) && !toponymSet.contains(foundToponyms.get(i))))
-                    continue;
-
-                final double effectiveness = toponymSet.getCost() / Sets.difference(Si, I).size();
-                if (bestSet.get_1() > effectiveness)
-                    bestSet = new Tuple3<>(effectiveness, toponymSet.getPopulation(), toponymSet);
-                else if (bestSet.get_1() == effectiveness)
-                    if (bestSet.get_2() < toponymSet.getPopulation())
-                        bestSet = new Tuple3<>(effectiveness, toponymSet.getPopulation(), toponymSet);
-            }
-
-            if (bestSet.get_3() != null) {
-                for (String topo : bestSet.get_3().toponyms()) {
-                    if (I.contains(topo))
-                        continue;
-
-                    bestSet.get_3().pickPopulatedNode(topo).ifPresent(e -> foundToponyms.put(topo, e.entry));
-                }
-            } else
-                break;
-        }
-
-
-        final List<Toponym> geotags = new ArrayList<>();
-        foundToponyms.forEach((toponymText, matchedEntry) ->
-                articleBucket.getSurfaceMentions(toponymText).forEach(
-                        taggedWord -> geotags.add(new Toponym(taggedWord, matchedEntry))
-                )
-        );
-
-        return geotags;
+        return new GreedySetCover(universe, pivotIdToSet.values());
     }
 
     @Override
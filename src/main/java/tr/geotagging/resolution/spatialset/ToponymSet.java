@@ -2,8 +2,6 @@ package tr.geotagging.resolution.spatialset;
 
 import tr.geonames.GeoNamesEntry;
 import tr.geotagging.resolution.GeoCandidateEntry;
-import tr.util.Tree;
-import tr.util.tuple.Tuple2;
 
 import java.util.*;
 
@@ -12,61 +10,127 @@ import java.util.*;
  * User: ehsan
  * Date: 6/1/2017
  * Time: 4:52 PM
+ * <p>
+ * The hierarchy of a set is kept flat: nodes are stored in parallel arrays in the order they are added,
+ * starting with the path from the root to the first candidate. As children are only ever added under the pivot,
+ * the nodes from the pivot onwards are exactly the pivot's subtree, in preorder. The toponyms of a node are
+ * a bitset over the {@link ToponymUniverse} of the article.
+ * </p>
  */
 class ToponymSet {
-    private Tree<Element> pivot;
-    private Tree<Element> root;
+    private static final int NO_NODE = -1;
+
+    private final ToponymUniverse universe;
+
+    private int size = 0;
+    private int[] parents;
+    private long[] geonameIds;
+    private long[] populations;
+    private GeoNamesEntry[] entries;
+    private BitSet[] toponyms;
+
+    private final int pivot;
+    private final BitSet allToponyms = new BitSet();
 
     private double cost = 1;
 
-    ToponymSet(String toponymText, GeoCandidateEntry candidateEntry) {
-        Tree<Element> parent = null;
+    ToponymSet(ToponymUniverse universe, int toponym, GeoCandidateEntry candidateEntry) {
+        this.universe = universe;
 
+        final List<GeoNamesEntry> path = new ArrayList<>();
+        int pivot = NO_NODE;
         for (GeoNamesEntry entry : candidateEntry) {
-            if (entry.equals(candidateEntry.getGeoNamesCandid())) {
-                this.pivot = parent;
-            }
+            if (entry.equals(candidateEntry.getGeoNamesCandid()))
+                pivot = path.size() - 1;
+            path.add(entry);
+        }
 
-            if (parent == null) {
-                this.root = new Tree<>(new Element(entry));
-                parent = this.root;
-            } else {
-                parent = new Tree<>(new Element(entry), parent);
-            }
+        this.pivot = Math.max(pivot, 0);
 
-        }
+        final int capacity = path.size() + 2;
+        this.parents = new int[capacity];
+        this.geonameIds = new long[capacity];
+        this.populations = new long[capacity];
+        this.entries = new GeoNamesEntry[capacity];
+        this.toponyms = new BitSet[capacity];
+
+        for (GeoNamesEntry entry : path)
+            addNode(entry, size - 1);
+
+        if (size > 0)
+            addToponym(size - 1, toponym);
+    }
 
-        if (parent != null) {
-            parent.getElement().toponyms.add(toponymText);
+    private int addNode(GeoNamesEntry entry, int parent) {
+        if (size == entries.length) {
+            final int capacity = size * 2;
+            parents = Arrays.copyOf(parents, capacity);
+            geonameIds = Arrays.copyOf(geonameIds, capacity);
+            populations = Arrays.copyOf(populations, capacity);
+            entries = Arrays.copyOf(entries, capacity);
+            toponyms = Arrays.copyOf(toponyms, capacity);
         }
 
-        if (this.pivot == null)
-            this.pivot = this.root;
+        parents[size] = parent;
+        geonameIds[size] = entry.getGeonameId();
+        populations[size] = entry.getPopulation();
+        entries[size] = entry;
+        return size++;
     }
 
+    private void addToponym(int node, int toponym) {
+        if (toponyms[node] == null)
+            toponyms[node] = new BitSet();
+        toponyms[node].set(toponym);
+        allToponyms.set(toponym);
+    }
+
+    /**
+     * @return the toponyms of the set, in the order of the universe
+     */
     public Set<String> toponyms() {
-        Set<String> allToponyms = new HashSet<>();
-        pivot.traversePreorder(n -> allToponyms.addAll(n.getElement().toponyms));
-        return allToponyms;
+        final Set<String> names = new LinkedHashSet<>();
+        for (int t = allToponyms.nextSetBit(0); t >= 0; t = allToponyms.nextSetBit(t + 1))
+            names.add(universe.get(t));
+        return names;
+    }
+
+    /**
+     * @return a copy of the toponyms of the set, as numbers of the universe
+     */
+    BitSet toponymBits() {
+        return (BitSet) allToponyms.clone();
     }
 
     public long getPopulation() {
-        LongSummaryStatistics acc = new LongSummaryStatistics();
-        pivot.traversePreorder(n -> {
-            if (!n.getElement().toponyms.isEmpty())
-                acc.accept(n.getElement().entry.getPopulation());
-        });
+        long population = 0;
+        for (int n = pivot; n < size; n++) {
+            if (toponyms[n] != null)
+                population += populations[n];
+        }
 
-        return acc.getSum();
+        return population;
     }
 
     boolean contains(GeoNamesEntry targetEntry) {
-        return !pivot.filter(n -> n.getElement().entry.equals(targetEntry)).isEmpty();
+        return find(targetEntry.getGeonameId()) >= 0;
+    }
+
+    /**
+     * @return the first node of the pivot's subtree in preorder having the given id, or -1
+     */
+    private int find(long geonameId) {
+        for (int n = pivot; n < size; n++) {
+            if (geonameIds[n] == geonameId)
+                return n;
+        }
+
+        return NO_NODE;
     }
 
     @Override
     public String toString() {
-        return pivot.toString();
+        return entries[pivot].toString() + "/" + entries[pivot].getLevel();
     }
 
     public double getCost() {
@@ -77,67 +141,49 @@ class ToponymSet {
         this.cost = cost;
     }
 
-    Tree<Element> getPivot() {
-        return pivot;
+    long getPivotId() {
+        return geonameIds[pivot];
     }
 
-    public Tree<Element> getRoot() {
-        return root;
+    boolean hasPivotParent() {
+        return parents[pivot] != NO_NODE;
     }
 
-    void addChild(String toponymText, GeoCandidateEntry candidateEntry) {
-        final Element newElement = new Element(candidateEntry.getGeoNamesCandid());
-        newElement.toponyms.add(toponymText);
-
-        new Tree<>(newElement, this.pivot);
+    long getPivotParentId() {
+        return geonameIds[parents[pivot]];
     }
 
-    Optional<Element> pickPopulatedNode(String toponymText) {
-        Tuple2<Long, Element> best = new Tuple2<>(Long.MIN_VALUE, null);
-        for (Tree<Element> matchedNode : pivot.filter(n -> n.getElement().toponyms.contains(toponymText))) {
-            if (best.get_1() < matchedNode.getElement().entry.getPopulation())
-                best = new Tuple2<>(matchedNode.getElement().entry.getPopulation(), matchedNode.getElement());
-        }
-
-        return best.get_2() != null ? Optional.of(best.get_2()) : Optional.empty();
+    void addChild(int toponym, GeoCandidateEntry candidateEntry) {
+        addToponym(addNode(candidateEntry.getGeoNamesCandid(), pivot), toponym);
     }
 
-    public Optional<Element> find(GeoNamesEntry targetEntry) {
-        final List<Tree<Element>> result = pivot.filter(n -> n.getElement().entry.equals(targetEntry));
-        return result.isEmpty() ? Optional.empty() : Optional.of(result.get(0).getElement());
+    void addPivotToponym(int toponym) {
+        addToponym(pivot, toponym);
     }
 
-    class Element {
-        final GeoNamesEntry entry;
-        final Set<String> toponyms;
-
-        Element(GeoNamesEntry entry) {
-            this.entry = entry;
-            this.toponyms = new HashSet<>();
-        }
-
-        @Override
-        public String toString() {
-            return entry.toString() + "/" + entry.getLevel();
-        }
-
-        @Override
-        public boolean equals(Object o) {
-            return this == o || o != null && getClass() == o.getClass() && entry.equals(((Element) o).entry);
-        }
-
-        @Override
-        public int hashCode() {
-            return Objects.hash(entry);
-        }
+    /**
+     * Adds the toponyms that the pivot of this set has as a node of the given set
+     */
+    void addPivotToponyms(ToponymSet pivotParentSet) {
+        final int node = pivotParentSet.find(getPivotId());
+        if (node < 0 || pivotParentSet.toponyms[node] == null)
+            return;
+
+        final BitSet parentToponyms = pivotParentSet.toponyms[node];
+        for (int t = parentToponyms.nextSetBit(0); t >= 0; t = parentToponyms.nextSetBit(t + 1))
+            addToponym(pivot, t);
+    }
 
-        public boolean equals(GeoNamesEntry anotherEntry) {
-            return equals(anotherEntry.getGeonameId());
+    /**
+     * @return the most populated entry of the pivot's subtree having the toponym, the first one in preorder on ties
+     */
+    Optional<GeoNamesEntry> pickPopulatedEntry(int toponym) {
+        int best = NO_NODE;
+        for (int n = pivot; n < size; n++) {
+            if (toponyms[n] != null && toponyms[n].get(toponym) && (best < 0 || populations[best] < populations[n]))
+                best = n;
         }
 
-        public boolean equals(Long geonameId) {
-            return entry.getGeonameId().equals(geonameId);
-        }
+        return best >= 0 ? Optional.of(entries[best]) : Optional.empty();
     }
-
 }
@@ -0,0 +1,44 @@
+package tr.geotagging.resolution.spatialset;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The distinct (lower-cased) toponyms of an article, each numbered in the order it is added.
+ * Toponym sets refer to toponyms by these numbers so that their membership can be kept in bitsets.
+ */
+class ToponymUniverse {
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private final List<String> toponyms = new ArrayList<>();
+
+    /**
+     * @return the number of the added toponym, or -1 if it already belongs to the universe
+     */
+    int add(String toponymText) {
+        if (indexes.containsKey(toponymText))
+            return -1;
+
+        final int index = toponyms.size();
+        indexes.put(toponymText, index);
+        toponyms.add(toponymText);
+        return index;
+    }
+
+    boolean contains(String toponymText) {
+        return indexes.containsKey(toponymText);
+    }
+
+    int indexOf(String toponymText) {
+        return indexes.getOrDefault(toponymText, -1);
+    }
+
+    String get(int index) {
+        return toponyms.get(index);
+    }
+
+    int size() {
+        return toponyms.size();
+    }
+}
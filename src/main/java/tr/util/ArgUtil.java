@@ -54,16 +54,23 @@ public interface ArgUtil {
     }
 
     static GeoResolver getResolver(String resolverOption, String modelFile, Double threshold) {
+        return getResolver(resolverOption, modelFile, threshold, Config.Resolvers.CANDIDATE_BUDGET);
+    }
+
+    /**
+     * @param k the most populated candidates kept per toponym
+     */
+    static GeoResolver getResolver(String resolverOption, String modelFile, Double threshold, int k) {
         if (resolverOption.equalsIgnoreCase("shs"))
-            return new SpatialHierarchySetResolver();
+            return new SpatialHierarchySetResolver(k);
         else if (resolverOption.equalsIgnoreCase("cbh-pre"))
-            return new PreliminaryContextBoundGeoResolver();
+            return new PreliminaryContextBoundGeoResolver(k);
         else if (resolverOption.equalsIgnoreCase("cbh-inh"))
-            return new ContextBoundInhHypothesisResolver();
+            return new ContextBoundInhHypothesisResolver(k);
         else if (resolverOption.equalsIgnoreCase("cbh-nearby"))
-            return new ContextBoundNearbyHypothesisResolver();
+            return new ContextBoundNearbyHypothesisResolver(k);
         else if (resolverOption.equalsIgnoreCase("cbh"))
-            return new ContextBoundResolver();
+            return new ContextBoundResolver(k);
         else if (resolverOption.equalsIgnoreCase("adaptive")) {
             if (!StringUtil.hasText(modelFile))
                 throw new IllegalArgumentException("Adaptive resolver: model file is required");
@@ -76,12 +83,13 @@ public interface ArgUtil {
                 wb = Config.Adaptive.DEFAULT_Wb;
             }
 
-            return new LiebermanAdaptiveGeoResolver(modelFile, wb, Integer.MAX_VALUE);
+            // the models are trained with an unlimited window depth, so the budget only sizes the candidates of the bucket
+            return new LiebermanAdaptiveGeoResolver(modelFile, wb, Integer.MAX_VALUE, k);
         } else if (resolverOption.equalsIgnoreCase("chf")) {
             if (threshold == null)
                 throw new IllegalArgumentException("Fused resolver: threshold is required");
 
-            return new CHFResolver(threshold);
+            return new CHFResolver(threshold, k);
         }
 
         throw new IllegalArgumentException("Unknown resolver: " + resolverOption);
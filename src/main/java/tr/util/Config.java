@@ -19,6 +19,13 @@ public class Config {
     public interface Parameter {
         String GEONAMES_SQLITE = "gazetteer.geonames.sqlite";
         String GEONAMES_DB = "gazetteer.geonames.db";
+        String GEONAMES_BACKEND = "gazetteer.geonames.backend";
+        String GEONAMES_SNAPSHOT = "gazetteer.geonames.snapshot";
+        String GEONAMES_HIERARCHY = "gazetteer.geonames.hierarchy";
+        String GEONAMES_CACHE_MAX_SIZE = "gazetteer.geonames.cache.max_size";
+        String GEONAMES_CACHE_PINNED_LEVELS = "gazetteer.geonames.cache.pinned_levels";
+        String GEONAMES_UNKNOWN_NAMES_MAX_SIZE = "gazetteer.geonames.unknown_names.max_size";
+        String GEONAMES_UNKNOWN_NAMES_EXPIRE_MINUTES = "gazetteer.geonames.unknown_names.expire_minutes";
         String GEONAMES_API_USERNAMES = "gazetteer.geonames.api.usernames";
         String OPENCALAIS_ACCESS_TOKEN = "opencalais.access_token";
         String YAHOO_YDN_CONSUMER_KEY = "yahoo.ydn.consumer_key";
@@ -30,11 +37,18 @@ public class Config {
         String REDIS_TIMEOUT = "redis.timeout";
         String REDIS_MAX_CONNECTIONS = "redis.max_connections";
         String DATA_LARGE_CITY_POPULATION = "data.large_city.population";
+        String CANDIDATE_BUDGET = "resolvers.candidate_budget";
+        String PINNING = "resolvers.pinning";
         String CBH_MAX_ITERATIONS = "resolvers.cbh.max_iterations";
+        String CBH_INCREMENTAL = "resolvers.cbh.incremental";
         String ADAPTIVE_DEFAULT_Wb = "resolvers.adaptive.default.window_breadth";
         String ADAPTIVE_DEFAULT_N_FEATURES = "resolvers.adaptive.default.n_features";
         String ADAPTIVE_DEFAULT_N_TREES = "resolvers.adaptive.default.n_trees";
+        String ADAPTIVE_THREADS = "resolvers.adaptive.threads";
+        String ADAPTIVE_CACHE_INTERPRETATIONS_MAX_SIZE = "resolvers.adaptive.cache.interpretations.max_size";
+        String ADAPTIVE_CACHE_PAIRS_MAX_SIZE = "resolvers.adaptive.cache.pairs.max_size";
         String CHF_DEFAULT_THRESHOLD = "resolvers.chf.default_threshold";
+        String CHF_STAGE_THREADS = "resolvers.chf.stage_threads";
         String EVAL_DEFAULT_DISTANCE = "eval.default_distance";
         String EVAL_DEFAULT_N_FOLD = "eval.default.n_folds";
     }
@@ -42,6 +56,13 @@ public class Config {
     public interface Gazetteer {
         String GEONAMES_SQLITE = Config.get(Parameter.GEONAMES_SQLITE);
         String GEONAMES_DB = Config.get(Parameter.GEONAMES_DB);
+        String GEONAMES_BACKEND = Config.getOrDefault(Parameter.GEONAMES_BACKEND, "sqlite");
+        String GEONAMES_SNAPSHOT = Config.get(Parameter.GEONAMES_SNAPSHOT);
+        String GEONAMES_HIERARCHY = Config.get(Parameter.GEONAMES_HIERARCHY);
+        long GEONAMES_CACHE_MAX_SIZE = Long.valueOf(Config.getOrDefault(Parameter.GEONAMES_CACHE_MAX_SIZE, "100000"));
+        String[] GEONAMES_CACHE_PINNED_LEVELS = Config.getOrDefault(Parameter.GEONAMES_CACHE_PINNED_LEVELS, "").split(",");
+        long GEONAMES_UNKNOWN_NAMES_MAX_SIZE = Long.valueOf(Config.getOrDefault(Parameter.GEONAMES_UNKNOWN_NAMES_MAX_SIZE, "100000"));
+        long GEONAMES_UNKNOWN_NAMES_EXPIRE_MINUTES = Long.valueOf(Config.getOrDefault(Parameter.GEONAMES_UNKNOWN_NAMES_EXPIRE_MINUTES, "60"));
         String ADJECTIVAL_FILE = "data/gazetteer/adjectival.txt";
         String ABBREVIATION_FILE = "data/gazetteer/abbreviation.txt";
         String[] GEONAMES_API_USERNAMES = Config.getAndSplit(Parameter.GEONAMES_API_USERNAMES, "\\|");
@@ -72,18 +93,28 @@ public class Config {
         public static Integer MAX_CONNECTIONS = Config.getInt(Parameter.REDIS_MAX_CONNECTIONS);
     }
 
+    public interface Resolvers {
+        int CANDIDATE_BUDGET = Config.getLimit(Parameter.CANDIDATE_BUDGET);
+        String PINNING = Config.getOrDefault(Parameter.PINNING, "none");
+    }
+
     public interface CBH {
         Integer MAX_ITERATIONS = Config.getInt(Parameter.CBH_MAX_ITERATIONS);
+        boolean INCREMENTAL = Boolean.valueOf(Config.getOrDefault(Parameter.CBH_INCREMENTAL, "false"));
     }
 
     public interface Adaptive {
         int DEFAULT_Wb = Config.getInt(Parameter.ADAPTIVE_DEFAULT_Wb);
         int DEFAULT_N_FEATURES = Config.getInt(Parameter.ADAPTIVE_DEFAULT_N_FEATURES);
         int DEFAULT_N_TREES = Config.getInt(Parameter.ADAPTIVE_DEFAULT_N_TREES);
+        int THREADS = Config.getThreads(Parameter.ADAPTIVE_THREADS);
+        long CACHE_INTERPRETATIONS_MAX_SIZE = Long.valueOf(Config.getOrDefault(Parameter.ADAPTIVE_CACHE_INTERPRETATIONS_MAX_SIZE, "100000"));
+        long CACHE_PAIRS_MAX_SIZE = Long.valueOf(Config.getOrDefault(Parameter.ADAPTIVE_CACHE_PAIRS_MAX_SIZE, "500000"));
     }
 
     public interface CHF {
         double DEFAULT_THRESHOLD = Config.getDouble(Parameter.CHF_DEFAULT_THRESHOLD);
+        int STAGE_THREADS = Integer.valueOf(Config.getOrDefault(Parameter.CHF_STAGE_THREADS, "0"));
     }
 
     public interface Eval {
@@ -117,6 +148,28 @@ public class Config {
         return Integer.valueOf(get(parameter));
     }
 
+    /**
+     * @return the limit given by the parameter, or {@link Integer#MAX_VALUE} if it is missing or not positive
+     */
+    public static int getLimit(String parameter) {
+        final int limit = Integer.valueOf(getOrDefault(parameter, "0"));
+        return limit > 0 ? limit : Integer.MAX_VALUE;
+    }
+
+    /**
+     * @return the number of threads given by the parameter, or the number of processors if it is missing or not positive
+     */
+    public static int getThreads(String parameter) {
+        return toThreadCount(Integer.valueOf(getOrDefault(parameter, "0")));
+    }
+
+    /**
+     * @return the given number of threads, or the number of processors if it is not positive
+     */
+    public static int toThreadCount(int threads) {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
     public static Double getDouble(String parameter) {
         return Double.valueOf(get(parameter));
     }
@@ -0,0 +1,104 @@
+package tr.util.collect;
+
+/**
+ * An open-addressing hash map from primitive <code>long</code> keys to <code>byte</code> values,
+ * with linear probing and no boxing on either side.
+ * It is meant for large, mostly read-only lookup tables; entries cannot be removed.
+ */
+public class LongByteHashMap {
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private byte[] values;
+    private boolean[] used;
+    private int size = 0;
+
+    public LongByteHashMap() {
+        this(16);
+    }
+
+    public LongByteHashMap(int expectedSize) {
+        final int capacity = capacityFor(expectedSize);
+        this.keys = new long[capacity];
+        this.values = new byte[capacity];
+        this.used = new boolean[capacity];
+    }
+
+    private static int capacityFor(int expectedSize) {
+        final int minCapacity = (int) Math.ceil(Math.max(expectedSize, 2) / LOAD_FACTOR);
+        return Integer.highestOneBit(minCapacity - 1) << 1;
+    }
+
+    /**
+     * Spreads the bits of the key (finalizer of MurmurHash3)
+     */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+
+    private int slotOf(long key) {
+        final int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while (used[slot] && keys[slot] != key)
+            slot = (slot + 1) & mask;
+        return slot;
+    }
+
+    public void put(long key, byte value) {
+        int slot = slotOf(key);
+        if (!used[slot]) {
+            if (size + 1 > keys.length * LOAD_FACTOR) {
+                resize(keys.length * 2);
+                slot = slotOf(key);
+            }
+
+            used[slot] = true;
+            keys[slot] = key;
+            size++;
+        }
+
+        values[slot] = value;
+    }
+
+    public byte get(long key, byte defaultValue) {
+        final int slot = slotOf(key);
+        return used[slot] ? values[slot] : defaultValue;
+    }
+
+    public boolean containsKey(long key) {
+        return used[slotOf(key)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void resize(int capacity) {
+        final long[] oldKeys = keys;
+        final byte[] oldValues = values;
+        final boolean[] oldUsed = used;
+
+        keys = new long[capacity];
+        values = new byte[capacity];
+        used = new boolean[capacity];
+
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldUsed[i]) {
+                final int slot = slotOf(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("LongByteHashMap{size=%d, capacity=%d}", size, keys.length);
+    }
+}
@@ -15,14 +15,24 @@ public class BatchExecutor {
     private final String sql;
     private final int maxBatchSize;
     private final ConnectionSupplier connectionSupplier;
+    private final boolean singleTransaction;
 
     private PreparedStatement pstmt = null;
     private int batchSize = 0;
 
     public BatchExecutor(ConnectionSupplier connectionSupplier, int maxBatchSize, String sql) {
+        this(connectionSupplier, maxBatchSize, sql, false);
+    }
+
+    /**
+     * @param singleTransaction if set, batches are executed on one statement and committed only by {@link #finalizeBatch()},
+     *                          otherwise each batch is committed on its own connection
+     */
+    public BatchExecutor(ConnectionSupplier connectionSupplier, int maxBatchSize, String sql, boolean singleTransaction) {
         this.connectionSupplier = connectionSupplier;
         this.maxBatchSize = maxBatchSize;
         this.sql = sql;
+        this.singleTransaction = singleTransaction;
     }
 
     public void addBatch(Consumer<PreparedStatement> parameterConsumer) throws SQLException {
@@ -35,8 +45,12 @@ public class BatchExecutor {
         pstmt.addBatch();
 
         if (++batchSize % maxBatchSize == 0) {
-            executeBatch();
-            initPreparedStatement(connectionSupplier);
+            if (singleTransaction) {
+                pstmt.executeBatch();
+            } else {
+                executeBatch();
+                initPreparedStatement(connectionSupplier);
+            }
         }
     }
 
@@ -58,6 +72,21 @@ public class BatchExecutor {
         executeBatch();
     }
 
+    /**
+     * Executes the pending batch without committing it, so that another executor on the same connection
+     * commits it along with its own batches; only meant for executors of a single transaction
+     */
+    public void executePending() throws SQLException {
+        if (!singleTransaction)
+            throw new IllegalStateException("batches of separate transactions are committed as they are executed");
+
+        if (pstmt != null) {
+            pstmt.executeBatch();
+            pstmt.close();
+            pstmt = null;
+        }
+    }
+
     public interface ConnectionSupplier {
         Connection get() throws SQLException;
     }
@@ -0,0 +1,280 @@
+package tr.util.ml;
+
+import hr.irb.fastRandomForest.FastRandomForest;
+import weka.core.Instances;
+import weka.core.Utils;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A trained {@link FastRandomForest} compiled into flat primitive arrays, so that feature vectors are classified
+ * without building Weka instances and without walking the tree objects.
+ * <p>
+ * Nodes of all trees share the arrays below, each tree starting at its root. A node splits on a feature
+ * and goes to its first child if the feature is below the split point (equal to it, for nominal features),
+ * and to its second child otherwise; a leaf keeps its class distribution in {@code leafDistributions}.
+ * Trees are evaluated and their distributions summed and normalized in the same order and with the same
+ * arithmetic as {@code FastRfBagging}, so that the predictions are exactly those of Weka.
+ * </p>
+ * A feature vector has one value per attribute of the training dataset, the class included, as in a Weka instance.
+ */
+public final class CompiledRandomForest {
+    private static final int LEAF = -1;
+
+    private final int numClasses;
+    private final int[] roots;
+
+    private final int[] splitFeatures;
+    private final double[] splitPoints;
+    private final boolean[] nominalSplits;
+    private final int[] firstChildren, secondChildren;
+    private final double[] firstProps, secondProps;
+
+    private final int[] leafOffsets;
+    private final double[] leafDistributions;
+
+    private CompiledRandomForest(int numClasses, int[] roots, List<Node> nodes, double[] leafDistributions) {
+        this.numClasses = numClasses;
+        this.roots = roots;
+
+        final int numNodes = nodes.size();
+        splitFeatures = new int[numNodes];
+        splitPoints = new double[numNodes];
+        nominalSplits = new boolean[numNodes];
+        firstChildren = new int[numNodes];
+        secondChildren = new int[numNodes];
+        firstProps = new double[numNodes];
+        secondProps = new double[numNodes];
+        leafOffsets = new int[numNodes];
+
+        for (int i = 0; i < numNodes; i++) {
+            final Node node = nodes.get(i);
+            splitFeatures[i] = node.splitFeature;
+            splitPoints[i] = node.splitPoint;
+            nominalSplits[i] = node.nominalSplit;
+            firstChildren[i] = node.firstChild;
+            secondChildren[i] = node.secondChild;
+            firstProps[i] = node.firstProp;
+            secondProps[i] = node.secondProp;
+            leafOffsets[i] = node.leafOffset;
+        }
+
+        this.leafDistributions = leafDistributions;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the forest is not trained, was trained without features,
+     *                                  or does not predict a nominal class
+     */
+    public static CompiledRandomForest compile(FastRandomForest randomForest) {
+        if (readField(randomForest, "m_ZeroR") != null)
+            throw new IllegalArgumentException("a forest trained without features cannot be compiled");
+
+        final Instances info = (Instances) readField(randomForest, "m_Info");
+        final Object bagger = readField(randomForest, "m_bagger");
+        if (info == null || bagger == null)
+            throw new IllegalArgumentException("forest is not trained");
+        if (!info.classAttribute().isNominal())
+            throw new IllegalArgumentException("only forests of a nominal class can be compiled");
+
+        final Object[] trees = (Object[]) readField(bagger, "m_Classifiers");
+        final int numTrees = (Integer) readField(bagger, "m_NumIterations");
+
+        final List<Node> nodes = new ArrayList<>();
+        final List<double[]> leaves = new ArrayList<>();
+        final int[] leafLength = {0};
+
+        final int[] roots = new int[numTrees];
+        for (int t = 0; t < numTrees; t++)
+            roots[t] = compileTree(trees[t], info, nodes, leaves, leafLength);
+
+        final double[] leafDistributions = new double[leafLength[0]];
+        int offset = 0;
+        for (double[] leaf : leaves) {
+            System.arraycopy(leaf, 0, leafDistributions, offset, leaf.length);
+            offset += leaf.length;
+        }
+
+        return new CompiledRandomForest(info.numClasses(), roots, nodes, leafDistributions);
+    }
+
+    private static int compileTree(Object tree, Instances info, List<Node> nodes, List<double[]> leaves, int[] leafLength) {
+        final Node node = new Node();
+        final int index = nodes.size();
+        nodes.add(node);
+
+        node.splitFeature = (Integer) readField(tree, "m_Attribute");
+        if (node.splitFeature == LEAF) {
+            final double[] classProbs = (double[]) readField(tree, "m_ClassProbs");
+            if (classProbs != null) {
+                if (classProbs.length != info.numClasses())
+                    throw new IllegalArgumentException("leaf distribution does not cover the classes");
+                node.leafOffset = leafLength[0];
+                leaves.add(classProbs);
+                leafLength[0] += classProbs.length;
+            }
+            return index;
+        }
+
+        final Object[] successors = (Object[]) readField(tree, "m_Successors");
+        final double[] props = (double[]) readField(tree, "m_Prop");
+        if (successors.length != 2)
+            throw new IllegalArgumentException("only binary splits can be compiled");
+
+        node.splitPoint = (Double) readField(tree, "m_SplitPoint");
+        node.nominalSplit = info.attribute(node.splitFeature).isNominal();
+        node.firstProp = props[0];
+        node.secondProp = props[1];
+        node.firstChild = compileTree(successors[0], info, nodes, leaves, leafLength);
+        node.secondChild = compileTree(successors[1], info, nodes, leaves, leafLength);
+
+        return index;
+    }
+
+    private static Object readField(Object target, String name) {
+        for (Class<?> type = target.getClass(); type != null; type = type.getSuperclass()) {
+            try {
+                final Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(target);
+            } catch (NoSuchFieldException e) {
+                // declared in a superclass
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException(String.format("unable to read %s of %s", name, type.getName()), e);
+            }
+        }
+
+        throw new IllegalArgumentException(String.format("%s has no field %s", target.getClass().getName(), name));
+    }
+
+    public int numClasses() {
+        return numClasses;
+    }
+
+    /**
+     * @return the class distribution of the feature vector, as {@link FastRandomForest#distributionForInstance} computes it
+     */
+    public double[] distributionFor(double[] features) {
+        final double[] sums = new double[numClasses];
+
+        for (int root : roots) {
+            final int leaf = leafOf(root, features);
+            if (leaf >= 0) {
+                final int offset = leafOffsets[leaf];
+                if (offset < 0)
+                    throw new IllegalStateException("leaf without class distribution");
+                for (int j = 0; j < numClasses; j++)
+                    sums[j] += leafDistributions[offset + j];
+            } else {
+                final double[] dist = mixedDistribution(-leaf - 1, features);
+                for (int j = 0; j < numClasses; j++)
+                    sums[j] += dist[j];
+            }
+        }
+
+        if (!Utils.eq(Utils.sum(sums), 0))
+            Utils.normalize(sums);
+
+        return sums;
+    }
+
+    /**
+     * @return index of the predicted class, or a missing value if no class has a positive probability,
+     * as {@link FastRandomForest#classifyInstance} returns
+     */
+    public double classify(double[] features) {
+        final double[] dist = distributionFor(features);
+
+        double max = 0;
+        int maxIndex = 0;
+        for (int i = 0; i < dist.length; i++) {
+            if (dist[i] > max) {
+                maxIndex = i;
+                max = dist[i];
+            }
+        }
+
+        return max > 0 ? maxIndex : Utils.missingValue();
+    }
+
+    /**
+     * Classifies a batch of feature vectors, such as all candidates of an article
+     *
+     * @return the prediction of every feature vector, in the same order
+     */
+    public double[] classify(double[][] features) {
+        final double[] predictions = new double[features.length];
+        for (int i = 0; i < features.length; i++)
+            predictions[i] = classify(features[i]);
+        return predictions;
+    }
+
+    /**
+     * Walks down the tree while no split feature is missing.
+     *
+     * @return the leaf reached, or {@code -(node + 1)} for the node whose split feature is missing
+     */
+    private int leafOf(int root, double[] features) {
+        int node = root;
+        while (splitFeatures[node] != LEAF) {
+            final double value = features[splitFeatures[node]];
+            if (Utils.isMissingValue(value))
+                return -node - 1;
+            node = nextNode(node, value);
+        }
+
+        return node;
+    }
+
+    private int nextNode(int node, double value) {
+        final boolean first = nominalSplits[node] ? value == splitPoints[node] : value < splitPoints[node];
+        return first ? firstChildren[node] : secondChildren[node];
+    }
+
+    /**
+     * A missing split feature sends the vector down both children, weighting each by its share of the training data
+     *
+     * @return the mixed distribution, to which the leaves without a distribution add nothing
+     */
+    private double[] mixedDistribution(int node, double[] features) {
+        final double[] dist = new double[numClasses];
+        mix(dist, firstProps[node], subtreeDistribution(firstChildren[node], features));
+        mix(dist, secondProps[node], subtreeDistribution(secondChildren[node], features));
+        return dist;
+    }
+
+    private double[] subtreeDistribution(int node, double[] features) {
+        if (splitFeatures[node] == LEAF) {
+            if (leafOffsets[node] < 0)
+                return null;
+            final double[] dist = new double[numClasses];
+            System.arraycopy(leafDistributions, leafOffsets[node], dist, 0, numClasses);
+            return dist;
+        }
+
+        final double value = features[splitFeatures[node]];
+        if (Utils.isMissingValue(value))
+            return mixedDistribution(node, features);
+
+        return subtreeDistribution(nextNode(node, value), features);
+    }
+
+    private static void mix(double[] dist, double prop, double[] childDist) {
+        if (childDist == null)
+            return;
+
+        for (int j = 0; j < dist.length; j++)
+            dist[j] += prop * childDist[j];
+    }
+
+    private static class Node {
+        int splitFeature;
+        double splitPoint = Double.NaN;
+        boolean nominalSplit;
+        int firstChild = LEAF, secondChild = LEAF;
+        double firstProp, secondProp;
+        int leafOffset = -1;
+    }
+}
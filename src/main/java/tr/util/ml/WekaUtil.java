@@ -1,5 +1,6 @@
 package tr.util.ml;
 
+import hr.irb.fastRandomForest.FastRandomForest;
 import weka.classifiers.Classifier;
 import weka.core.Instances;
 import weka.core.SerializationHelper;
@@ -42,4 +43,12 @@ public class WekaUtil {
     public static<T extends Classifier> T loadClassificationModel(String modelFile) throws Exception {
         return (T) SerializationHelper.read(modelFile);
     }
+
+    /**
+     * Loads a serialized {@link FastRandomForest} and compiles it for classification without Weka instances
+     */
+    public static CompiledRandomForest loadCompiledRandomForest(String modelFile) throws Exception {
+        final FastRandomForest randomForest = loadClassificationModel(modelFile);
+        return CompiledRandomForest.compile(randomForest);
+    }
 }
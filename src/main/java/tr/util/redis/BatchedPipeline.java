@@ -0,0 +1,67 @@
+package tr.util.redis;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+
+/**
+ * A Redis pipeline shared by many writes, which is synced every <code>maxBatchSize</code> commands
+ * instead of once per write as {@link RedisDAO#pipeline(java.util.function.Function)} does.
+ * It holds on to one connection until it is closed, and it is not thread-safe.
+ */
+public class BatchedPipeline implements AutoCloseable {
+    private final int maxBatchSize;
+
+    private final Jedis jedis;
+    private final Pipeline pipeline;
+    private int batchSize = 0;
+    private long commandCount = 0;
+
+    public BatchedPipeline(int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+        this.jedis = RedisFactory.getWorker();
+        this.pipeline = jedis.pipelined();
+    }
+
+    public <T> PipelinedSet<T> set(String key) {
+        return new PipelinedSet<>(key, pipeline);
+    }
+
+    /**
+     * Counts a command issued on the pipeline, e.g. through {@link #set(String)}, and syncs the pipeline if the batch is full
+     */
+    public void added() {
+        commandCount++;
+        if (++batchSize >= maxBatchSize)
+            flush();
+    }
+
+    public void sadd(String key, String member) {
+        pipeline.sadd(key, member);
+        added();
+    }
+
+    public void srem(String key, String member) {
+        pipeline.srem(key, member);
+        added();
+    }
+
+    public void flush() {
+        if (batchSize > 0) {
+            pipeline.sync();
+            batchSize = 0;
+        }
+    }
+
+    public long getCommandCount() {
+        return commandCount;
+    }
+
+    @Override
+    public void close() {
+        try {
+            flush();
+        } finally {
+            jedis.close();
+        }
+    }
+}
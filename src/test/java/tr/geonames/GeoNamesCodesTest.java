@@ -0,0 +1,157 @@
+package tr.geonames;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.BiMap;
+import com.google.common.collect.HashBiMap;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class GeoNamesCodesTest {
+
+    private static final Logger logger = LogManager.getLogger(GeoNamesCodesTest.class);
+
+    private static final String GAZETTEER_DIR = "data/gazetteer";
+
+    /**
+     * Compares the level classification of every coded id (and as many uncoded ones) against the BiMap lookups,
+     * once with the tables read from the CSV files and once with the tables read from the cache written by the first load.
+     */
+    @Test
+    void testFindLevel() throws IOException {
+        final CodeTables tables = new CodeTables();
+        final Path cacheDir = Files.createTempDirectory("codes");
+        try {
+            final Path cacheFile = cacheDir.resolve("codes.cache");
+            for (int load = 0; load < 2; load++) {
+                final GeoNamesCodes codes = GeoNamesCodes.load(GAZETTEER_DIR, cacheFile);
+                assertTrue(Files.exists(cacheFile));
+
+                for (long geonameId : tables.sampleIds(0)) {
+                    assertEquals(tables.findLevel(geonameId), codes.findLevel(geonameId), String.valueOf(geonameId));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(cacheDir.resolve("codes.cache"));
+            Files.delete(cacheDir);
+        }
+    }
+
+    /**
+     * Times the level lookups of the BiMap tables against those of {@link GeoNamesCodes} on a million ids;
+     * the cache is kept in a temporary directory
+     */
+    @Disabled("benchmark")
+    @Tag("benchmark")
+    @Test
+    void benchmarkFindLevel() throws IOException {
+        final CodeTables tables = new CodeTables();
+        final long[] geonameIds = tables.sampleIds(1_000_000);
+
+        final Path cacheDir = Files.createTempDirectory("codes");
+        try {
+            final GeoNamesCodes codes = GeoNamesCodes.load(GAZETTEER_DIR, cacheDir.resolve("codes.cache"));
+
+            for (int round = 0; round < 5; round++) {
+                int levels = 0;
+
+                final Stopwatch biMapWatch = Stopwatch.createStarted();
+                for (long geonameId : geonameIds) {
+                    levels += tables.findLevel(geonameId).ordinal();
+                }
+                biMapWatch.stop();
+
+                final Stopwatch codesWatch = Stopwatch.createStarted();
+                for (long geonameId : geonameIds) {
+                    levels -= codes.findLevel(geonameId).ordinal();
+                }
+                codesWatch.stop();
+
+                // the difference of the levels keeps both loops from being optimized away, and is 0 if both agree
+                logger.info(String.format("round %d: BiMap %.1f ns/entry, GeoNamesCodes %.1f ns/entry (level difference %d)", round,
+                        (double) biMapWatch.elapsed(TimeUnit.NANOSECONDS) / geonameIds.length,
+                        (double) codesWatch.elapsed(TimeUnit.NANOSECONDS) / geonameIds.length,
+                        levels));
+            }
+        } finally {
+            Files.deleteIfExists(cacheDir.resolve("codes.cache"));
+            Files.delete(cacheDir);
+        }
+    }
+
+    /**
+     * The code tables as GeoNamesRepository used to keep them
+     */
+    private static class CodeTables {
+        final BiMap<String, Long> continentMap = read("continents.csv");
+        final BiMap<String, Long> countryMap = read("country.csv");
+        final BiMap<String, Long> admin1Map = read("admin1.csv");
+        final BiMap<String, Long> admin2Map = read("admin2.csv");
+
+        private static BiMap<String, Long> read(String file) {
+            final BiMap<String, Long> map = HashBiMap.create();
+            try {
+                final List<String> lines = Files.readAllLines(Paths.get(GAZETTEER_DIR, file));
+                for (String line : lines) {
+                    final String[] tokens = line.split(",");
+                    map.put(tokens[0], Long.valueOf(tokens[1]));
+                }
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            return map;
+        }
+
+        GeoNamesLevel findLevel(Long geonameId) {
+            if (continentMap.inverse().containsKey(geonameId))
+                return GeoNamesLevel.CONTINENT;
+            else if (countryMap.inverse().containsKey(geonameId))
+                return GeoNamesLevel.COUNTRY;
+            else if (admin1Map.inverse().containsKey(geonameId))
+                return GeoNamesLevel.ADMIN1;
+            else if (admin2Map.inverse().containsKey(geonameId))
+                return GeoNamesLevel.ADMIN2;
+            else
+                return GeoNamesLevel.LEAF;
+        }
+
+        /**
+         * @return all coded ids followed by as many random (mostly uncoded) ids, shuffled, repeated up to the given size
+         */
+        long[] sampleIds(int size) {
+            final long[] allCodedIds = Stream.of(continentMap, countryMap, admin1Map, admin2Map)
+                    .flatMap(map -> map.values().stream())
+                    .mapToLong(Long::longValue)
+                    .toArray();
+
+            final Random random = new Random(31);
+            final long[] ids = new long[Math.max(size, allCodedIds.length * 2)];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = i % 2 == 0 ? allCodedIds[(i / 2) % allCodedIds.length] : 1 + random.nextInt(12_000_000);
+            }
+
+            for (int i = ids.length - 1; i > 0; i--) {
+                final int j = random.nextInt(i + 1);
+                final long tmp = ids[i];
+                ids[i] = ids[j];
+                ids[j] = tmp;
+            }
+
+            return ids;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package tr.geonames;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class GeoNamesEntryTest {
+
+    @Test
+    void testAlternateNameCountMatchesSplit() {
+        final String[] alternateNames = {"", ",", ",,", "a", "a,", "a,,", ",a", "a,,b", "a,b,", ",a,,b,,"};
+
+        for (String altNames : alternateNames) {
+            final GeoNamesEntry entry = new GeoNamesEntry();
+            entry.setAlternateNames(altNames);
+            assertEquals(altNames.split(",").length, entry.getAlternateNameCount(), "'" + altNames + "'");
+        }
+
+        final GeoNamesEntry entry = new GeoNamesEntry();
+        entry.setAlternateNames(null);
+        assertEquals(0, entry.getAlternateNameCount());
+        assertEquals(0, entry.getLowerCaseAlternateNames().length);
+    }
+
+    @Test
+    void testLowerCaseAlternateNames() {
+        final GeoNamesEntry entry = new GeoNamesEntry();
+        entry.setName("Paris");
+        entry.setAlternateNames("Paris,,PARIS,Lutetia,paris,Parigi,");
+
+        assertEquals("paris", entry.getLowerCaseName());
+        assertArrayEquals(new String[] {"paris", "lutetia", "parigi"}, entry.getLowerCaseAlternateNames());
+        assertSame(entry.getLowerCaseName(), entry.getLowerCaseAlternateNames()[0]);
+    }
+}
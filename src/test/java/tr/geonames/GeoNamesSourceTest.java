@@ -0,0 +1,64 @@
+package tr.geonames;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GeoNamesSourceTest {
+
+    /**
+     * The budget keeps the most populated candidates of each name; candidates of equal population keep their loaded order.
+     */
+    @Test
+    void testLoadCandidatesWithBudget() {
+        final ListMultimap<String, GeoNamesEntry> entries = ArrayListMultimap.create();
+        entries.put("Springfield", newEntry(1L, 100L));
+        entries.put("Springfield", newEntry(2L, 5000L));
+        entries.put("Springfield", newEntry(3L, 100L));
+        entries.put("Springfield", newEntry(4L, 100L));
+        entries.put("Salem", newEntry(5L, 0L));
+
+        final GeoNamesSource source = new GeoNamesSource() {
+            @Override
+            public Optional<GeoNamesEntry> load(long geonameId) {
+                return entries.values().stream().filter(e -> e.getGeonameId() == geonameId).findFirst();
+            }
+
+            @Override
+            public List<GeoNamesEntry> load(String toponymText) {
+                return new ArrayList<>(entries.get(toponymText));
+            }
+
+            @Override
+            public long count(String toponymText) {
+                return entries.get(toponymText).size();
+            }
+        };
+
+        final List<String> names = Arrays.asList("Springfield", "Salem", "Nowhere");
+
+        final ListMultimap<String, GeoNamesEntry> top2 = source.loadCandidates(names, 2);
+        assertEquals(Arrays.asList(2L, 1L), ids(top2.get("Springfield")));
+        assertEquals(Collections.singletonList(5L), ids(top2.get("Salem")));
+        assertEquals(Collections.emptyList(), ids(top2.get("Nowhere")));
+
+        final ListMultimap<String, GeoNamesEntry> all = source.loadCandidates(names, Integer.MAX_VALUE);
+        assertEquals(Arrays.asList(2L, 1L, 3L, 4L), ids(all.get("Springfield")));
+    }
+
+    private static List<Long> ids(List<GeoNamesEntry> entries) {
+        return entries.stream().map(GeoNamesEntry::getGeonameId).collect(Collectors.toList());
+    }
+
+    private static GeoNamesEntry newEntry(long geonameId, long population) {
+        final GeoNamesEntry entry = new GeoNamesEntry();
+        entry.setGeonameId(geonameId);
+        entry.setPopulation(population);
+        return entry;
+    }
+}
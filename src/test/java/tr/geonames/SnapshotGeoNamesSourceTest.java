@@ -0,0 +1,114 @@
+package tr.geonames;
+
+import com.google.common.collect.ListMultimap;
+import org.junit.jupiter.api.Test;
+import tr.geonames.factory.GeoNamesSnapshotBuilder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SnapshotGeoNamesSourceTest {
+
+    /**
+     * Candidates of a name come in ascending order of geonameId and a budget ranks them by population,
+     * ties broken by geonameId, as the SQLite source ranks them.
+     */
+    @Test
+    void testCandidateOrderMatchesSQLiteSource() throws IOException {
+        final Path dir = Files.createTempDirectory("snapshot");
+        try {
+            final Path geoNamesFile = dir.resolve("geonames.txt");
+            Files.write(geoNamesFile, Arrays.asList(
+                    line(40, "Springfield", "", 100),
+                    line(10, "Springfield", "", 5000),
+                    line(30, "Springfield", "", 100),
+                    line(20, "Springfield", "", 100),
+                    line(50, "Salem", "Springfield", 0)), StandardCharsets.UTF_8);
+            final Path emptyFile = Files.createFile(dir.resolve("empty.txt"));
+            final Path snapshotFile = dir.resolve("geonames.snapshot");
+
+            GeoNamesSnapshotBuilder.build(geoNamesFile.toString(), emptyFile.toString(), emptyFile.toString(),
+                    snapshotFile.toString(), dir.resolve("geonames.hierarchy").toString());
+            final SnapshotGeoNamesSource source = new SnapshotGeoNamesSource(GeoNamesSnapshot.open(snapshotFile.toString()));
+
+            assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L), ids(source.load("Springfield")));
+            assertEquals(Collections.singletonList(50L), ids(source.load("salem")));
+
+            // the ranking of the SQLite source, which sorts the candidates it loads by population
+            final GeoNamesSource sqliteRanking = new GeoNamesSource() {
+                @Override
+                public Optional<GeoNamesEntry> load(long geonameId) {
+                    return source.load(geonameId);
+                }
+
+                @Override
+                public List<GeoNamesEntry> load(String toponymText) {
+                    return source.load(toponymText);
+                }
+
+                @Override
+                public long count(String toponymText) {
+                    return source.count(toponymText);
+                }
+            };
+
+            final List<String> names = Arrays.asList("Springfield", "Salem", "Nowhere");
+            for (int k : new int[]{1, 2, 3, Integer.MAX_VALUE}) {
+                final ListMultimap<String, GeoNamesEntry> expected = sqliteRanking.loadCandidates(names, k);
+                final ListMultimap<String, GeoNamesEntry> actual = source.loadCandidates(names, k);
+                for (String name : names)
+                    assertEquals(ids(expected.get(name)), ids(actual.get(name)), name + "/" + k);
+            }
+            assertEquals(Arrays.asList(10L, 20L, 30L, 40L, 50L), ids(source.loadCandidates(names, Integer.MAX_VALUE).get("Springfield")));
+        } finally {
+            for (Path file : Files.list(dir).collect(Collectors.toList()))
+                Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    /**
+     * The hierarchy index is written along with the snapshot, so that hierarchies are looked up alike on both backends.
+     */
+    @Test
+    void testHierarchyIndexBuiltWithSnapshot() throws IOException {
+        final Path dir = Files.createTempDirectory("snapshot");
+        try {
+            final Path geoNamesFile = dir.resolve("geonames.txt");
+            Files.write(geoNamesFile, Arrays.asList(
+                    line(10, "Springfield", "", 5000),
+                    line(20, "Salem", "", 100)), StandardCharsets.UTF_8);
+            final Path emptyFile = Files.createFile(dir.resolve("empty.txt"));
+            final Path hierarchyFile = dir.resolve("geonames.hierarchy");
+
+            GeoNamesSnapshotBuilder.build(geoNamesFile.toString(), emptyFile.toString(), emptyFile.toString(),
+                    dir.resolve("geonames.snapshot").toString(), hierarchyFile.toString());
+            final GeoNamesHierarchyIndex hierarchyIndex = GeoNamesHierarchyIndex.open(hierarchyFile.toString());
+
+            assertEquals(2, hierarchyIndex.size());
+            final int index = hierarchyIndex.indexOf(20);
+            assertEquals(6252001L, hierarchyIndex.parentAt(index, GeoNamesLevel.COUNTRY));
+            assertEquals(6254926L, hierarchyIndex.parentAt(index, GeoNamesLevel.ADMIN1));
+            assertEquals(-1, hierarchyIndex.indexOf(30));
+        } finally {
+            for (Path file : Files.list(dir).collect(Collectors.toList()))
+                Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    private static String line(long geonameId, String name, String alternateNames, long population) {
+        return String.join("\t", String.valueOf(geonameId), name, name, alternateNames, "42.1", "-72.5",
+                "P", "PPL", "US", "", "MA", "013", "", "", String.valueOf(population), "", "0", "America/New_York", "2018-04-10");
+    }
+
+    private static List<Long> ids(List<GeoNamesEntry> entries) {
+        return entries.stream().map(GeoNamesEntry::getGeonameId).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,138 @@
+package tr.geonames.factory;
+
+import com.google.common.collect.ImmutableSetMultimap;
+import org.junit.jupiter.api.Test;
+import tr.geonames.GeoNamesCodeTables;
+import tr.geonames.GeoNamesEntry;
+import tr.geonames.GeoNamesLevel;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeoNamesDeltaTest {
+
+    @Test
+    void testApplyDailyFiles() throws Exception {
+        final GeoNamesDelta delta = readDelta();
+
+        assertEquals(1, delta.getMalformedLines());
+        assertEquals(new LinkedHashSet<>(Arrays.asList(100L, 200L, 300L, 400L)), delta.getAffectedIds());
+
+        final Map<Long, GeoNamesEntry> currentEntries = new HashMap<>();
+        currentEntries.put(100L, newEntry(100L, "Springfield", "Springfeld,Sprinfield", "PPL", "01"));
+        currentEntries.put(300L, newEntry(300L, "Old Town", "Oldtown", "PPL", "01"));
+        currentEntries.put(400L, newEntry(400L, "Big City", "Old Bigville,Grande Ville", "PPL", "01"));
+
+        final GeoNamesDelta.Changes changes = delta.apply(currentEntries);
+
+        assertEquals(Arrays.asList(100L, 200L, 400L),
+                changes.upserts.stream().map(GeoNamesRecord::getGeonameId).collect(Collectors.toList()));
+        assertEquals(Collections.singleton(300L), changes.deletions);
+        assertEquals(Collections.singleton(100L), changes.relocatedIds);
+        assertTrue(changes.unknownIds.isEmpty());
+
+        assertEquals("Grande Ville,Bigville", changes.upserts.get(2).getAlternateNames());
+
+        assertEquals(ImmutableSetMultimap.<String, Long>builder()
+                        .put("springfield city", 100L)
+                        .put("new region", 200L)
+                        .put("neue region", 200L)
+                        .put("bigville", 400L)
+                        .build(),
+                ImmutableSetMultimap.copyOf(changes.addedKeys));
+        assertEquals(ImmutableSetMultimap.<String, Long>builder()
+                        .put("old town", 300L)
+                        .put("oldtown", 300L)
+                        .put("sprinfield", 100L)
+                        .put("old bigville", 400L)
+                        .build(),
+                ImmutableSetMultimap.copyOf(changes.removedKeys));
+    }
+
+    @Test
+    void testUpdateCodeTables() throws Exception {
+        final Path dir = Files.createTempDirectory("codes");
+        try {
+            write(dir, "continents.csv", "\uFEFFAF,1\nEU,2\n");
+            write(dir, "country.csv", "XX,10\r");
+            write(dir, "admin1.csv", "XX.01,50\rXX.07,60\r");
+            write(dir, "admin2.csv", "XX.01.300,300\r");
+
+            final Map<Long, GeoNamesEntry> currentEntries = new HashMap<>();
+            currentEntries.put(300L, newEntry(300L, "Old Town", "Oldtown", "ADM2", "01"));
+
+            final GeoNamesDelta.Changes changes = readDelta().apply(currentEntries);
+
+            final GeoNamesCodeTables codeTables = GeoNamesCodeTables.read(dir.toString());
+            assertTrue(changes.updateCodes(codeTables));
+            assertEquals(Long.valueOf(200L), codeTables.find(GeoNamesLevel.ADMIN1, "XX.07"));
+            codeTables.write();
+
+            assertEquals("\uFEFFAF,1\nEU,2\n", read(dir, "continents.csv"));
+            assertEquals("XX,10\r", read(dir, "country.csv"));
+            assertEquals("XX.01,50\rXX.07,200\r", read(dir, "admin1.csv"));
+            assertEquals("", read(dir, "admin2.csv"));
+
+            assertFalse(readDelta().apply(currentEntries).updateCodes(GeoNamesCodeTables.read(dir.toString())));
+        } finally {
+            for (Path file : Files.list(dir).collect(Collectors.toList()))
+                Files.delete(file);
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    void testEditAlternateNames() {
+        assertEquals("a,c,d", GeoNamesDelta.editAlternateNames("a,b,c", Collections.singleton("b"), Arrays.asList("c", "d", "e,f")));
+        assertEquals("x", GeoNamesDelta.editAlternateNames("", Collections.emptySet(), Collections.singleton("x")));
+        assertEquals("", GeoNamesDelta.editAlternateNames(null, Collections.singleton("x"), Collections.emptySet()));
+    }
+
+    private GeoNamesDelta readDelta() throws IOException, URISyntaxException {
+        final GeoNamesDelta delta = new GeoNamesDelta();
+        delta.readModifications(resource("modifications-2018-04-10.txt"));
+        delta.readDeletes(resource("deletes-2018-04-10.txt"));
+        delta.readAlternateNameModifications(resource("alternateNamesModifications-2018-04-10.txt"));
+        delta.readAlternateNameDeletes(resource("alternateNamesDeletes-2018-04-10.txt"));
+        return delta;
+    }
+
+    private Path resource(String name) throws URISyntaxException {
+        return Paths.get(getClass().getResource("/geonames/" + name).toURI());
+    }
+
+    /**
+     * As in the gazetteer table, the GeoNames feature code is stored as the feature class
+     */
+    private static GeoNamesEntry newEntry(long geonameId, String name, String alternateNames, String featureCode, String admin1Code) {
+        final GeoNamesEntry entry = new GeoNamesEntry();
+        entry.setGeonameId(geonameId);
+        entry.setName(name);
+        entry.setAlternateNames(alternateNames);
+        entry.setLatitude(0.0);
+        entry.setLongitude(0.0);
+        entry.setFeatureCode(featureCode.startsWith("ADM") ? "A" : "P");
+        entry.setFeatureClass(featureCode);
+        entry.setCountryCode("XX");
+        entry.setAdmin1code(admin1Code);
+        entry.setAdmin2code("");
+        entry.setPopulation(0L);
+        return entry;
+    }
+
+    private static void write(Path dir, String file, String content) throws IOException {
+        Files.write(dir.resolve(file), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(Path dir, String file) throws IOException {
+        return new String(Files.readAllBytes(dir.resolve(file)), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,65 @@
+package tr.geotagging.resolution;
+
+import org.junit.jupiter.api.Test;
+import tr.geonames.GeoNamesEntry;
+import tr.geonames.GeoNamesLevel;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class PinningTest {
+
+    @Test
+    void testPinSingleCandidate() {
+        final List<GeoCandidateEntry> candidates = Collections.singletonList(newCandidate(1L, "Edmonton", GeoNamesLevel.LEAF));
+
+        assertEquals(Optional.empty(), Pinning.NONE.pin("edmonton", candidates));
+        assertEquals(Optional.of(1L), Pinning.SINGLE.pin("edmonton", candidates).map(GeoNamesEntry::getGeonameId));
+        assertEquals(Optional.of(1L), Pinning.NAMES.pin("edmonton", candidates).map(GeoNamesEntry::getGeonameId));
+        assertEquals(Optional.empty(), Pinning.SINGLE.pin("edmonton", Collections.emptyList()));
+    }
+
+    @Test
+    void testPinNames() {
+        final List<GeoCandidateEntry> georgia = Arrays.asList(
+                newCandidate(1L, "Georgia", GeoNamesLevel.ADMIN1),
+                newCandidate(2L, "Georgia", GeoNamesLevel.COUNTRY),
+                newCandidate(3L, "Georgia", GeoNamesLevel.LEAF));
+
+        assertEquals(Optional.empty(), Pinning.SINGLE.pin("georgia", georgia));
+        assertEquals(Optional.of(2L), Pinning.NAMES.pin("georgia", georgia).map(GeoNamesEntry::getGeonameId));
+
+        final List<GeoCandidateEntry> alberta = Arrays.asList(
+                newCandidate(4L, "Alberta", GeoNamesLevel.LEAF),
+                newCandidate(5L, "Alberta", GeoNamesLevel.ADMIN1));
+        assertEquals(Optional.of(5L), Pinning.NAMES.pin("alberta", alberta).map(GeoNamesEntry::getGeonameId));
+
+        final List<GeoCandidateEntry> twoDivisions = Arrays.asList(
+                newCandidate(6L, "Punjab", GeoNamesLevel.ADMIN1),
+                newCandidate(7L, "Punjab", GeoNamesLevel.ADMIN1));
+        assertEquals(Optional.empty(), Pinning.NAMES.pin("punjab", twoDivisions));
+
+        final List<GeoCandidateEntry> otherName = Arrays.asList(
+                newCandidate(8L, "Georgia", GeoNamesLevel.COUNTRY),
+                newCandidate(9L, "Georgia", GeoNamesLevel.LEAF));
+        assertEquals(Optional.empty(), Pinning.NAMES.pin("sakartvelo", otherName));
+    }
+
+    @Test
+    void testOf() {
+        assertEquals(Pinning.NAMES, Pinning.of(" names"));
+        assertEquals(Pinning.NONE, Pinning.of("None"));
+    }
+
+    private static GeoCandidateEntry newCandidate(long geonameId, String name, GeoNamesLevel level) {
+        final GeoNamesEntry entry = new GeoNamesEntry();
+        entry.setGeonameId(geonameId);
+        entry.setName(name);
+        entry.setLevel(level);
+        return new GeoCandidateEntry(entry, Collections.emptyMap());
+    }
+}
@@ -0,0 +1,157 @@
+package tr.geotagging.resolution.contextbound;
+
+import com.google.common.collect.HashBasedTable;
+import com.google.common.collect.Table;
+import org.junit.jupiter.api.Test;
+import tr.TaggedWord;
+import tr.dataset.AnnotatedDatasets;
+import tr.dataset.DatasetException;
+import tr.geonames.GeoNamesEntry;
+import tr.geonames.GeoNamesLevel;
+import tr.geotagging.resolution.GeoCandidateEntry;
+import tr.util.DistanceFunction;
+import tr.util.math.MathUtil;
+import tr.util.math.statistics.SummaryStat;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ContextBoundModelTest {
+
+    private final ContextBoundResolver resolver = new ContextBoundResolver();
+    private final DistanceFunction<TaggedWord> dm = resolver.new IndexDistanceFunction();
+
+    /**
+     * Compares the dense model against the table-based computation it replaced, bit for bit, at every level.
+     */
+    @Test
+    void testModelMatchesTablesOnTRNews() throws DatasetException {
+        AnnotatedDatasets.TRNews.forEach(article -> {
+            if (!article.isAnnotated())
+                return;
+
+            final ContextBoundResolver.YRArticleBucket bucket = resolver.newArticleBucket(article, new ArrayList<>(article.getToponyms()));
+            bucket.setDisambiguatedMap(resolver.disambiguateLocations(bucket));
+
+            final ContextBoundModel model = new ContextBoundModel(bucket);
+
+            for (GeoNamesLevel level : GeoNamesLevel.getHierarchyLevels()) {
+                resolver.calcInheritProbModel(level, bucket, model);
+                resolver.calcNearProbModel(level, bucket, model);
+
+                final Table<String, Long, Double> inheritProbModel = calcInheritProbModel(level, bucket);
+                final Table<String, GeoCandidateEntry, Double> nearProbModel = calcNearProbModel(level, bucket);
+
+                for (int p = 0; p < model.getPhraseCount(); p++) {
+                    final String phrase = model.getPhrase(p);
+                    final List<GeoCandidateEntry> candidates = model.getCandidates(p);
+                    final String message = article.getArticleId() + "/" + level + "/" + phrase;
+
+                    for (int c = 0; c < candidates.size(); c++) {
+                        final Optional<GeoNamesEntry> constituentTerm = candidates.get(c).getEntryAt(level);
+                        if (!constituentTerm.isPresent())
+                            continue;
+
+                        assertBitEquals(nearProbModel.get(phrase, candidates.get(c)), model.getNearProb(p, c), message);
+                        assertBitEquals(inheritProbModel.get(phrase, constituentTerm.get().getGeonameId()), model.getInheritProb(p, c), message);
+                    }
+
+                    assertBitEquals(calcKLDivergence(level, phrase, nearProbModel, candidates),
+                            resolver.calcKLDivergence(level, model, p), message);
+                }
+            }
+        });
+    }
+
+    private static void assertBitEquals(double expected, double actual, String message) {
+        assertEquals(Double.doubleToLongBits(expected), Double.doubleToLongBits(actual), message);
+    }
+
+    private double calcKLDivergence(GeoNamesLevel level, String phrase, Table<String, GeoCandidateEntry, Double> nearProbModel, List<GeoCandidateEntry> candidateEntries) {
+        return candidateEntries.stream()
+                .filter(candidateEntry -> candidateEntry.getHierarchyMap().containsKey(level))
+                .mapToDouble(candidateEntry -> nearProbModel.get(phrase, candidateEntry))
+                .filter(Pn -> Pn != 0)
+                .reduce(0.0, (result, Pn) -> result - Pn * Math.log(Pn));
+    }
+
+    private Table<String, GeoCandidateEntry, Double> calcNearProbModel(GeoNamesLevel geoNamesLevel, ContextBoundResolver.YRArticleBucket articleBucket) {
+
+        Table<String, GeoCandidateEntry, Double> nearProbModel = HashBasedTable.create();
+
+        for (TaggedWord taggedWord : articleBucket.getRecognizedToponyms()) {
+
+            if (nearProbModel.containsRow(taggedWord.getPhrase().toLowerCase()))
+                continue;
+
+            final List<GeoCandidateEntry> candidates = articleBucket.getCandidates(taggedWord);
+            SummaryStat inverseDEStat = new SummaryStat();
+
+            for (GeoCandidateEntry candidate : candidates) {
+                final Optional<GeoNamesEntry> geoNamesEntry = candidate.getEntryAt(geoNamesLevel);
+                if (!geoNamesEntry.isPresent())
+                    continue;
+
+                final Set<TaggedWord> allMentions = articleBucket.getSurfaceAndIndirectMentions(geoNamesEntry.get());
+
+                SummaryStat DEStat = new SummaryStat();
+
+                for (TaggedWord mi : articleBucket.getSurfaceMentions(taggedWord.getPhrase().toLowerCase())) {
+                    for (TaggedWord mj : allMentions) {
+                        if (mj.equals(mi))
+                            continue;
+
+                        DEStat.accept(dm.applyAsDouble(mi, mj));
+                    }
+                }
+
+                final double inverseDE = DEStat.getCount() > 0 ? (1.0 / DEStat.getMin()) : 0;
+                inverseDEStat.accept(inverseDE);
+                nearProbModel.put(taggedWord.getPhrase().toLowerCase(), candidate, inverseDE);
+            }
+
+            for (GeoCandidateEntry candidate : candidates) {
+                final Double inverseDE = Optional.ofNullable(nearProbModel.get(taggedWord.getPhrase().toLowerCase(), candidate)).orElse(0D);
+                nearProbModel.put(taggedWord.getPhrase().toLowerCase(), candidate, MathUtil.safeDivide(inverseDE, inverseDEStat.getSum()));
+            }
+        }
+
+        return nearProbModel;
+    }
+
+    private Table<String, Long, Double> calcInheritProbModel(GeoNamesLevel geoNamesLevel, ContextBoundResolver.YRArticleBucket articleBucket) {
+
+        Table<String, Long, Double> inheritModel = HashBasedTable.create();
+
+        for (TaggedWord taggedWord : articleBucket.getRecognizedToponyms()) {
+
+            LongSummaryStatistics totalStats = new LongSummaryStatistics();
+            final Map<Long, Long> freqMap = new HashMap<>();
+
+            for (GeoCandidateEntry candidateEntry : articleBucket.getCandidates(taggedWord)) {
+                final Optional<GeoNamesEntry> constituency = candidateEntry.getEntryAt(geoNamesLevel);
+
+                if (!constituency.isPresent())
+                    continue;
+
+                if (freqMap.containsKey(constituency.get().getGeonameId()))
+                    continue;
+
+                final Set<TaggedWord> allMentions = articleBucket.getSurfaceAndIndirectMentions(constituency.get());
+                allMentions.removeIf(w -> w.equals(taggedWord));
+
+                final long tf = allMentions.size();
+                freqMap.put(constituency.get().getGeonameId(), tf);
+
+                totalStats.accept(tf);
+            }
+
+            freqMap.forEach((constituentId, tf) ->
+                    inheritModel.put(taggedWord.getPhrase().toLowerCase(), constituentId,
+                            MathUtil.safeDivide(tf, totalStats.getSum())));
+        }
+
+        return inheritModel;
+    }
+}
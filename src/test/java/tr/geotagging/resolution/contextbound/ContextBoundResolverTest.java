@@ -0,0 +1,61 @@
+package tr.geotagging.resolution.contextbound;
+
+import org.junit.jupiter.api.Test;
+import tr.TaggedWord;
+import tr.Toponym;
+import tr.dataset.AnnotatedDatasets;
+import tr.dataset.DatasetException;
+import tr.geotagging.resolution.Pinning;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ContextBoundResolverTest {
+
+    private static final int MAX_ITERATIONS = 5;
+
+    /**
+     * Incremental iterations have to end up with the same toponyms and scores as starting over in each iteration.
+     */
+    @Test
+    void testIncrementalMatchesFullOnTRNews() throws DatasetException {
+        final ContextBoundResolver fullResolver = new ContextBoundResolver(Integer.MAX_VALUE, MAX_ITERATIONS, false);
+        final ContextBoundResolver incrementalResolver = new ContextBoundResolver(Integer.MAX_VALUE, MAX_ITERATIONS, true);
+
+        AnnotatedDatasets.TRNews.forEach(article -> {
+            if (!article.isAnnotated())
+                return;
+
+            final List<TaggedWord> taggedWords = new ArrayList<>(article.getToponyms());
+            assertSameToponyms(fullResolver.resolve(article, taggedWords), incrementalResolver.resolve(article, taggedWords), article.getArticleId());
+        });
+    }
+
+    /**
+     * Single-candidate toponyms are resolved to their candidate anyway, so pinning them must not change any toponym or score.
+     */
+    @Test
+    void testSinglePinningMatchesNoneOnTRNews() throws DatasetException {
+        final ContextBoundResolver unpinnedResolver = new ContextBoundResolver(Integer.MAX_VALUE, MAX_ITERATIONS, false, Pinning.NONE);
+        final ContextBoundResolver pinnedResolver = new ContextBoundResolver(Integer.MAX_VALUE, MAX_ITERATIONS, false, Pinning.SINGLE);
+
+        AnnotatedDatasets.TRNews.forEach(article -> {
+            if (!article.isAnnotated())
+                return;
+
+            final List<TaggedWord> taggedWords = new ArrayList<>(article.getToponyms());
+            assertSameToponyms(unpinnedResolver.resolve(article, taggedWords), pinnedResolver.resolve(article, taggedWords), article.getArticleId());
+        });
+    }
+
+    private static void assertSameToponyms(List<Toponym> expected, List<Toponym> actual, String message) {
+        assertEquals(expected.size(), actual.size(), message);
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), actual.get(i), message);
+            assertEquals(expected.get(i).getGeonameId(), actual.get(i).getGeonameId(), message);
+            assertEquals(expected.get(i).getScore(), actual.get(i).getScore(), message);
+        }
+    }
+}
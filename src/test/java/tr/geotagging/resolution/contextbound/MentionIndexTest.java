@@ -0,0 +1,160 @@
+package tr.geotagging.resolution.contextbound;
+
+import com.google.common.base.Stopwatch;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.junit.jupiter.api.Disabled;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import tr.Article;
+import tr.TaggedWord;
+import tr.Toponym;
+import tr.dataset.AnnotatedDatasets;
+import tr.dataset.DatasetException;
+import tr.geonames.GeoNamesEntry;
+import tr.geonames.GeoNamesLevel;
+import tr.geotagging.resolution.GeoCandidateEntry;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MentionIndexTest {
+
+    private static final Logger logger = LogManager.getLogger(MentionIndexTest.class);
+
+    private final ContextBoundResolver resolver = new ContextBoundResolver();
+
+    /**
+     * Compares the indexed surface and indirect mentions of every candidate entry at every level
+     * against the mentions collected directly from the disambiguated toponyms.
+     */
+    @Test
+    void testSurfaceAndIndirectMentionsOnTRNews() throws DatasetException {
+        AnnotatedDatasets.TRNews.forEach(article -> {
+            if (!article.isAnnotated())
+                return;
+
+            final ContextBoundResolver.YRArticleBucket bucket = newDisambiguatedBucket(article);
+
+            for (GeoNamesEntry entry : candidateEntries(bucket)) {
+                final Set<TaggedWord> expected = bucket.getSurfaceMentions(entry);
+                expected.addAll(collectIndirectMentions(bucket, entry));
+
+                final String message = article.getArticleId() + "/" + entry.getGeonameId();
+                assertEquals(expected, bucket.getSurfaceAndIndirectMentions(entry), message);
+                assertEquals(expected.size(), bucket.getSurfaceAndIndirectMentionBits(entry).cardinality(), message);
+            }
+        });
+    }
+
+    /**
+     * Times the mentions of every candidate entry of the longest article, collected as sets against those
+     * counted from the bitsets, along with the heap each takes. The heap is read through {@link Runtime},
+     * so a collection during a loop makes its figure approximate.
+     */
+    @Disabled("benchmark")
+    @Tag("benchmark")
+    @Test
+    void benchmarkSurfaceAndIndirectMentions() throws DatasetException {
+        final List<Article> articles = new ArrayList<>();
+        AnnotatedDatasets.TRNews.forEach(article -> {
+            if (article.isAnnotated())
+                articles.add(article);
+        });
+
+        final Article longest = articles.stream().max(Comparator.comparingInt(a -> a.getToponyms().size())).get();
+        final ContextBoundResolver.YRArticleBucket bucket = newDisambiguatedBucket(longest);
+        final List<GeoNamesEntry> entries = candidateEntries(bucket);
+
+        for (int round = 0; round < 5; round++) {
+            long mentions = 0;
+
+            long used = usedHeap();
+            final Stopwatch setWatch = Stopwatch.createStarted();
+            for (GeoNamesEntry entry : entries) {
+                mentions += bucket.getSurfaceMentions(entry).size() + collectIndirectMentions(bucket, entry).size();
+            }
+            setWatch.stop();
+            final long setBytes = usedHeap() - used;
+
+            used = usedHeap();
+            final Stopwatch bitsWatch = Stopwatch.createStarted();
+            for (GeoNamesEntry entry : entries) {
+                mentions -= bucket.getSurfaceAndIndirectMentionBits(entry).cardinality();
+            }
+            bitsWatch.stop();
+            final long bitsBytes = usedHeap() - used;
+
+            logger.info(String.format("round %d (%d mentions, %d entries): sets %.1f us, ~%d bytes; bitsets %.1f us, ~%d bytes (difference %d)",
+                    round, longest.getToponyms().size(), entries.size(),
+                    setWatch.elapsed(TimeUnit.NANOSECONDS) / 1000.0, setBytes,
+                    bitsWatch.elapsed(TimeUnit.NANOSECONDS) / 1000.0, bitsBytes, mentions));
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private ContextBoundResolver.YRArticleBucket newDisambiguatedBucket(Article article) {
+        final ContextBoundResolver.YRArticleBucket bucket = resolver.newArticleBucket(article, new ArrayList<>(article.getToponyms()));
+        bucket.setDisambiguatedMap(resolver.disambiguateLocations(bucket));
+        return bucket;
+    }
+
+    /**
+     * @return the entries of all candidates at all hierarchy levels, as the context-bound models look them up
+     */
+    private static List<GeoNamesEntry> candidateEntries(ContextBoundResolver.YRArticleBucket bucket) {
+        final List<GeoNamesEntry> entries = new ArrayList<>();
+        for (GeoNamesLevel level : GeoNamesLevel.getHierarchyLevels()) {
+            for (GeoCandidateEntry candidateEntry : bucket.getCandidateMap().values())
+                candidateEntry.getEntryAt(level).ifPresent(entries::add);
+        }
+        return entries;
+    }
+
+    /**
+     * The mentions resolved to a candidate that has the given entry, or an entry of the same level and name,
+     * as itself or in its hierarchy
+     */
+    private static Set<TaggedWord> collectIndirectMentions(ContextBoundResolver.YRArticleBucket bucket, GeoNamesEntry entry) {
+        final Set<String> names = new HashSet<>(Arrays.asList(entry.getLowerCaseAlternateNames()));
+        names.add(entry.getLowerCaseName());
+
+        final Set<TaggedWord> mentions = new HashSet<>();
+        for (Map.Entry<TaggedWord, Toponym> disambiguatedEntry : bucket.disambiguatedMap.entrySet()) {
+            for (GeoCandidateEntry candidateEntry : bucket.getCandidates(disambiguatedEntry.getKey())) {
+                if (!candidateEntry.getGeoNamesCandid().getGeonameId().equals(disambiguatedEntry.getValue().getGeonameId()))
+                    continue;
+
+                final List<GeoNamesEntry> resolved = new ArrayList<>(candidateEntry.getHierarchyMap().values());
+                if (GeoNamesLevel.isHierarchyLevel(candidateEntry.getGeoNamesCandid().getLevel()))
+                    resolved.add(candidateEntry.getGeoNamesCandid());
+
+                for (GeoNamesEntry resolvedEntry : resolved) {
+                    if (resolvedEntry.getLevel() == entry.getLevel() && hasAnyName(resolvedEntry, names))
+                        mentions.add(disambiguatedEntry.getKey());
+                }
+                break;
+            }
+        }
+
+        return mentions;
+    }
+
+    private static boolean hasAnyName(GeoNamesEntry entry, Set<String> names) {
+        if (names.contains(entry.getLowerCaseName()))
+            return true;
+
+        for (String altName : entry.getLowerCaseAlternateNames()) {
+            if (names.contains(altName))
+                return true;
+        }
+
+        return false;
+    }
+}
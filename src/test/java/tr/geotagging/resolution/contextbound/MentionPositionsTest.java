@@ -0,0 +1,67 @@
+package tr.geotagging.resolution.contextbound;
+
+import org.junit.jupiter.api.Test;
+import tr.NamedEntityTag;
+import tr.TaggedWord;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MentionPositionsTest {
+
+    /**
+     * Compares the binary search against the nested loops over all pairs of mentions, with overlapping groups.
+     */
+    @Test
+    void testMinDistance() {
+        final Random random = new Random(17);
+
+        for (int round = 0; round < 500; round++) {
+            final List<TaggedWord> words = new ArrayList<>();
+            for (int i = 0, n = 1 + random.nextInt(30); i < n; i++) {
+                final int index = random.nextInt(200);
+                words.add(new TaggedWord("w" + random.nextInt(3), NamedEntityTag.LOCATION, index, index * 10, index * 10 + 5));
+            }
+
+            final List<TaggedWord> group = sample(words, random);
+            final List<TaggedWord> others = sample(words, random);
+
+            final MentionPositions positions = new MentionPositions(group);
+            for (TaggedWord mention : words)
+                assertEquals(minDistance(group, mention), positions.minDistance(mention), mention.toString());
+
+            int expected = MentionPositions.NOT_FOUND;
+            for (TaggedWord mention : others) {
+                final int d = minDistance(group, mention);
+                if (d != MentionPositions.NOT_FOUND && (expected == MentionPositions.NOT_FOUND || d < expected))
+                    expected = d;
+            }
+            assertEquals(expected, positions.minDistance(new MentionPositions(others)));
+        }
+    }
+
+    private static List<TaggedWord> sample(List<TaggedWord> words, Random random) {
+        final List<TaggedWord> sample = new ArrayList<>();
+        for (TaggedWord word : words) {
+            if (random.nextBoolean())
+                sample.add(word);
+        }
+        return sample;
+    }
+
+    private static int minDistance(List<TaggedWord> group, TaggedWord mention) {
+        int distance = MentionPositions.NOT_FOUND;
+        for (TaggedWord word : group) {
+            if (word.equals(mention))
+                continue;
+
+            final int d = Math.abs(word.getIndex() - mention.getIndex());
+            if (distance == MentionPositions.NOT_FOUND || d < distance)
+                distance = d;
+        }
+        return distance;
+    }
+}
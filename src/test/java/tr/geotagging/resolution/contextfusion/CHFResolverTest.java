@@ -0,0 +1,19 @@
+package tr.geotagging.resolution.contextfusion;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class CHFResolverTest {
+
+    /**
+     * The set cover and the context-bound stages have to keep the same candidates of a toponym
+     */
+    @Test
+    void testStagesShareCandidateBudget() {
+        final CHFResolver resolver = new CHFResolver(0.5, 3, null);
+
+        assertEquals(3, resolver.getCandidateBudget());
+        assertEquals(3, resolver.getContextBoundResolver().getCandidateBudget());
+    }
+}
@@ -0,0 +1,89 @@
+package tr.geotagging.resolution.lieberman;
+
+import com.google.common.collect.Multimap;
+import org.junit.jupiter.api.Test;
+import tr.TaggedWord;
+import tr.Toponym;
+import tr.dataset.AnnotatedDatasets;
+import tr.dataset.DatasetException;
+import tr.geotagging.recognition.GeoRecognizer;
+import tr.geotagging.recognition.MockRecognizer;
+import tr.util.Config;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LiebermanAdaptiveFeaturesBuilderTest {
+
+    /**
+     * The instances exported to ARFF have to be the same whether windows are found by binary search or by a scan.
+     * Instances are kept in a set, so the lines of both exports are compared in sorted order.
+     */
+    @Test
+    void testWindowsMatchScanInArffExportOnTRNews() throws DatasetException {
+        final GeoRecognizer recognizer = new MockRecognizer();
+
+        final LiebermanAdaptiveFeaturesBuilder.Accumulator expected =
+                new LiebermanAdaptiveFeaturesBuilder(Config.Adaptive.DEFAULT_Wb, Integer.MAX_VALUE, true).accumulator();
+        final LiebermanAdaptiveFeaturesBuilder.Accumulator actual =
+                new LiebermanAdaptiveFeaturesBuilder(Config.Adaptive.DEFAULT_Wb, Integer.MAX_VALUE).accumulator();
+
+        AnnotatedDatasets.TRNews.forEach(article -> {
+            if (!article.isAnnotated())
+                return;
+
+            expected.accept(recognizer.extract(article), article.getToponyms());
+            actual.accept(recognizer.extract(article), article.getToponyms());
+        });
+
+        assertEquals(arffLines(expected), arffLines(actual));
+    }
+
+    /**
+     * Features drawn from a cache shared by all articles, read twice so that the second pass is served by the cache,
+     * have to be the same as the features of a builder that sees a single article.
+     */
+    @Test
+    void testSharedFeatureCacheMatchesFreshBuilderOnTRNews() throws DatasetException {
+        final GeoRecognizer recognizer = new MockRecognizer();
+        final AdaptiveFeatureCache featureCache = new AdaptiveFeatureCache();
+        final LiebermanAdaptiveFeaturesBuilder sharedBuilder =
+                new LiebermanAdaptiveFeaturesBuilder(Config.Adaptive.DEFAULT_Wb, Integer.MAX_VALUE, featureCache);
+
+        for (int pass = 0; pass < 2; pass++) {
+            AnnotatedDatasets.TRNews.forEach(article -> {
+                if (!article.isAnnotated())
+                    return;
+
+                final List<TaggedWord> taggedWords = recognizer.extract(article);
+                final LiebermanAdaptiveFeaturesBuilder freshBuilder =
+                        new LiebermanAdaptiveFeaturesBuilder(Config.Adaptive.DEFAULT_Wb, Integer.MAX_VALUE);
+
+                assertEquals(featureLines(freshBuilder.toUnlabeledFeatures(taggedWords)),
+                        featureLines(sharedBuilder.toUnlabeledFeatures(taggedWords)),
+                        article.getArticleId());
+            });
+        }
+
+        assertTrue(featureCache.interpretationStats().hitCount() > 0);
+        assertTrue(featureCache.pairStats().hitCount() > 0);
+    }
+
+    private static List<String> featureLines(Multimap<Toponym, double[]> features) {
+        return features.entries().stream()
+                .map(e -> String.format("%s@%d:%d %s", e.getKey().getPhrase(), e.getKey().getStart(), e.getKey().getGeonameId(),
+                        Arrays.toString(e.getValue())))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    private static List<String> arffLines(LiebermanAdaptiveFeaturesBuilder.Accumulator accumulator) {
+        final List<String> lines = Arrays.asList(accumulator.toWekaDataset("TR-News").toString().split("\n"));
+        lines.sort(null);
+        return lines;
+    }
+}
@@ -0,0 +1,60 @@
+package tr.geotagging.resolution.lieberman;
+
+import hr.irb.fastRandomForest.FastRandomForest;
+import org.junit.jupiter.api.Test;
+import tr.dataset.AnnotatedDatasets;
+import tr.geotagging.recognition.GeoRecognizer;
+import tr.geotagging.recognition.MockRecognizer;
+import tr.util.Config;
+import tr.util.ml.CompiledRandomForest;
+import tr.util.ml.WekaUtil;
+import weka.core.Instance;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static tr.geotagging.resolution.lieberman.LiebermanAdaptiveModelBuilder.Model.*;
+
+class LiebermanAdaptiveGeoResolverTest {
+
+    /**
+     * The compiled forest has to predict the same distribution and class as Weka
+     * for every candidate of every article, with each shipped model.
+     */
+    @Test
+    void testCompiledForestMatchesWekaOnTRNews() throws Exception {
+        final List<String> modelFiles = Arrays.stream(new String[]{
+                LGL_noRECOG_wb80, LGL_stanfordNER_wb80, CLUST_noRECOG_wb80, CLUST_stanfordNER_wb80, OUR_noRECOG_wb80, OUR_stanfordNER_wb80})
+                .filter(modelFile -> new File(modelFile).exists())
+                .collect(Collectors.toList());
+        assumeFalse(modelFiles.isEmpty(), "no model is shipped");
+
+        final GeoRecognizer recognizer = new MockRecognizer();
+        final LiebermanAdaptiveFeaturesBuilder featuresBuilder = new LiebermanAdaptiveFeaturesBuilder(Config.Adaptive.DEFAULT_Wb, Integer.MAX_VALUE);
+
+        for (String modelFile : modelFiles) {
+            final FastRandomForest randomForest = WekaUtil.loadClassificationModel(modelFile);
+            final CompiledRandomForest compiledForest = CompiledRandomForest.compile(randomForest);
+
+            AnnotatedDatasets.TRNews.forEach(article -> {
+                if (!article.isAnnotated())
+                    return;
+
+                for (Instance instance : featuresBuilder.toUnlabeledInstances(recognizer.extract(article)).values()) {
+                    final double[] features = instance.toDoubleArray();
+                    final String message = modelFile + "/" + article.getArticleId();
+                    try {
+                        assertArrayEquals(randomForest.distributionForInstance(instance), compiledForest.distributionFor(features), message);
+                        assertEquals(randomForest.classifyInstance(instance), compiledForest.classify(features), message);
+                    } catch (Exception e) {
+                        fail(message, e);
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package tr.geotagging.resolution.lieberman;
+
+import org.junit.jupiter.api.Test;
+import tr.dataset.AnnotatedDatasets;
+import tr.dataset.DatasetException;
+import tr.geotagging.recognition.GeoRecognizer;
+import tr.geotagging.recognition.MockRecognizer;
+import tr.util.Config;
+import weka.classifiers.Evaluation;
+import weka.core.Instances;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LiebermanAdaptiveModelBuilderTest {
+
+    /**
+     * The exported instances have to be the same, in the same order, whether the articles are accepted in turn
+     * or by any number of threads.
+     */
+    @Test
+    void testParallelExportMatchesSequentialOnTRNews() throws DatasetException {
+        final GeoRecognizer recognizer = new MockRecognizer();
+        final LiebermanAdaptiveModelBuilder modelBuilder = new LiebermanAdaptiveModelBuilder();
+
+        final LiebermanAdaptiveFeaturesBuilder.Accumulator sequential =
+                new LiebermanAdaptiveFeaturesBuilder(Config.Adaptive.DEFAULT_Wb, Integer.MAX_VALUE).accumulator();
+        AnnotatedDatasets.TRNews.forEach(article -> {
+            if (article.isAnnotated())
+                sequential.accept(recognizer.extract(article), article.getToponyms());
+        });
+
+        final String expected = sequential.toWekaDataset(AnnotatedDatasets.TRNews.getName()).toString();
+
+        for (int threads : new int[]{1, 4}) {
+            final LiebermanAdaptiveFeaturesBuilder.Accumulator accumulator =
+                    modelBuilder.accumulate(AnnotatedDatasets.TRNews, recognizer, Config.Adaptive.DEFAULT_Wb, threads);
+            assertEquals(expected, accumulator.toWekaDataset(AnnotatedDatasets.TRNews.getName()).toString(), threads + " threads");
+        }
+    }
+
+    /**
+     * Every fold has its own seed, so cross validation has to give the same evaluation for any number of threads.
+     */
+    @Test
+    void testParallelCrossValidationIsReproducibleOnTRNews() throws Exception {
+        final LiebermanAdaptiveModelBuilder modelBuilder = new LiebermanAdaptiveModelBuilder();
+        final Instances dataset = modelBuilder.accumulate(AnnotatedDatasets.TRNews, new MockRecognizer(), Config.Adaptive.DEFAULT_Wb, 4)
+                .toWekaDataset(AnnotatedDatasets.TRNews.getName());
+
+        final Evaluation expected = modelBuilder.crossValidate(dataset, 10, Config.Adaptive.DEFAULT_N_FEATURES, 5, 1, 1);
+        final Evaluation actual = modelBuilder.crossValidate(dataset, 10, Config.Adaptive.DEFAULT_N_FEATURES, 5, 4, 1);
+
+        assertEquals(expected.toSummaryString(), actual.toSummaryString());
+        for (int c = 0; c < dataset.numClasses(); c++)
+            assertArrayEquals(expected.confusionMatrix()[c], actual.confusionMatrix()[c]);
+    }
+}
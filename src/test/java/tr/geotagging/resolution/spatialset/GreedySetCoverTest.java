@@ -0,0 +1,36 @@
+package tr.geotagging.resolution.spatialset;
+
+import org.junit.jupiter.api.Test;
+import tr.TaggedWord;
+import tr.dataset.AnnotatedDatasets;
+import tr.dataset.DatasetException;
+import tr.geonames.GeoNamesEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GreedySetCoverTest {
+
+    /**
+     * The lazy cover has to choose the same entries as the full scan, in the same order, on every article.
+     */
+    @Test
+    void testLazyCoverMatchesScanOnTRNews() throws DatasetException {
+        final SpatialHierarchySetResolver resolver = new SpatialHierarchySetResolver();
+
+        AnnotatedDatasets.TRNews.forEach(article -> {
+            if (!article.isAnnotated())
+                return;
+
+            final List<TaggedWord> taggedWords = new ArrayList<>(article.getToponyms());
+            final GreedySetCover setCover = resolver.newSetCover(resolver.newArticleBucket(article, taggedWords));
+
+            final List<Map.Entry<String, GeoNamesEntry>> expected = new ArrayList<>(setCover.coverByScan().entrySet());
+            final List<Map.Entry<String, GeoNamesEntry>> actual = new ArrayList<>(setCover.cover().entrySet());
+            assertEquals(expected, actual, article.getArticleId());
+        });
+    }
+}
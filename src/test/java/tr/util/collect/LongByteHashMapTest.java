@@ -0,0 +1,44 @@
+package tr.util.collect;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LongByteHashMapTest {
+
+    @Test
+    void testAgainstHashMap() {
+        final LongByteHashMap map = new LongByteHashMap(4);
+        final Map<Long, Byte> expected = new HashMap<>();
+
+        final Random random = new Random(17);
+        for (int i = 0; i < 10000; i++) {
+            final long key = random.nextInt(5000) - 100;
+            final byte value = (byte) random.nextInt(128);
+            map.put(key, value);
+            expected.put(key, value);
+        }
+
+        assertEquals(expected.size(), map.size());
+        expected.forEach((key, value) -> assertEquals((byte) value, map.get(key, (byte) -1)));
+    }
+
+    @Test
+    void testMissingKeys() {
+        final LongByteHashMap map = new LongByteHashMap();
+        map.put(0L, (byte) 3);
+        map.put(Long.MAX_VALUE, (byte) 5);
+
+        assertTrue(map.containsKey(0L));
+        assertFalse(map.containsKey(1L));
+        assertEquals(3, map.get(0L, (byte) -1));
+        assertEquals(5, map.get(Long.MAX_VALUE, (byte) -1));
+        assertEquals(-1, map.get(Long.MIN_VALUE, (byte) -1));
+    }
+}